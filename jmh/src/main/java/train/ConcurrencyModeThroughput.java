@@ -0,0 +1,40 @@
+package train;
+
+import java.util.List;
+
+/**
+ * Compare le débit des trois modes de synchronisation sur le parcours de
+ * {@link LockFreeStress} (un thread par train, sans pause ni contrôle) : déplacements
+ * par seconde et réveils, dont les réveils inutiles.
+ *
+ * Lancement : java -cp jmh/target/benchmarks.jar train.ConcurrencyModeThroughput [topologie] [trains] [ms par mode]
+ * (par défaut line:60:16:3, 31 trains et 2000 ms).
+ */
+public class ConcurrencyModeThroughput {
+
+	public static void main(String[] args) throws Exception {
+		String topology = args.length > 0 ? args[0] : "line:60:16:3";
+		int trainCount = args.length > 1 ? Integer.parseInt(args[1]) : 31;
+		long millis = args.length > 2 ? Long.parseLong(args[2]) : 2000;
+
+		System.out.printf("%s, %d trains, %d ms par mode, %d processeurs%n", topology, trainCount, millis,
+				Runtime.getRuntime().availableProcessors());
+		System.out.printf("%-10s %12s %10s %14s %14s%n", "mode", "dépl./s", "réveils", "réveils inut.", "dépl. min/max");
+		for (ConcurrencyMode mode : ConcurrencyMode.values()) {
+			Railway railway = new Railway(HeadlessMain.parseTopology(topology, trainCount), mode);
+			List<Train> trains = HeadlessMain.placeTrains(railway, trainCount);
+			long[] moves = new long[trainCount];
+			long start = System.nanoTime();
+			long total = LockFreeStress.drive(railway, trains, millis, moves);
+			double elapsed = (System.nanoTime() - start) / 1e9;
+			long min = Long.MAX_VALUE;
+			long max = 0;
+			for (long count : moves) {
+				min = Math.min(min, count);
+				max = Math.max(max, count);
+			}
+			System.out.printf("%-10s %12.0f %10d %14d %14s%n", mode, total / elapsed, railway.getWakeups(),
+					railway.getSpuriousWakeups(), min + "/" + max);
+		}
+	}
+}
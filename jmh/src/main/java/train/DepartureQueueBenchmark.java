@@ -0,0 +1,99 @@
+package train;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compare les départs en file ({@link DepartureQueue}, par défaut) aux réveils de tous
+ * les trains bloqués sur une même condition ({@code setFifoDepartures(false)}), sur
+ * une ligne où tous les trains se disputent le départ : deux grandes gares terminales
+ * reliées par une voie unique de quelques sections, un thread par train.
+ *
+ * Pour chaque mode : durée de chaque appel à {@link Railway#move} (attente comprise),
+ * en quantiles, indice d'équité (plus longue attente / moyenne), écart entre le train
+ * qui s'est le plus déplacé et celui qui s'est le moins déplacé, et réveils inutiles.
+ *
+ * Lancement : java -cp jmh/target/benchmarks.jar train.DepartureQueueBenchmark [trains] [secondes] [sections]
+ */
+public class DepartureQueueBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int trains = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		long seconds = args.length > 1 ? Long.parseLong(args[1]) : 3;
+		int sections = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+		System.out.printf("%d trains, %d sections, %d s par mesure, %d processeurs%n", trains, sections, seconds,
+				Runtime.getRuntime().availableProcessors());
+		System.out.printf("%-10s %12s %10s %10s %10s %10s %8s %14s %12s%n", "départs", "dépl./s", "p50 µs", "p99 µs",
+				"p99.9 µs", "max ms", "équité", "dépl. min/max", "réveils inut.");
+		for (boolean fifo : new boolean[] { false, true, false, true }) {
+			run(fifo, trains, sections, seconds);
+		}
+	}
+
+	private static void run(boolean fifo, int trainCount, int sections, long seconds) throws Exception {
+		Element[] elements = new Element[sections + 2];
+		elements[0] = new Station("GareA", trainCount);
+		for (int i = 1; i <= sections; i++) {
+			elements[i] = new Section("S" + i);
+		}
+		elements[sections + 1] = new Station("GareZ", trainCount);
+		Railway railway = new Railway(elements, ConcurrencyMode.GLOBAL);
+		railway.setFifoDepartures(fifo);
+		List<Train> trains = new ArrayList<>(trainCount);
+		for (int i = 0; i < trainCount; i++) {
+			boolean left = i % 2 == 0;
+			trains.add(new Train("T" + i, new Position(elements[left ? 0 : sections + 1],
+					left ? Direction.LR : Direction.RL), railway));
+		}
+
+		WaitHistogram latencies = new WaitHistogram();
+		long[] moves = new long[trainCount];
+		long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+		List<Thread> threads = new ArrayList<>(trainCount);
+		for (int i = 0; i < trainCount; i++) {
+			Train train = trains.get(i);
+			int index = i;
+			threads.add(new Thread(() -> {
+				long count = 0;
+				while (!Thread.currentThread().isInterrupted() && System.nanoTime() < deadline) {
+					long start = System.nanoTime();
+					if (railway.move(train)) {
+						latencies.record(System.nanoTime() - start);
+						count++;
+					}
+				}
+				moves[index] = count;
+			}, "Train-" + train.getName()));
+		}
+		long start = System.nanoTime();
+		for (Thread thread : threads) {
+			thread.setDaemon(true);
+			thread.start();
+		}
+		long remaining;
+		while ((remaining = deadline - System.nanoTime()) > 0) {
+			Thread.sleep(remaining / 1_000_000, (int) (remaining % 1_000_000));
+		}
+		for (Thread thread : threads) {
+			thread.interrupt();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+
+		long total = 0;
+		long min = Long.MAX_VALUE;
+		long max = 0;
+		for (long count : moves) {
+			total += count;
+			min = Math.min(min, count);
+			max = Math.max(max, count);
+		}
+		System.out.printf("%-10s %12.0f %10.1f %10.1f %10.1f %10.2f %8.1f %14s %12d%n", fifo ? "file" : "tous",
+				total / elapsed, latencies.quantileNanos(0.5) / 1e3, latencies.quantileNanos(0.99) / 1e3,
+				latencies.quantileNanos(0.999) / 1e3, latencies.maxNanos() / 1e6, latencies.fairness(),
+				min + "/" + max, railway.getSpuriousWakeups());
+	}
+}
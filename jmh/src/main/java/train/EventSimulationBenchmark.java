@@ -0,0 +1,59 @@
+package train;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mesure le débit du moteur à événements discrets ({@link EventSimulation}) :
+ * nombre de déplacements simulés par seconde réelle, sur une ligne comportant
+ * plusieurs gares intermédiaires.
+ * 
+ * Lancement : mvn -B package
+ *             java -cp jmh/target/benchmarks.jar train.EventSimulationBenchmark [segments] [heures virtuelles]
+ */
+public class EventSimulationBenchmark {
+	private static final int SECTIONS_PER_SEGMENT = 4;
+
+	public static void main(String[] args) throws BadPositionForTrainException {
+		int segments = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+		long hours = args.length > 1 ? Long.parseLong(args[1]) : 4;
+
+		List<Element> line = new ArrayList<>();
+		Station first = new Station("GareA", 2);
+		line.add(first);
+		List<Station> stations = new ArrayList<>();
+		stations.add(first);
+		for (int s = 0; s < segments; s++) {
+			for (int i = 0; i < SECTIONS_PER_SEGMENT; i++) {
+				line.add(new Section("S" + s + "_" + i));
+			}
+			Station station = (s == segments - 1) ? new Station("GareZ", 2) : new IntermediateStation("G" + s, 2);
+			line.add(station);
+			stations.add(station);
+		}
+		Element[] elements = line.toArray(new Element[0]);
+		Railway railway = new Railway(elements);
+		// Un train par gare dépasse la limite de FleetAnalysis : mesure de débit, blocage accepté
+		railway.setFleetLimitEnforced(false);
+		EventSimulation simulation = new EventSimulation(railway);
+
+		// Un train par gare, dans un sens alterné
+		int trains = 0;
+		for (int k = 0; k < stations.size(); k++) {
+			Direction direction = (k == 0 || (k % 2 == 0 && k != stations.size() - 1)) ? Direction.LR : Direction.RL;
+			Train train = new Train("T" + k, new Position(stations.get(k), direction), railway);
+			simulation.addTrain(train);
+			trains++;
+		}
+
+		long start = System.nanoTime();
+		simulation.run(hours * 3_600_000L);
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.printf("%d éléments, %d trains, %d h virtuelles%n", elements.length, trains, hours);
+		System.out.printf("%d déplacements en %.2f s : %.2f M déplacements/s%n",
+				simulation.getMoves(), seconds, simulation.getMoves() / seconds / 1e6);
+		System.out.printf("tentatives bloquées : %d, interblocage : %b%n",
+				simulation.getBlockedAttempts(), simulation.isDeadlocked());
+	}
+}
@@ -0,0 +1,35 @@
+package train;
+
+import java.util.List;
+
+/**
+ * Génère des lignes de test sur le modèle de celle de {@link Main}
+ * (GareA -- AB -- BC -- GareC -- CD -- GareD) : une gare intermédiaire tous les
+ * trois éléments, et des gares terminales aux deux extrémités. Lignes et trains
+ * sont construits par {@link HeadlessMain}, toutes les gares ayant ici la même capacité.
+ */
+final class Lines {
+
+	private Lines() {
+	}
+
+	/**
+	 * Construit une ligne de {@code length} éléments (au moins 3)
+	 * @param length le nombre d'éléments
+	 * @param capacity le nombre de quais de chaque gare
+	 * @return les éléments de la ligne
+	 */
+	static Element[] line(int length, int capacity) {
+		return HeadlessMain.line(length, capacity, 3, capacity);
+	}
+
+	/**
+	 * Place des trains alternativement aux deux extrémités de la ligne
+	 * @param railway la ligne
+	 * @param count le nombre de trains
+	 * @return les trains placés
+	 */
+	static List<Train> trains(Railway railway, int count) throws BadPositionForTrainException {
+		return HeadlessMain.placeTrains(railway, count);
+	}
+}
@@ -0,0 +1,97 @@
+package train;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Débit de la simulation répartie ({@link PartitionedSimulation}) selon le nombre de
+ * partitions, comparé au moteur à un seul thread ({@link EventSimulation}) sur la même
+ * ligne que {@link EventSimulationBenchmark} : un train par gare, de sens alternés.
+ *
+ * Le débit ne peut croître qu'avec des cœurs libres : au-delà du nombre de processeurs
+ * disponibles, les partitions se partagent les mêmes cœurs.
+ *
+ * Lancement : mvn -B package
+ *             java -cp jmh/target/benchmarks.jar train.PartitionedSimulationBenchmark [segments] [heures virtuelles] [partitions max]
+ */
+public class PartitionedSimulationBenchmark {
+	private static final int SECTIONS_PER_SEGMENT = 4;
+	private static final long DWELL = Train.DELAY_MS;
+
+	public static void main(String[] args) throws Exception {
+		int segments = args.length > 0 ? Integer.parseInt(args[0]) : 4_000;
+		long hours = args.length > 1 ? Long.parseLong(args[1]) : 2;
+		int maxPartitions = args.length > 2 ? Integer.parseInt(args[2])
+				: Math.max(4, Runtime.getRuntime().availableProcessors());
+
+		System.out.printf("%d segments, %d h virtuelles, %d processeurs%n", segments, hours,
+				Runtime.getRuntime().availableProcessors());
+		System.out.printf("%12s %14s %10s %16s %10s%n", "partitions", "déplacements", "temps (s)", "M déplacements/s",
+				"accél.");
+		double reference = 0;
+		for (int partitions = 0; partitions <= maxPartitions; partitions = partitions == 0 ? 1 : partitions * 2) {
+			// Échauffement puis mesure, chacun sur une ligne neuve
+			run(segments, 1, partitions);
+			long[] result = run(segments, hours, partitions);
+			double seconds = result[1] / 1e9;
+			double rate = result[0] / seconds / 1e6;
+			if (partitions == 0) {
+				reference = rate;
+			}
+			System.out.printf("%12s %14d %10.2f %16.2f %10.2f%n", partitions == 0 ? "séquentiel" : partitions,
+					result[0], seconds, rate, rate / reference);
+		}
+	}
+
+	/**
+	 * @param partitions le nombre de partitions, 0 pour {@link EventSimulation}
+	 * @return le nombre de déplacements et la durée réelle (ns)
+	 */
+	private static long[] run(int segments, long hours, int partitions) throws Exception {
+		List<Station> stations = new ArrayList<>();
+		Railway railway = new Railway(line(segments, stations), ConcurrencyMode.SEGMENT);
+		// Un train par gare dépasse la limite de FleetAnalysis : mesure de débit, blocage accepté
+		railway.setFleetLimitEnforced(false);
+		List<Train> trains = new ArrayList<>();
+		for (int k = 0; k < stations.size(); k++) {
+			Direction direction = (k == 0 || (k % 2 == 0 && k != stations.size() - 1)) ? Direction.LR : Direction.RL;
+			trains.add(new Train("T" + k, new Position(stations.get(k), direction), railway));
+		}
+
+		long duration = hours * 3_600_000L;
+		long start = System.nanoTime();
+		long moves;
+		if (partitions == 0) {
+			EventSimulation simulation = new EventSimulation(railway, DWELL);
+			for (Train train : trains) {
+				simulation.addTrain(train);
+			}
+			simulation.run(duration);
+			moves = simulation.getMoves();
+		} else {
+			PartitionedSimulation simulation = new PartitionedSimulation(railway, partitions, DWELL);
+			for (Train train : trains) {
+				simulation.addTrain(train);
+			}
+			simulation.run(duration);
+			moves = simulation.getMoves();
+		}
+		return new long[] { moves, System.nanoTime() - start };
+	}
+
+	private static Element[] line(int segments, List<Station> stations) {
+		List<Element> line = new ArrayList<>();
+		Station first = new Station("GareA", 2);
+		line.add(first);
+		stations.add(first);
+		for (int s = 0; s < segments; s++) {
+			for (int i = 0; i < SECTIONS_PER_SEGMENT; i++) {
+				line.add(new Section("S" + s + "_" + i));
+			}
+			Station station = (s == segments - 1) ? new Station("GareZ", 2) : new IntermediateStation("G" + s, 2);
+			line.add(station);
+			stations.add(station);
+		}
+		return line.toArray(new Element[0]);
+	}
+}
@@ -0,0 +1,110 @@
+package train;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Débit de {@link Railway#move(Train)} selon la longueur de la ligne, le nombre de
+ * trains et le mode de synchronisation.
+ * 
+ * Toutes les gares ont autant de quais que de trains : la ligne ne peut pas
+ * s'interbloquer. Chaque thread de mesure conduit son propre train. Les mesures
+ * concurrentes utilisent une seule tentative ({@link Railway#attemptMove(Train)}) :
+ * un thread suspendu dans {@code move} pourrait ne jamais être réveillé une fois
+ * les autres threads arrêtés en fin d'itération.
+ * Le paramètre {@code metrics} mesure le surcoût de {@link RailwayMetrics}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RailwayMoveBenchmark {
+
+	@Param({ "10", "1000", "100000" })
+	public int lineLength;
+
+	@Param({ "64", "1024" })
+	public int trainCount;
+
+	@Param({ "GLOBAL", "SEGMENT", "LOCK_FREE" })
+	public ConcurrencyMode mode;
+
+	// Avec ou sans mesures d'exécution (RailwayMetrics)
+	@Param({ "false", "true" })
+	public boolean metrics;
+
+	Railway railway;
+	List<Train> trains;
+	final AtomicInteger nextTrain = new AtomicInteger();
+
+	@Setup(Level.Trial)
+	public void setUp() throws BadPositionForTrainException {
+		railway = new Railway(Lines.line(lineLength, trainCount), mode);
+		trains = Lines.trains(railway, trainCount);
+		if (metrics) {
+			railway.setMetrics(new RailwayMetrics(railway));
+		}
+	}
+
+	/**
+	 * Le train conduit par un thread de mesure
+	 */
+	@State(Scope.Thread)
+	public static class Driver {
+		Train train;
+
+		@Setup(Level.Trial)
+		public void pick(RailwayMoveBenchmark benchmark) {
+			int index = benchmark.nextTrain.getAndIncrement();
+			if (index >= benchmark.trains.size())
+				throw new IllegalStateException("plus de threads que de trains");
+
+			train = benchmark.trains.get(index);
+		}
+	}
+
+	/**
+	 * Un seul train se déplace : il n'est jamais bloqué
+	 */
+	@Benchmark
+	@Threads(1)
+	public Position uncontended(Driver driver) {
+		railway.move(driver.train);
+		return driver.train.getPosition();
+	}
+
+	@Benchmark
+	@Threads(2)
+	public boolean threads2(Driver driver) {
+		return railway.attemptMove(driver.train);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public boolean threads8(Driver driver) {
+		return railway.attemptMove(driver.train);
+	}
+
+	@Benchmark
+	@Threads(64)
+	public boolean threads64(Driver driver) {
+		return railway.attemptMove(driver.train);
+	}
+}
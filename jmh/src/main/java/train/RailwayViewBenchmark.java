@@ -0,0 +1,74 @@
+package train;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Coût de la mise à jour de la vue, sans affichage (AWT headless) :
+ * <ul>
+ * <li>{@link #moveAndPublish} : déplacement d'un train quand une vue est ouverte
+ * (signalement dans {@link PositionUpdates}, seul coût payé par le thread du train) ;</li>
+ * <li>{@link #frame} : une image de la vue après que tous les trains ont bougé
+ * ({@link RailwayView#applyUpdates()}), indépendante du nombre de déplacements.</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RailwayViewBenchmark {
+
+	@Param({ "10", "1000" })
+	public int lineLength;
+
+	@Param({ "64", "1024" })
+	public int trainCount;
+
+	Railway railway;
+	RailwayView view;
+	List<Train> trains;
+	int next = 0;
+
+	@Setup
+	public void setUp() throws BadPositionForTrainException {
+		Element[] elements = Lines.line(lineLength, trainCount);
+		railway = new Railway(elements);
+		view = new RailwayView(railway, elements);
+		trains = Lines.trains(railway, trainCount);
+		view.applyUpdates();
+	}
+
+	@Benchmark
+	public boolean moveAndPublish() {
+		Train train = trains.get(next);
+		next = (next + 1) % trains.size();
+		return railway.attemptMove(train);
+	}
+
+	/**
+	 * Tous les trains tentent un déplacement, puis la vue prépare une image
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public RailwayView frame() {
+		for (int i = 0; i < trains.size(); i++) {
+			railway.attemptMove(trains.get(i));
+		}
+		view.applyUpdates();
+		return view;
+	}
+}
@@ -0,0 +1,52 @@
+package train;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Temps de chargement d'un {@link Scenario}, texte et binaire, pour des lignes et des
+ * flottes de tailles croissantes (facteur 10 à chaque fois) : le temps par élément et
+ * par train doit rester à peu près constant.
+ *
+ * Chaque scénario est écrit dans un fichier temporaire, puis chargé plusieurs fois ;
+ * le meilleur temps est retenu (les premiers chargements incluent la compilation).
+ *
+ * Lancement : java -Xmx4g -cp jmh/target/benchmarks.jar train.ScenarioLoadBenchmark [facteur max]
+ * (1000 éléments et 10 000 trains au départ, jusqu'à 100 000 éléments et 1 000 000 de trains
+ * par défaut)
+ */
+public class ScenarioLoadBenchmark {
+	private static final int RUNS = 5;
+
+	public static void main(String[] args) throws IOException, BadPositionForTrainException {
+		int maxFactor = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		System.out.printf("%10s %10s %8s %12s %10s %14s%n", "éléments", "trains", "format", "taille (Mo)",
+				"temps (ms)", "ns/(élt+train)");
+		for (int factor = 1; factor <= maxFactor; factor *= 10) {
+			int length = 1000 * factor;
+			int trains = 10_000 * factor;
+			Railway railway = new Railway(Lines.line(length, trains));
+			Lines.trains(railway, trains);
+			for (boolean binary : new boolean[] { false, true }) {
+				Path file = Files.createTempFile("scenario", binary ? ".bin" : ".txt");
+				try {
+					Scenario.save(railway, file, binary);
+					long best = Long.MAX_VALUE;
+					for (int run = 0; run < RUNS; run++) {
+						long start = System.nanoTime();
+						Railway loaded = Scenario.load(file, ConcurrencyMode.GLOBAL);
+						best = Math.min(best, System.nanoTime() - start);
+						if (loaded.getTrainCount() != trains)
+							throw new IllegalStateException("trains perdus : " + loaded.getTrainCount());
+					}
+					System.out.printf("%10d %10d %8s %12.1f %10.1f %14.0f%n", length, trains,
+							binary ? "binaire" : "texte", Files.size(file) / 1e6, best / 1e6,
+							(double) best / (length + trains));
+				} finally {
+					Files.delete(file);
+				}
+			}
+		}
+	}
+}
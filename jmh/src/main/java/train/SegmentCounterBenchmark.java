@@ -0,0 +1,56 @@
+package train;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Coût de la comptabilité des segments : un train entre sur un segment en quittant
+ * une gare ({@code enterSegment}) puis en sort en arrivant à la gare suivante
+ * ({@code leaveSegment}).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SegmentCounterBenchmark {
+
+	@Param({ "10", "1000", "100000" })
+	public int lineLength;
+
+	Railway railway;
+	Element departure;  // Gare au milieu de la ligne
+	Element arrival;  // Gare suivante vers la droite
+
+	@Setup
+	public void setUp() {
+		Element[] elements = Lines.line(lineLength, 1);
+		railway = new Railway(elements);
+		int middle = (elements.length / 2) / 3 * 3;
+		departure = elements[middle];
+		int next = middle + 1;
+		while (!(elements[next] instanceof Station)) {
+			next++;
+		}
+		arrival = elements[next];
+	}
+
+	@Benchmark
+	public int enterLeaveSegment() {
+		railway.enterSegment(departure, Direction.LR);
+		railway.leaveSegment(arrival, Direction.LR);
+		return railway.getTrainsOnSectionsLR();
+	}
+}
@@ -0,0 +1,69 @@
+package train;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Coût des opérations d'admission d'une gare : test de place libre, réservation
+ * puis consommation de la réservation à l'arrivée.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StationBenchmark {
+
+	@Param({ "3", "1024" })
+	public int trainCount;
+
+	Station station;
+
+	@Setup
+	public void setUp() {
+		station = new Station("GareA", trainCount + 1);
+		// L'état de la gare est rangé dans celui de sa ligne
+		new Railway(new Element[] { station, new Section("AB"), new Station("GareB", 1) });
+		for (int i = 0; i < trainCount; i++) {
+			station.enter();
+		}
+	}
+
+	@Benchmark
+	public boolean canAccept() {
+		return station.canAccept();
+	}
+
+	@Benchmark
+	public int reserveSpot() {
+		station.reserveSpot();
+		station.consumeReservation();
+		return station.getAvailableSpots();
+	}
+
+	/**
+	 * Cycle complet d'un train qui arrive puis repart : réservation, consommation, entrée, sortie
+	 */
+	@Benchmark
+	public int reservationCycle() {
+		if (station.canAccept()) {
+			station.reserveSpot();
+			station.consumeReservation();
+			station.enter();
+			station.leave();
+		}
+		return station.getTrainCount();
+	}
+}
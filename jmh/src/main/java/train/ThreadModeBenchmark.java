@@ -0,0 +1,84 @@
+package train;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compare le temps de démarrage et l'empreinte mémoire de N trains lancés sur des
+ * threads système ({@link ThreadMode#PLATFORM}) ou virtuels ({@link ThreadMode#VIRTUAL}).
+ * La mesure est prise pendant la première attente des trains (avant tout déplacement).
+ * 
+ * Lancement : java -cp jmh/target/benchmarks.jar train.ThreadModeBenchmark [platform|virtual] [trains]
+ * Chaque mode doit être lancé dans sa propre JVM pour que la mémoire soit comparable.
+ */
+public class ThreadModeBenchmark {
+
+	public static void main(String[] args) throws BadPositionForTrainException, InterruptedException {
+		ThreadMode mode = args.length > 0 ? ThreadMode.valueOf(args[0].toUpperCase()) : ThreadMode.VIRTUAL;
+		int trains = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+		if (!mode.isSupported()) {
+			System.out.println(mode + " : non disponible sur cette JVM (" + System.getProperty("java.version") + ")");
+			return;
+		}
+
+		Station left = new Station("GareA", trains);
+		Station right = new Station("GareZ", trains);
+		Element[] elements = { left, new Section("AB"), new Section("BC"), right };
+		Railway railway = new Railway(elements, ConcurrencyMode.SEGMENT);
+
+		List<Train> fleet = new ArrayList<>(trains);
+		for (int i = 0; i < trains; i++) {
+			Station station = (i % 2 == 0) ? left : right;
+			Direction direction = (i % 2 == 0) ? Direction.LR : Direction.RL;
+			fleet.add(new Train("T" + i, new Position(station, direction), railway));
+		}
+
+		long heapBefore = usedHeap();
+		long rssBefore = residentSetSize();
+		long start = System.nanoTime();
+		List<Thread> threads = new ArrayList<>(trains);
+		for (Train train : fleet) {
+			threads.add(mode.start(train));
+		}
+		double startupMs = (System.nanoTime() - start) / 1e6;
+		long heapAfter = usedHeap();
+		long rssAfter = residentSetSize();
+
+		System.out.printf("%s : %d trains démarrés en %.1f ms%n", mode, trains, startupMs);
+		System.out.printf("  tas : +%.1f Mo, mémoire résidente : +%.1f Mo (%.2f Ko/train)%n",
+				(heapAfter - heapBefore) / 1e6, (rssAfter - rssBefore) / 1e6,
+				(rssAfter - rssBefore) / 1e3 / trains);
+
+		for (Thread thread : threads) {
+			thread.interrupt();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+	}
+
+	private static long usedHeap() {
+		System.gc();
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Mémoire résidente du processus (Linux), 0 si elle n'est pas disponible
+	 */
+	private static long residentSetSize() {
+		try {
+			for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+				if (line.startsWith("VmRSS:")) {
+					return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+				}
+			}
+		} catch (IOException | NumberFormatException e) {
+			// Pas de /proc : seule la mesure du tas est disponible
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,255 @@
+package train;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Sauvegarde et restauration de l'état complet d'une ligne ({@link RailwayState} :
+ * trains présents et places réservées de chaque élément, compteurs LR/RL des
+ * segments, élément et direction de chaque train) dans un fichier projeté en mémoire.
+ *
+ * La ligne elle-même (éléments, noms des trains) n'est pas sauvegardée : on restaure
+ * dans une ligne reconstruite à l'identique, par exemple depuis le même {@link Scenario}.
+ * Une empreinte des éléments et le nombre de trains sont vérifiés à la restauration.
+ *
+ * Disposition fixe, petit-boutiste :
+ * <pre>
+ * en-tête (64 octets)
+ *   0  int   0x5452434B ("TRCK")     4  int  version (1)
+ *   8  int   nombre d'éléments      12  int  nombre de segments
+ *  16  int   nombre de trains       20  int  empreinte des éléments
+ *  24  int   taille d'un emplacement
+ * deux emplacements, utilisés à tour de rôle, à 64 et 64 + taille :
+ *   0  long  numéro de la sauvegarde (0 : vide)
+ *   8  long  date (ms depuis l'époque)
+ *  16  int   CRC32 des données      20  int  1 si complète, 0 pendant l'écriture
+ *  32  données :
+ *        int[éléments]  trains présents      int[éléments]  places réservées
+ *        int[2 × segments]  trains par segment et direction
+ *        int[trains]  élément de chaque train
+ *        byte[trains]  direction de chaque train (ordinal)
+ * </pre>
+ *
+ * Une sauvegarde est prise à un point de repos : toute la ligne est verrouillée le
+ * temps de copier les tableaux dans la projection (copies en bloc, quelques
+ * millisecondes pour un million de trains), le CRC est calculé après. Comme les deux
+ * emplacements alternent, un arrêt brutal de la JVM pendant une sauvegarde laisse
+ * intacte la précédente : la restauration prend l'emplacement complet, au CRC valide,
+ * de plus grand numéro. Les pages écrites survivent à l'arrêt de la JVM ; {@link #force()}
+ * les écrit aussi sur le disque (arrêt du système).
+ */
+public final class Checkpoint implements AutoCloseable {
+	private static final int MAGIC = 0x5452434B;  // "TRCK"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+	private static final int SLOT_HEADER_SIZE = 32;
+	private static final int SLOTS = 2;
+
+	private final Railway railway;
+	private final FileChannel channel;
+	private final MappedByteBuffer map;
+	private final int trainCount;  // Nombre de trains à l'ouverture
+	private final int slotSize;
+	private final int dataSize;  // Taille des données d'un emplacement
+	private final CRC32 crc = new CRC32();
+	private long sequence;  // Numéro de la dernière sauvegarde
+
+	private Checkpoint(Railway railway, FileChannel channel, MappedByteBuffer map, int trainCount, int slotSize,
+			long sequence) {
+		this.railway = railway;
+		this.channel = channel;
+		this.map = map;
+		this.trainCount = trainCount;
+		this.slotSize = slotSize;
+		this.dataSize = (int) railway.getState().savedSize();
+		this.sequence = sequence;
+	}
+
+	/**
+	 * Ouvre (ou crée) le fichier de sauvegarde d'une ligne. Un fichier existant pour la
+	 * même ligne et le même nombre de trains est repris : les sauvegardes suivantes
+	 * continuent sa numérotation ; sinon il est réinitialisé.
+	 * Le nombre de trains de la ligne ne doit plus changer ensuite.
+	 * @param file le fichier
+	 * @param railway la ligne à sauvegarder
+	 */
+	public static Checkpoint open(Path file, Railway railway) throws IOException {
+		int trains = railway.getTrainCount();
+		int slotSize = slotSize(railway);
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			long size = HEADER_SIZE + (long) SLOTS * slotSize;
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			map.order(ByteOrder.LITTLE_ENDIAN);
+			long sequence = 0;
+			if (matches(map, railway, trains, slotSize)) {
+				for (int slot = 0; slot < SLOTS; slot++) {
+					sequence = Math.max(sequence, map.getLong(HEADER_SIZE + slot * slotSize));
+				}
+			} else {
+				map.putInt(0, MAGIC);
+				map.putInt(4, VERSION);
+				map.putInt(8, railway.getElements().length);
+				map.putInt(12, railway.getState().segments().segmentCount());
+				map.putInt(16, trains);
+				map.putInt(20, fingerprint(railway));
+				map.putInt(24, slotSize);
+				for (int slot = 0; slot < SLOTS; slot++) {
+					map.putLong(HEADER_SIZE + slot * slotSize, 0);
+					map.putInt(HEADER_SIZE + slot * slotSize + 20, 0);
+				}
+			}
+			return new Checkpoint(railway, channel, map, trains, slotSize, sequence);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Prend une sauvegarde cohérente de l'état de la ligne. Avec une
+	 * {@link EventSimulation}, appeler entre deux {@code run} (sur son thread).
+	 * @return le numéro de la sauvegarde
+	 * @throws IllegalStateException si des trains ont été ajoutés depuis l'ouverture
+	 */
+	public synchronized long save() {
+		if (railway.getTrainCount() != trainCount)
+			throw new IllegalStateException("nombre de trains changé depuis l'ouverture : "
+					+ trainCount + " -> " + railway.getTrainCount());
+
+		long next = sequence + 1;
+		int base = HEADER_SIZE + (int) (next % SLOTS) * slotSize;
+		// Emplacement marqué incomplet avant d'être réécrit
+		map.putInt(base + 20, 0);
+		map.putLong(base, next);
+		map.putLong(base + 8, System.currentTimeMillis());
+
+		ByteBuffer data = slice(map, base, dataSize);
+		railway.saveState(data);
+
+		data.flip();
+		crc.reset();
+		crc.update(data);
+		map.putInt(base + 16, (int) crc.getValue());
+		map.putInt(base + 20, 1);
+		sequence = next;
+		return next;
+	}
+
+	/**
+	 * Écrit sur le disque les pages modifiées de la projection
+	 */
+	public synchronized void force() {
+		map.force();
+	}
+
+	/**
+	 * Retourne le numéro de la dernière sauvegarde (0 s'il n'y en a pas)
+	 */
+	public synchronized long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Restaure dans la ligne la dernière sauvegarde complète et valide du fichier.
+	 * La ligne doit être identique à celle sauvegardée, avec ses trains placés mais
+	 * arrêtés ; ils reprennent depuis les positions restaurées.
+	 * @param file le fichier de sauvegarde
+	 * @param railway la ligne à restaurer
+	 * @return le numéro de la sauvegarde restaurée
+	 * @throws IOException si le fichier ne correspond pas à la ligne ou ne contient aucune
+	 *         sauvegarde valide
+	 */
+	public static long restore(Path file, Railway railway) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			map.order(ByteOrder.LITTLE_ENDIAN);
+			int trains = railway.getTrainCount();
+			int slotSize = slotSize(railway);
+			if (map.capacity() < HEADER_SIZE + (long) SLOTS * slotSize || !matches(map, railway, trains, slotSize))
+				throw new IOException(file + " : sauvegarde d'une autre ligne ou d'un autre nombre de trains");
+
+			int dataSize = (int) railway.getState().savedSize();
+			CRC32 crc = new CRC32();
+			int best = -1;
+			long bestSequence = 0;
+			for (int slot = 0; slot < SLOTS; slot++) {
+				int base = HEADER_SIZE + slot * slotSize;
+				long sequence = map.getLong(base);
+				if (sequence <= bestSequence || map.getInt(base + 20) != 1) {
+					continue;
+				}
+				ByteBuffer data = slice(map, base, dataSize);
+				crc.reset();
+				crc.update(data);
+				if ((int) crc.getValue() == map.getInt(base + 16)) {
+					best = base;
+					bestSequence = sequence;
+				}
+			}
+			if (best < 0)
+				throw new IOException(file + " : aucune sauvegarde complète");
+
+			railway.restoreState(slice(map, best, dataSize));
+			return bestSequence;
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		map.force();
+		channel.close();
+	}
+
+	/**
+	 * Retourne les données d'un emplacement, en petit-boutiste
+	 * @param dataSize la taille des données ({@link RailwayState#savedSize()})
+	 */
+	private static ByteBuffer slice(ByteBuffer map, int base, int dataSize) {
+		ByteBuffer data = map.duplicate();
+		data.position(base + SLOT_HEADER_SIZE).limit(base + SLOT_HEADER_SIZE + dataSize);
+		data = data.slice();
+		data.order(ByteOrder.LITTLE_ENDIAN);
+		return data;
+	}
+
+	private static boolean matches(ByteBuffer map, Railway railway, int trains, int slotSize) {
+		return map.getInt(0) == MAGIC && map.getInt(4) == VERSION
+				&& map.getInt(8) == railway.getElements().length
+				&& map.getInt(12) == railway.getState().segments().segmentCount()
+				&& map.getInt(16) == trains && map.getInt(20) == fingerprint(railway)
+				&& map.getInt(24) == slotSize;
+	}
+
+	/**
+	 * Taille d'un emplacement, arrondie à 8 octets
+	 * @throws IllegalArgumentException au-delà de 2 Go (limite d'une projection)
+	 */
+	private static int slotSize(Railway railway) {
+		long size = (SLOT_HEADER_SIZE + railway.getState().savedSize() + 7) & ~7L;
+		if (HEADER_SIZE + SLOTS * size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("état trop grand pour une sauvegarde : " + size + " octets");
+		return (int) size;
+	}
+
+	/**
+	 * Empreinte des éléments (type, capacité, nom) : deux lignes différentes ont
+	 * presque sûrement des empreintes différentes
+	 */
+	private static int fingerprint(Railway railway) {
+		int hash = 1;
+		for (Element element : railway.getElements()) {
+			int kind = element instanceof IntermediateStation ? 2 : element instanceof Station ? 1 : 0;
+			int capacity = element instanceof Station ? ((Station) element).getSize() : 1;
+			hash = 31 * (31 * (31 * hash + kind) + capacity) + element.toString().hashCode();
+		}
+		return hash;
+	}
+}
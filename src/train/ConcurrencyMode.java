@@ -0,0 +1,23 @@
+package train;
+
+/**
+ * Mode de synchronisation utilisé par {@link Railway#move(Train)}.
+ * <ol>
+ * <li>{@link #GLOBAL} : un seul verrou pour toute la ligne (comportement
+ * historique). Simple, mais tous les déplacements sont sérialisés.</li>
+ * <li>{@link #SEGMENT} : un verrou et un ensemble d'attente par segment
+ * (portion de ligne entre deux gares). Deux trains circulant sur des segments
+ * disjoints ne se bloquent plus mutuellement.</li>
+ * <li>{@link #LOCK_FREE} : aucun verrou. Occupation des sections, trains et
+ * réservations des gares, compteurs des segments sont rangés dans des mots atomiques ;
+ * un déplacement est validé par compare-and-set, et un train bloqué se suspend dans
+ * une {@link ConcurrentWaitQueue}. Les départs suivent les files des gares
+ * ({@link ConcurrentDepartureQueue}), et ni le journal des déplacements ni la
+ * sauvegarde de l'état ne sont disponibles : ils supposent une ligne verrouillable.</li>
+ * </ol>
+ */
+public enum ConcurrencyMode {
+	GLOBAL,
+	SEGMENT,
+	LOCK_FREE;
+}
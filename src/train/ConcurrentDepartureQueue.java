@@ -0,0 +1,58 @@
+package train;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * File des départs d'une gare dans une direction, pour le mode
+ * {@link ConcurrencyMode#LOCK_FREE} : l'équivalent sans verrou de {@link DepartureQueue}.
+ * Seul le premier train tente son départ et attend, dans une
+ * {@link ConcurrentWaitQueue}, la condition qui le bloque ; les suivants attendent
+ * qu'il soit parti, et seul le nouveau premier est alors réveillé.
+ *
+ * Un train se range dans la file puis regarde s'il en est le premier ; celui qui
+ * part se retire puis passe la tête au nouveau premier. L'un des deux voit toujours
+ * l'autre : un train ne reste pas rangé derrière une tête déjà partie.
+ *
+ * Seul le thread d'un train l'ajoute à une file ou l'en retire.
+ */
+final class ConcurrentDepartureQueue {
+	private final ConcurrentLinkedQueue<Train> trains = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Range un train en fin de file (sans effet s'il y est déjà ; son thread doit déjà
+	 * être enregistré dans le train)
+	 */
+	void add(Train train) {
+		if (train.getConcurrentDepartureQueue() == this) {
+			return;
+		}
+		train.setConcurrentDepartureQueue(this);
+		trains.offer(train);
+	}
+
+	/**
+	 * Retourne le premier train de la file, ou null si elle est vide
+	 */
+	Train peek() {
+		return trains.peek();
+	}
+
+	/**
+	 * Retire un train de la file (sans effet s'il n'y est pas)
+	 * @return le premier train restant, à qui l'appelant passe la tête (null si la file
+	 *         est vide). Un train qui n'était pas premier a pu le devenir pendant son
+	 *         retrait : son successeur est donc toujours retourné.
+	 */
+	Train remove(Train train) {
+		if (train.getConcurrentDepartureQueue() != this) {
+			return null;
+		}
+		train.setConcurrentDepartureQueue(null);
+		if (trains.peek() == train) {
+			trains.poll();
+		} else {
+			trains.remove(train);
+		}
+		return trains.peek();
+	}
+}
@@ -0,0 +1,63 @@
+package train;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * File des trains bloqués sur une condition, pour le mode
+ * {@link ConcurrencyMode#LOCK_FREE} : l'équivalent sans verrou de {@link WaitQueue}.
+ *
+ * Aucun verrou ne protège à la fois l'état attendu et la file : un train s'inscrit
+ * d'abord, puis vérifie de nouveau la condition avant de se suspendre ; celui qui la
+ * modifie le fait d'abord, puis réveille les trains inscrits. Inscription et
+ * modification étant des accès volatils, au moins l'un des deux voit l'autre : soit
+ * le train voit la condition satisfaite, soit il est réveillé.
+ *
+ * Un train n'attend qu'une condition à la fois ({@link Train#getParkedOn()}) : une
+ * inscription laissée dans une autre file y est ignorée au réveil suivant, et une
+ * nouvelle inscription dans la même file est sans effet tant que la première n'a
+ * pas été réveillée.
+ */
+final class ConcurrentWaitQueue {
+	private final ConcurrentLinkedQueue<Train> trains = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Inscrit un train dans la file (son thread doit déjà être enregistré dans le train)
+	 * @param train le train bloqué
+	 */
+	void add(Train train) {
+		if (train.getParkedOn() == this) {
+			return;
+		}
+		train.setParkedOn(this);
+		trains.offer(train);
+	}
+
+	/**
+	 * Inscrit dans la file un train suspendu, à la place de son thread, s'il n'attend
+	 * aucune autre condition
+	 * @return false si le train attend déjà une condition (il n'est pas inscrit)
+	 */
+	boolean addWaiting(Train train) {
+		if (!train.parkOn(this)) {
+			return false;
+		}
+		trains.offer(train);
+		return true;
+	}
+
+	/**
+	 * Réveille tous les trains inscrits dans la file et qui y attendent encore
+	 */
+	void wakeAll(Waker waker) {
+		Train train;
+		while ((train = trains.poll()) != null) {
+			if (train.clearParkedOn(this)) {
+				waker.wake(train);
+			}
+		}
+	}
+
+	boolean isEmpty() {
+		return trains.isEmpty();
+	}
+}
@@ -0,0 +1,64 @@
+package train;
+
+import java.util.ArrayDeque;
+
+/**
+ * File des départs d'une gare dans une direction (voir
+ * {@link Station#getDepartureQueue(Direction)}) : les trains qui n'ont pas pu partir
+ * y sont rangés dans l'ordre où ils ont été bloqués, et partent dans cet ordre.
+ *
+ * Seul le premier train attend la condition qui l'empêche de partir (dans une
+ * {@link WaitQueue}) ; les suivants attendent qu'il soit parti, et {@link Railway} ne
+ * réveille alors que le nouveau premier. Tous les trains de la file attendent les
+ * mêmes conditions (même section suivante, même segment, même gare de destination) :
+ * l'ordre imposé ne retarde jamais un train qui aurait pu partir avant le premier.
+ *
+ * La file n'est pas synchronisée : elle est protégée, comme l'état de la gare, par le
+ * verrou de la ligne ou les verrous des deux segments qui bordent la gare.
+ */
+final class DepartureQueue {
+	private final ArrayDeque<Train> trains = new ArrayDeque<>();
+
+	/**
+	 * Range un train en fin de file (sans effet s'il y est déjà)
+	 */
+	void add(Train train) {
+		if (train.getDepartureQueue() == this) {
+			return;
+		}
+		train.setDepartureQueue(this);
+		trains.addLast(train);
+	}
+
+	/**
+	 * Retourne le premier train de la file, ou null si elle est vide
+	 */
+	Train peek() {
+		return trains.peekFirst();
+	}
+
+	/**
+	 * Retire un train de la file
+	 * @return true si c'était le premier
+	 */
+	boolean remove(Train train) {
+		if (train.getDepartureQueue() != this) {
+			return false;
+		}
+		train.setDepartureQueue(null);
+		if (trains.peekFirst() == train) {
+			trains.pollFirst();
+			return true;
+		}
+		trains.remove(train);
+		return false;
+	}
+
+	boolean isEmpty() {
+		return trains.isEmpty();
+	}
+
+	int size() {
+		return trains.size();
+	}
+}
@@ -18,6 +18,8 @@ package train;
 public abstract class Element {
 	private final String name;
 	protected Railway railway;
+	private int index = -1;  // Position de l'élément dans la ligne (affectée par Railway)
+	private final WaitQueue waitQueue = new WaitQueue();  // Trains attendant une place dans cet élément
 
 	protected Element(String name) {
 		if (name == null)
@@ -37,6 +39,34 @@ public abstract class Element {
 		return this.railway;
 	}
 
+	/**
+	 * Retourne la position de l'élément dans sa ligne
+	 * @return l'index de l'élément, -1 s'il n'appartient à aucune ligne
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	void setIndex(int index) {
+		this.index = index;
+	}
+
+	/**
+	 * Retourne le stockage où est rangé l'état de l'élément (nombre de trains,
+	 * réservations), à l'index {@link #getIndex()}. L'élément doit appartenir à une ligne.
+	 */
+	RailwayState state() {
+		return railway.getState();
+	}
+
+	/**
+	 * Retourne la file des trains attendant de pouvoir entrer dans cet élément.
+	 * Elle est réveillée à chaque sortie d'un train ({@link #leave()}).
+	 */
+	WaitQueue getWaitQueue() {
+		return waitQueue;
+	}
+
 	/**
 	 * Vérifie si un train peut entrer dans cet élément
 	 * @return true si l'élément peut accueillir un train supplémentaire
@@ -0,0 +1,53 @@
+package train;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Destinataire d'un {@link EventLog} qui écrit les événements dans un flux binaire,
+ * un enregistrement de {@value #RECORD_SIZE} octets par événement :
+ * date (long), type (int, ordinal de {@link EventType}), train (int), élément (int), valeur (int).
+ */
+public class EventFileWriter implements EventSink, AutoCloseable {
+	/** Taille d'un enregistrement en octets */
+	public static final int RECORD_SIZE = 24;
+
+	private final DataOutputStream out;
+
+	public EventFileWriter(OutputStream out) {
+		if (out == null)
+			throw new NullPointerException();
+
+		this.out = new DataOutputStream(new BufferedOutputStream(out));
+	}
+
+	@Override
+	public void event(long timestamp, EventType type, int train, int element, int detail) {
+		try {
+			out.writeLong(timestamp);
+			out.writeInt(type.ordinal());
+			out.writeInt(train);
+			out.writeInt(element);
+			out.writeInt(detail);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void flush() {
+		try {
+			out.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}
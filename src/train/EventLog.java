@@ -0,0 +1,166 @@
+package train;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Journal binaire des événements de la simulation, remplaçant les
+ * {@code System.out.println} des threads de trains.
+ * 
+ * Les enregistrements ont une taille fixe (date, type, train, élément, valeur) et
+ * sont écrits dans un tampon circulaire préalloué, sans verrou ni allocation :
+ * chaque producteur réserve une case par compare-and-set puis la publie. Un seul
+ * consommateur (le thread de vidage, voir {@link #startDrainer(EventSink)}) lit les
+ * cases publiées dans l'ordre et les transmet à un {@link EventSink}, qui produit
+ * le texte ou le fichier. Les messages ne sont donc construits que si quelqu'un les lit.
+ * 
+ * Si le tampon est plein, l'événement est perdu (et compté) plutôt que de bloquer
+ * le train qui l'enregistre.
+ */
+public final class EventLog {
+	/** Capacité par défaut (nombre d'enregistrements) */
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+	private static final long DRAIN_PAUSE_NS = 1_000_000;  // Pause du thread de vidage quand le tampon est vide
+
+	private final int mask;  // Capacité - 1 (la capacité est une puissance de 2)
+	private final long[] timestamps;
+	private final int[] types;
+	private final int[] trains;
+	private final int[] elements;
+	private final int[] details;
+	private final AtomicLongArray published;  // Numéro (+1) du dernier enregistrement publié dans chaque case
+	private final AtomicLong tail = new AtomicLong();  // Prochain numéro à réserver
+	private volatile long head = 0;  // Prochain numéro à consommer
+	private final LongAdder dropped = new LongAdder();  // Événements perdus (tampon plein)
+
+	private Thread drainer;  // Thread de vidage (null s'il n'est pas démarré)
+	private volatile boolean closing = false;
+
+	public EventLog() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity le nombre d'enregistrements du tampon (arrondi à une puissance de 2)
+	 */
+	public EventLog(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacité invalide : " + capacity);
+
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		this.mask = size - 1;
+		this.timestamps = new long[size];
+		this.types = new int[size];
+		this.trains = new int[size];
+		this.elements = new int[size];
+		this.details = new int[size];
+		this.published = new AtomicLongArray(size);
+	}
+
+	/**
+	 * Enregistre un événement (appelable par plusieurs threads, sans verrou)
+	 * @param type le type de l'événement
+	 * @param train l'identifiant du train
+	 * @param element l'index de l'élément
+	 * @param detail la valeur complémentaire (voir {@link EventType})
+	 */
+	public void record(EventType type, int train, int element, int detail) {
+		long sequence;
+		do {
+			sequence = tail.get();
+			if (sequence - head > mask) {
+				dropped.increment();
+				return;
+			}
+		} while (!tail.compareAndSet(sequence, sequence + 1));
+
+		int slot = (int) sequence & mask;
+		timestamps[slot] = System.nanoTime();
+		types[slot] = type.ordinal();
+		trains[slot] = train;
+		elements[slot] = element;
+		details[slot] = detail;
+		// Publication : les écritures précédentes sont visibles pour qui lit ce numéro
+		published.lazySet(slot, sequence + 1);
+	}
+
+	/**
+	 * Transmet au destinataire tous les enregistrements publiés, dans l'ordre
+	 * @param sink le destinataire
+	 * @return le nombre d'enregistrements transmis
+	 */
+	public synchronized int drain(EventSink sink) {
+		int count = 0;
+		long sequence = head;
+		while (true) {
+			int slot = (int) sequence & mask;
+			if (published.get(slot) != sequence + 1) {
+				break;
+			}
+			sink.event(timestamps[slot], EventType.of(types[slot]), trains[slot], elements[slot], details[slot]);
+			sequence++;
+			count++;
+			// Libérer la case pour les producteurs
+			head = sequence;
+		}
+		if (count > 0) {
+			sink.flush();
+		}
+		return count;
+	}
+
+	/**
+	 * Démarre le thread de vidage en arrière-plan
+	 * @param sink le destinataire des enregistrements
+	 */
+	public synchronized void startDrainer(EventSink sink) {
+		if (sink == null)
+			throw new NullPointerException();
+		if (drainer != null)
+			throw new IllegalStateException("thread de vidage déjà démarré");
+
+		drainer = new Thread(() -> {
+			while (!closing) {
+				if (drain(sink) == 0) {
+					LockSupport.parkNanos(this, DRAIN_PAUSE_NS);
+				}
+			}
+			drain(sink);
+		}, "EventLog-drainer");
+		drainer.setDaemon(true);
+		drainer.start();
+	}
+
+	/**
+	 * Arrête le thread de vidage après lui avoir fait transmettre les derniers enregistrements
+	 */
+	public void close() throws InterruptedException {
+		Thread thread;
+		synchronized (this) {
+			thread = drainer;
+		}
+		closing = true;
+		if (thread != null) {
+			thread.join();
+		}
+	}
+
+	/**
+	 * Retourne le nombre d'événements perdus faute de place dans le tampon
+	 */
+	public long getDroppedEvents() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Retourne la capacité du tampon
+	 */
+	public int getCapacity() {
+		return mask + 1;
+	}
+}
@@ -0,0 +1,59 @@
+package train;
+
+import java.io.PrintStream;
+
+/**
+ * Destinataire d'un {@link EventLog} qui affiche les événements en texte,
+ * avec les messages historiques de la console.
+ */
+public class EventPrinter implements EventSink {
+	private final Railway railway;  // Pour retrouver les noms des trains et des éléments
+	private final PrintStream out;
+
+	public EventPrinter(Railway railway, PrintStream out) {
+		if (railway == null || out == null)
+			throw new NullPointerException();
+
+		this.railway = railway;
+		this.out = out;
+	}
+
+	@Override
+	public void event(long timestamp, EventType type, int train, int element, int detail) {
+		out.println(format(type, train, element, detail));
+	}
+
+	@Override
+	public void flush() {
+		out.flush();
+	}
+
+	/**
+	 * Construit le message d'un événement
+	 */
+	String format(EventType type, int train, int element, int detail) {
+		Element[] elements = railway.getElements();
+		String name = "Train[" + railway.getTrain(train).getName() + "]";
+		Element e = elements[element];
+		switch (type) {
+		case TRAIN_STARTED:
+			return name + " démarre";
+		case TRAIN_STOPPED:
+			return name + " interrompu";
+		case TRAIN_MOVED:
+			return name + " is on " + e + " going " + Direction.values()[detail];
+		case WAIT_ELEMENT:
+			return name + " attend pour entrer dans " + e;
+		case WAIT_OPPOSITE_TRAINS:
+			return name + " attend en gare (trains en sens inverse sur le segment " + detail + ")";
+		case WAIT_DESTINATION_FULL:
+			return name + " attend en gare (gare de destination " + elements[detail] + " pleine)";
+		case SPOT_RESERVED:
+			return name + " réserve une place à " + e + " (disponibles: " + detail + "/" + ((Station) e).getSize() + ")";
+		case TRAIN_ARRIVED:
+			return name + " arrive à " + e + " (occupés: " + detail + "/" + ((Station) e).getSize() + ")";
+		default:
+			return name + " " + type + " " + e;
+		}
+	}
+}
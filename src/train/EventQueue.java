@@ -0,0 +1,104 @@
+package train;
+
+import java.util.Arrays;
+
+/**
+ * File de priorité d'événements datés pour {@link EventSimulation} : tas binaire sur
+ * des tableaux primitifs (aucune allocation par événement). À date égale, les
+ * événements sortent dans l'ordre où ils ont été programmés, ce qui rend la
+ * simulation déterministe.
+ */
+final class EventQueue {
+	private long[] times = new long[16];  // Date (virtuelle) de chaque événement
+	private long[] sequences = new long[16];  // Numéro d'ordre pour départager les dates égales
+	private Train[] trains = new Train[16];  // Train concerné par l'événement
+	private int size = 0;
+	private long nextSequence = 0;
+
+	/**
+	 * Programme un événement
+	 * @param time la date de l'événement
+	 * @param train le train qui tentera de se déplacer à cette date
+	 */
+	void add(long time, Train train) {
+		if (size == times.length) {
+			int capacity = size * 2;
+			times = Arrays.copyOf(times, capacity);
+			sequences = Arrays.copyOf(sequences, capacity);
+			trains = Arrays.copyOf(trains, capacity);
+		}
+		int i = size++;
+		long sequence = nextSequence++;
+		// Remonter l'événement tant qu'il précède son parent
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!before(time, sequence, parent)) {
+				break;
+			}
+			set(i, times[parent], sequences[parent], trains[parent]);
+			i = parent;
+		}
+		set(i, time, sequence, train);
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return la date du prochain événement (la file ne doit pas être vide)
+	 */
+	long peekTime() {
+		return times[0];
+	}
+
+	/**
+	 * Retire le prochain événement
+	 * @return le train concerné (la file ne doit pas être vide)
+	 */
+	Train poll() {
+		Train first = trains[0];
+		int last = --size;
+		long time = times[last];
+		long sequence = sequences[last];
+		Train train = trains[last];
+		trains[last] = null;
+		// Redescendre le dernier événement depuis la racine
+		int i = 0;
+		int half = last >>> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			int right = child + 1;
+			if (right < last && before(times[right], sequences[right], child)) {
+				child = right;
+			}
+			if (!before(times[child], sequences[child], time, sequence)) {
+				break;
+			}
+			set(i, times[child], sequences[child], trains[child]);
+			i = child;
+		}
+		if (last > 0) {
+			set(i, time, sequence, train);
+		}
+		return first;
+	}
+
+	private boolean before(long time, long sequence, int index) {
+		return before(time, sequence, times[index], sequences[index]);
+	}
+
+	private static boolean before(long time, long sequence, long otherTime, long otherSequence) {
+		return time < otherTime || (time == otherTime && sequence < otherSequence);
+	}
+
+	private void set(int index, long time, long sequence, Train train) {
+		times[index] = time;
+		sequences[index] = sequence;
+		trains[index] = train;
+	}
+}
@@ -0,0 +1,156 @@
+package train;
+
+import java.util.Arrays;
+
+/**
+ * Moteur de simulation à événements discrets, alternative aux threads de
+ * {@link Train#run()}.
+ * 
+ * Un seul thread traite, dans l'ordre de leur date, les événements d'une file de
+ * priorité : chaque événement est une tentative de déplacement d'un train, avec
+ * les mêmes règles de circulation que le mode multi-thread ({@link Railway#tryMove}).
+ * Le temps est une horloge virtuelle : au lieu de dormir {@link Train#DELAY_MS}, un
+ * train qui s'est déplacé programme sa tentative suivante {@code dwellTime} plus tard,
+ * et la simulation avance aussi vite que le processeur le permet.
+ * 
+ * Un train bloqué ne consomme aucun événement : il reste inscrit dans la file
+ * d'attente de la condition qui le bloque, et c'est le déplacement qui libère cette
+ * condition qui le reprogramme à la date courante (comme un thread réveillé).
+ * Si plus aucun événement n'est programmé alors que des trains sont bloqués, la
+ * ligne est en interblocage.
+ * 
+ * Les attentes sont mesurées en temps virtuel, du premier blocage d'un train jusqu'à
+ * son déplacement ({@link #getWaitTimes()}).
+ * 
+ * La ligne doit être réservée à la simulation : aucun thread ne doit appeler
+ * {@link Railway#move(Train)} en parallèle.
+ */
+public class EventSimulation {
+	private final Railway railway;
+	private final long dwellTime;  // Durée virtuelle entre deux déplacements d'un train (ms)
+	private final EventQueue events = new EventQueue();  // Tentatives de déplacement programmées
+	private long now = 0;  // Horloge virtuelle (ms)
+	private int trainCount = 0;  // Nombre de trains simulés
+	private long moves = 0;  // Nombre de déplacements effectués
+	private long blockedAttempts = 0;  // Nombre de tentatives ayant bloqué un train
+	private long[] waitStart = new long[0];  // [identifiant du train] : date du premier blocage, -1 s'il n'attend pas
+	private final WaitHistogram waits = new WaitHistogram();  // Durées d'attente virtuelles (converties en ns)
+
+	/**
+	 * Crée une simulation où chaque train attend {@link Train#DELAY_MS} entre deux déplacements
+	 * @param railway la ligne simulée
+	 */
+	public EventSimulation(Railway railway) {
+		this(railway, Train.DELAY_MS);
+	}
+
+	/**
+	 * @param railway la ligne simulée
+	 * @param dwellTime la durée virtuelle entre deux déplacements d'un train (ms)
+	 */
+	public EventSimulation(Railway railway, long dwellTime) {
+		if (railway == null)
+			throw new NullPointerException();
+		if (dwellTime < 0)
+			throw new IllegalArgumentException("durée négative : " + dwellTime);
+
+		this.railway = railway;
+		this.dwellTime = dwellTime;
+		// Un train réveillé retente son déplacement immédiatement (à la date courante)
+		railway.setWaker(train -> events.add(now, train));
+	}
+
+	/**
+	 * Ajoute un train (déjà placé en gare sur la ligne) à la simulation.
+	 * Sa première tentative de déplacement a lieu après {@code dwellTime}.
+	 * @param train le train à simuler
+	 */
+	public void addTrain(Train train) {
+		if (train == null)
+			throw new NullPointerException();
+
+		trainCount++;
+		int id = train.getId();
+		if (id >= waitStart.length) {
+			int length = waitStart.length;
+			waitStart = Arrays.copyOf(waitStart, Math.max(id + 1, 2 * length));
+			Arrays.fill(waitStart, length, waitStart.length, -1);
+		}
+		events.add(now + dwellTime, train);
+	}
+
+	/**
+	 * Traite tous les événements jusqu'à la date virtuelle {@code getTime() + duration}
+	 * @param duration la durée virtuelle à simuler (ms)
+	 */
+	public void run(long duration) {
+		long end = now + duration;
+		while (!events.isEmpty() && events.peekTime() <= end) {
+			now = events.peekTime();
+			Train train = events.poll();
+			int id = train.getId();
+			if (railway.tryMove(train)) {
+				moves++;
+				railway.snapshotJournal();
+				events.add(now + dwellTime, train);
+				if (waitStart[id] >= 0) {
+					waits.record((now - waitStart[id]) * 1_000_000);
+					waitStart[id] = -1;
+				}
+			} else {
+				// Le train est inscrit dans une file d'attente : il sera reprogrammé au réveil
+				blockedAttempts++;
+				if (waitStart[id] < 0) {
+					waitStart[id] = now;
+				}
+			}
+		}
+		if (!isDeadlocked()) {
+			now = end;
+		}
+	}
+
+	/**
+	 * Retourne la date virtuelle courante (ms)
+	 */
+	public long getTime() {
+		return now;
+	}
+
+	/**
+	 * Retourne le nombre de déplacements effectués
+	 */
+	public long getMoves() {
+		return moves;
+	}
+
+	/**
+	 * Retourne le nombre de tentatives de déplacement qui ont bloqué un train
+	 */
+	public long getBlockedAttempts() {
+		return blockedAttempts;
+	}
+
+	/**
+	 * Retourne les durées des attentes terminées, en temps virtuel converti en
+	 * nanosecondes (1 ms virtuelle = 10^6 ns)
+	 */
+	WaitHistogram getWaitTimes() {
+		return waits;
+	}
+
+	/**
+	 * Retourne le nombre de trains actuellement bloqués (en attente d'un réveil)
+	 */
+	public int getBlockedTrains() {
+		return trainCount - events.size();
+	}
+
+	/**
+	 * Indique si tous les trains sont bloqués : aucun ne pourra plus jamais se déplacer
+	 * (la date virtuelle reste alors celle du dernier déplacement)
+	 */
+	public boolean isDeadlocked() {
+		return trainCount > 0 && events.isEmpty();
+	}
+}
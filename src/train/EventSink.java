@@ -0,0 +1,24 @@
+package train;
+
+/**
+ * Destinataire des enregistrements vidés d'un {@link EventLog} : affichage texte
+ * ({@link EventPrinter}) ou fichier binaire ({@link EventFileWriter}).
+ * Les méthodes sont appelées par un seul thread à la fois.
+ */
+public interface EventSink {
+	/**
+	 * Reçoit un enregistrement du journal
+	 * @param timestamp la date de l'événement (System.nanoTime())
+	 * @param type le type de l'événement
+	 * @param train l'identifiant du train
+	 * @param element l'index de l'élément
+	 * @param detail la valeur complémentaire (voir {@link EventType})
+	 */
+	void event(long timestamp, EventType type, int train, int element, int detail);
+
+	/**
+	 * Appelée après chaque lot d'enregistrements
+	 */
+	default void flush() {
+	}
+}
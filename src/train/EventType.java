@@ -0,0 +1,34 @@
+package train;
+
+/**
+ * Type d'un événement du journal ({@link EventLog}). Chaque enregistrement porte,
+ * en plus du type, un train, un élément et une valeur complémentaire dont le sens
+ * dépend du type (voir chaque constante).
+ */
+public enum EventType {
+	/** Le thread du train démarre ; élément : position initiale */
+	TRAIN_STARTED,
+	/** Le train a été interrompu ; élément : position courante */
+	TRAIN_STOPPED,
+	/** Le train a changé de position ; élément : nouvel élément, valeur : ordinal de la direction */
+	TRAIN_MOVED,
+	/** Le train attend qu'un élément se libère ; élément : élément convoité */
+	WAIT_ELEMENT,
+	/** Le train attend en gare à cause de trains en sens inverse ; élément : la gare, valeur : le segment */
+	WAIT_OPPOSITE_TRAINS,
+	/** Le train attend en gare car sa destination est pleine ; élément : la gare, valeur : index de la destination */
+	WAIT_DESTINATION_FULL,
+	/** Le train a réservé une place ; élément : la gare de destination, valeur : places encore disponibles */
+	SPOT_RESERVED,
+	/** Le train est arrivé en gare ; élément : la gare, valeur : trains présents */
+	TRAIN_ARRIVED;
+
+	private static final EventType[] VALUES = values();
+
+	/**
+	 * Retourne le type de code donné (son ordinal), sans allocation
+	 */
+	static EventType of(int code) {
+		return VALUES[code];
+	}
+}
@@ -0,0 +1,140 @@
+package train;
+
+/**
+ * Analyse statique d'une ligne : le nombre maximal de trains qu'elle peut accueillir
+ * sans risque d'interblocage, quelles que soient les positions de départ et l'ordre
+ * des déplacements. Calculée en un seul parcours des éléments.
+ *
+ * Un train sur une section a réservé sa place à l'arrivée : il finit toujours par
+ * arriver. Un train en gare n'est donc bloqué définitivement que si sa gare de
+ * destination reste pleine, c'est-à-dire si tous les trains de cette gare sont eux
+ * aussi bloqués définitivement. Un ensemble de gares pleines dont tous les trains
+ * vont vers une gare de l'ensemble contient toujours deux gares voisines dont les
+ * trains se font face (en suivant les trains vers la droite, on finit par rencontrer
+ * une gare dont les trains vont vers la gauche : la gare terminale de droite, au
+ * pire). Le plus petit blocage possible remplit donc deux gares voisines :
+ *
+ * <pre>
+ *   [ T1 T2 → ] ---- [ ← T3 T4 T5 ]     c1 + c2 trains, aucun ne peut partir
+ * </pre>
+ *
+ * et la ligne est sûre tant qu'elle compte au plus {@code min(c_i + c_{i+1}) - 1}
+ * trains, le minimum portant sur les paires de gares consécutives. Pour une seule gare
+ * intermédiaire de n quais entre deux gares terminales plus grandes, la limite est
+ * n + c - 1, où c est la capacité de la plus petite gare terminale : la règle
+ * « n + 1 trains » de {@link IntermediateStation} est le cas c = 2.
+ *
+ * La limite propre à chaque gare est celle des deux paires qui la contiennent : c'est
+ * le nombre de trains que la ligne supporterait si seules les gares voisines de
+ * celle-ci comptaient. {@link Railway} la rappelle pour la gare d'un train refusé, et
+ * {@link #toString()} la donne pour les premières gares de la ligne.
+ */
+public final class FleetAnalysis {
+	private static final int LISTED_STATIONS = 8;  // Gares dont toString donne la limite
+
+	private final int maxTrains;  // Nombre maximal de trains sans interblocage possible
+	private final int[] stationLimit;  // [index] : limite propre à la gare, -1 pour une section
+	private final String bottleneck;  // Paire de gares qui fixe la limite (null : moins de deux gares)
+	private final String stationLimits;  // Limites des premières gares, pour toString
+
+	public FleetAnalysis(Element[] elements) {
+		if (elements == null)
+			throw new NullPointerException();
+
+		int n = elements.length;
+		this.stationLimit = new int[n];
+		int max = 0;
+		int totalCapacity = 0;
+		String tightest = null;
+		int previous = -1;  // Index de la gare précédente
+		for (int i = 0; i < n; i++) {
+			stationLimit[i] = -1;
+			if (!(elements[i] instanceof Station)) {
+				continue;
+			}
+			Station station = (Station) elements[i];
+			totalCapacity += station.getSize();
+			stationLimit[i] = Integer.MAX_VALUE;
+			if (previous >= 0) {
+				Station left = (Station) elements[previous];
+				int limit = left.getSize() + station.getSize() - 1;
+				stationLimit[previous] = Math.min(stationLimit[previous], limit);
+				stationLimit[i] = limit;
+				if (tightest == null || limit < max) {
+					max = limit;
+					tightest = left + " et " + station + " : " + left.getSize() + " + "
+							+ station.getSize() + " quais";
+				}
+			}
+			previous = i;
+		}
+		if (tightest == null) {
+			// Au plus une gare : aucun train ne peut en attendre un autre
+			max = totalCapacity;
+			for (int i = 0; i < n; i++) {
+				if (stationLimit[i] >= 0) {
+					stationLimit[i] = totalCapacity;
+				}
+			}
+		}
+		this.maxTrains = max;
+		this.bottleneck = tightest;
+
+		StringBuilder limits = new StringBuilder();
+		int listed = 0;
+		for (int i = 0; i < n; i++) {
+			if (stationLimit[i] < 0) {
+				continue;
+			}
+			if (listed == LISTED_STATIONS) {
+				limits.append(", …");
+				break;
+			}
+			limits.append(listed == 0 ? "" : ", ").append(elements[i]).append(' ').append(stationLimit[i]);
+			listed++;
+		}
+		this.stationLimits = limits.toString();
+	}
+
+	/**
+	 * Retourne le nombre maximal de trains que la ligne accueille sans interblocage
+	 * possible
+	 */
+	public int getMaxTrains() {
+		return maxTrains;
+	}
+
+	/**
+	 * Indique si un nombre de trains ne peut pas bloquer la ligne
+	 */
+	public boolean isSafe(int trains) {
+		return trains <= maxTrains;
+	}
+
+	/**
+	 * Retourne la limite propre à une gare : la plus petite capacité, moins un, des
+	 * paires de gares voisines qui la contiennent
+	 * @param index l'index de la gare dans la ligne
+	 * @throws IllegalArgumentException si l'élément n'est pas une gare
+	 */
+	public int getStationLimit(int index) {
+		if (stationLimit[index] < 0)
+			throw new IllegalArgumentException("l'élément " + index + " n'est pas une gare");
+
+		return stationLimit[index];
+	}
+
+	/**
+	 * Retourne la description de la paire de gares qui fixe la limite, ou null si la
+	 * ligne a moins de deux gares
+	 */
+	public String getBottleneck() {
+		return bottleneck;
+	}
+
+	@Override
+	public String toString() {
+		return "au plus " + maxTrains + " trains"
+				+ (bottleneck != null ? " (gares " + bottleneck + " ; par gare : " + stationLimits + ")" : "");
+	}
+}
@@ -0,0 +1,87 @@
+package train;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * File bornée sans verrou de trains datés, d'une partition de
+ * {@link PartitionedSimulation} à une autre : plusieurs producteurs (les partitions
+ * voisines), un seul consommateur (la partition destinataire).
+ *
+ * Même schéma que {@link EventLog} : chaque producteur réserve une case en
+ * incrémentant le compteur des numéros, la remplit puis la publie ; le consommateur
+ * lit les cases publiées dans l'ordre. La capacité dépasse le nombre de trains : un
+ * train n'est jamais en transit deux fois (il n'est transmis qu'après s'être déplacé
+ * ou avoir été retiré d'une file d'attente), si bien que la file n'est jamais pleine.
+ */
+final class HandoffQueue {
+	private final int mask;  // Capacité - 1 (puissance de 2)
+	private final long[] times;
+	private final Train[] trains;
+	private final AtomicLongArray published;  // Numéro (+1) publié dans chaque case
+	private final AtomicLong tail = new AtomicLong();  // Prochain numéro à réserver
+	private volatile long head = 0;  // Prochain numéro à lire (écrit par le seul consommateur)
+
+	/**
+	 * @param trainCount le nombre de trains qui peuvent être en transit en même temps
+	 */
+	HandoffQueue(int trainCount) {
+		int size = Integer.highestOneBit(Math.max(1, trainCount));
+		if (size <= trainCount) {
+			size <<= 1;
+		}
+		this.mask = size - 1;
+		this.times = new long[size];
+		this.trains = new Train[size];
+		this.published = new AtomicLongArray(size);
+	}
+
+	/**
+	 * Transmet un train (appelable par plusieurs threads)
+	 * @param time la date virtuelle de sa prochaine tentative de déplacement
+	 * @throws IllegalStateException si la file est pleine (un train transmis deux fois)
+	 */
+	void add(long time, Train train) {
+		long sequence = tail.getAndIncrement();
+		if (sequence - head > mask)
+			throw new IllegalStateException("file de transmission pleine : " + train.getName());
+
+		int slot = (int) sequence & mask;
+		times[slot] = time;
+		trains[slot] = train;
+		published.lazySet(slot, sequence + 1);
+	}
+
+	/**
+	 * Transmet au destinataire les trains publiés, dans l'ordre (consommateur seulement)
+	 * @return le nombre de trains transmis
+	 */
+	int drain(EventQueue events, long notBefore) {
+		int count = 0;
+		long sequence = head;
+		while (true) {
+			int slot = (int) sequence & mask;
+			if (published.get(slot) != sequence + 1) {
+				break;
+			}
+			Train train = trains[slot];
+			trains[slot] = null;
+			events.add(Math.max(times[slot], notBefore), train);
+			sequence++;
+			count++;
+		}
+		head = sequence;
+		return count;
+	}
+
+	int capacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Retourne le nombre de trains en transit (exact quand aucun producteur n'est actif)
+	 */
+	int size() {
+		return (int) (tail.get() - head);
+	}
+}
@@ -0,0 +1,519 @@
+package train;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Point d'entrée sans interface graphique, pour lancer des simulations en lot
+ * (sur un serveur, sans écran). Cette classe ne charge jamais {@code javax.swing}
+ * ni AWT ; elle affiche un résumé du débit à la fin de la simulation.
+ *
+ * <pre>
+ * java -cp bin train.HeadlessMain &lt;topologie&gt; &lt;trains&gt; &lt;durée-ms&gt; [options]
+ * java -cp bin train.Main --headless &lt;topologie&gt; &lt;trains&gt; &lt;durée-ms&gt; [options]
+ * </pre>
+ *
+ * Topologies :
+ * <ul>
+ * <li>{@code main} : la ligne de {@link Main} (GareA -- AB -- BC -- GareC -- CD -- GareD) ;</li>
+ * <li>{@code line:N[:C[:K]]} : N éléments, une gare intermédiaire de C quais (2 par défaut)
+ * tous les K éléments (3 par défaut), et deux gares terminales assez grandes pour les trains ;</li>
+ * <li>{@code file:CHEMIN} : un {@link Scenario} (texte ou binaire), avec ses trains ; le
+ * nombre de trains donné limite alors ceux qui roulent (0 : tous).</li>
+ * </ul>
+ * Options :
+ * <ul>
+ * <li>{@code --engine=threads} (par défaut) : un thread par train, qui se déplace sans pause
+ * (durée réelle) ; {@code --engine=events} : simulation à événements discrets
+ * ({@link EventSimulation}) exécutée pendant la durée réelle demandée ;
+ * {@code --engine=partitions} : la même, répartie sur plusieurs threads
+ * ({@link PartitionedSimulation}, en mode SEGMENT : tout autre {@code --mode} est refusé) ;</li>
+ * <li>{@code --partitions=N} : nombre de partitions du moteur partitions (par défaut, le
+ * nombre de processeurs) ;</li>
+ * <li>{@code --mode=GLOBAL|SEGMENT|LOCK_FREE} : synchronisation de la ligne ({@link ConcurrencyMode}) ;
+ * LOCK_FREE exclut {@code --checkpoint} et {@code --journal} ;</li>
+ * <li>{@code --threads=platform|virtual} : type des threads des trains ({@link ThreadMode}) ;</li>
+ * <li>{@code --dwell=MS} : durée virtuelle entre deux déplacements (moteur events, 1000 par défaut) ;</li>
+ * <li>{@code --metrics} : mesures d'exécution ({@link RailwayMetrics}), exportées en JMX
+ * ({@code train:type=Railway,name=headless}) et résumées à la fin ;</li>
+ * <li>{@code --save=CHEMIN} : enregistre le scénario avant de le simuler (texte si le
+ * chemin finit par {@code .txt}, binaire sinon) ;</li>
+ * <li>{@code --checkpoint=CHEMIN} : sauvegarde l'état de la ligne ({@link Checkpoint})
+ * toutes les {@value #CHECKPOINT_INTERVAL} ms pendant la simulation ;</li>
+ * <li>{@code --restore} : reprend d'abord la dernière sauvegarde de ce fichier ;</li>
+ * <li>{@code --journal=CHEMIN} : enregistre l'ordre des déplacements ({@link MoveJournal}),
+ * à rejouer ensuite avec {@link JournalReplay} ;</li>
+ * <li>{@code --unsafe-fleet} : simule, après un avertissement, une flotte qui dépasse la
+ * limite de {@link FleetAnalysis} et peut donc bloquer la ligne (mesures de débit sur des
+ * flottes denses) ; sans cette option, elle est refusée, y compris dans un scénario.</li>
+ * </ul>
+ *
+ * Le démarrage est mesuré depuis l'entrée dans main jusqu'au premier déplacement ; la date
+ * du premier déplacement (ms depuis l'époque) est aussi affichée, pour mesurer de
+ * l'extérieur le temps total depuis le lancement de la JVM.
+ */
+public final class HeadlessMain {
+	private static final long EVENT_SLICE = 10_000;  // Durée virtuelle simulée entre deux lectures de l'horloge (ms)
+	private static final long PARTITION_WINDOWS = 10;  // Fenêtres simulées par tranche du moteur partitions
+	static final long CHECKPOINT_INTERVAL = 2000;  // Intervalle entre deux sauvegardes (ms réelles)
+
+	private HeadlessMain() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		long mainNanos = System.nanoTime();
+		if (args.length < 3) {
+			usage();
+			System.exit(2);
+		}
+
+		String topology = args[0];
+		int trainCount = Integer.parseInt(args[1]);
+		long duration = Long.parseLong(args[2]);
+		String engine = "threads";
+		ConcurrencyMode mode = null;  // GLOBAL, ou SEGMENT pour le moteur partitions, si --mode est absent
+		ThreadMode threadMode = ThreadMode.PLATFORM;
+		long dwell = Train.DELAY_MS;
+		boolean withMetrics = false;
+		String save = null;
+		String checkpointFile = null;
+		boolean restore = false;
+		String journalFile = null;
+		boolean unsafeFleet = false;
+		int partitions = Runtime.getRuntime().availableProcessors();
+		for (int i = 3; i < args.length; i++) {
+			String option = args[i];
+			String value = option.substring(option.indexOf('=') + 1);
+			if (option.startsWith("--engine=")) {
+				engine = value;
+			} else if (option.startsWith("--mode=")) {
+				mode = ConcurrencyMode.valueOf(value.toUpperCase());
+			} else if (option.startsWith("--threads=")) {
+				threadMode = ThreadMode.valueOf(value.toUpperCase());
+			} else if (option.startsWith("--dwell=")) {
+				dwell = Long.parseLong(value);
+			} else if (option.equals("--metrics")) {
+				withMetrics = true;
+			} else if (option.startsWith("--save=")) {
+				save = value;
+			} else if (option.startsWith("--checkpoint=")) {
+				checkpointFile = value;
+			} else if (option.equals("--restore")) {
+				restore = true;
+			} else if (option.startsWith("--journal=")) {
+				journalFile = value;
+			} else if (option.equals("--unsafe-fleet")) {
+				unsafeFleet = true;
+			} else if (option.startsWith("--partitions=")) {
+				partitions = Integer.parseInt(value);
+			} else {
+				usage();
+				System.exit(2);
+			}
+		}
+		if (engine.equals("partitions")) {
+			if (mode != null && mode != ConcurrencyMode.SEGMENT) {
+				System.err.println("--engine=partitions suppose --mode=SEGMENT");
+				usage();
+				System.exit(2);
+			}
+			mode = ConcurrencyMode.SEGMENT;
+		} else if (mode == null) {
+			mode = ConcurrencyMode.GLOBAL;
+		}
+		if (mode == ConcurrencyMode.LOCK_FREE && (checkpointFile != null || journalFile != null))
+			throw new IllegalArgumentException("--checkpoint et --journal supposent une ligne verrouillable"
+					+ " (--mode=GLOBAL ou SEGMENT)");
+		boolean fromFile = topology.startsWith("file:");
+		if (trainCount < 0 || (trainCount == 0 && !fromFile) || duration <= 0)
+			throw new IllegalArgumentException("nombre de trains et durée doivent être positifs");
+
+		Railway railway;
+		List<Train> trains;
+		double loadMillis = -1;
+		if (fromFile) {
+			long loadStart = System.nanoTime();
+			railway = Scenario.load(Paths.get(topology.substring("file:".length())), mode, !unsafeFleet);
+			loadMillis = (System.nanoTime() - loadStart) / 1e6;
+			if (!railway.getFleetAnalysis().isSafe(railway.getTrainCount())) {
+				System.out.printf("Attention : %d trains, la ligne en accueille %s sans risque d'interblocage%n",
+						railway.getTrainCount(), railway.getFleetAnalysis());
+			}
+			int running = trainCount == 0 ? railway.getTrainCount() : Math.min(trainCount, railway.getTrainCount());
+			trains = new ArrayList<>(running);
+			for (int id = 0; id < running; id++) {
+				trains.add(railway.getTrain(id));
+			}
+			trainCount = running;
+		} else {
+			railway = new Railway(parseTopology(topology, trainCount), mode);
+			FleetAnalysis fleet = railway.getFleetAnalysis();
+			if (!fleet.isSafe(trainCount)) {
+				if (!unsafeFleet)
+					throw new IllegalArgumentException(trainCount + " trains : la ligne en accueille " + fleet
+							+ " sans risque d'interblocage (--unsafe-fleet pour la simuler quand même)");
+
+				System.out.printf("Attention : %d trains, la ligne en accueille %s sans risque d'interblocage%n",
+						trainCount, fleet);
+				railway.setFleetLimitEnforced(false);
+			}
+			trains = placeTrains(railway, trainCount);
+		}
+		Element[] elements = railway.getElements();
+		if (save != null) {
+			Scenario.save(railway, Paths.get(save), !save.endsWith(".txt"));
+		}
+		Saver saver = null;
+		if (checkpointFile != null) {
+			if (restore && Files.exists(Paths.get(checkpointFile))) {
+				long restored = Checkpoint.restore(Paths.get(checkpointFile), railway);
+				System.out.printf("Reprise de la sauvegarde n° %d%n", restored);
+			}
+			saver = new Saver(Checkpoint.open(Paths.get(checkpointFile), railway));
+		}
+		if (withMetrics) {
+			RailwayMetrics metrics = new RailwayMetrics(railway);
+			railway.setMetrics(metrics);
+			metrics.register("headless");
+		}
+
+		MoveJournal journal = null;
+		if (journalFile != null) {
+			journal = MoveJournal.start(railway, Paths.get(journalFile));
+		}
+
+		Run run;
+		if (engine.equals("threads")) {
+			run = runThreads(railway, trains, threadMode, duration, saver);
+		} else if (engine.equals("events")) {
+			run = runEvents(railway, trains, dwell, duration, saver);
+		} else if (engine.equals("partitions")) {
+			run = runPartitions(railway, trains, partitions, dwell, duration, saver);
+		} else {
+			throw new IllegalArgumentException("moteur inconnu : " + engine);
+		}
+
+		if (journal != null) {
+			// Les trains sont arrêtés : plus aucun déplacement à enregistrer
+			journal.close();
+		}
+
+		// Résumé
+		int stations = 0;
+		for (Element e : elements) {
+			if (e instanceof Station) {
+				stations++;
+			}
+		}
+		double toFirstMove = (run.firstMoveNanos - mainNanos) / 1e6;
+		System.out.printf("Ligne : %d éléments (%d gares), %d trains, moteur %s, mode %s%n",
+				elements.length, stations, trainCount, engine, mode);
+		if (loadMillis >= 0) {
+			System.out.printf("Chargement du scénario : %.1f ms (%d trains placés)%n", loadMillis, railway.getTrainCount());
+		}
+		if (run.firstMoveNanos < 0) {
+			System.out.println("Démarrage : aucun déplacement");
+		} else {
+			System.out.printf("Démarrage : %.1f ms de main au premier déplacement (à %d ms depuis l'époque)%n",
+					toFirstMove, run.firstMoveMillis);
+		}
+		double seconds = run.elapsedNanos / 1e9;
+		System.out.printf("Durée : %.0f ms, déplacements : %d (%.0f /s), réveils : %d (dont %d inutiles)%n",
+				seconds * 1000, run.moves, run.moves / seconds, railway.getWakeups(), railway.getSpuriousWakeups());
+		if (run.note != null) {
+			System.out.println(run.note);
+		}
+		if (withMetrics) {
+			printWaits(railway.getMetrics());
+		}
+		if (saver != null) {
+			saver.checkpoint.close();
+			System.out.println(saver);
+		}
+		if (journal != null) {
+			System.out.printf("Journal : %d déplacements enregistrés dans %s (%d octets)%n", journal.getMoves(),
+					journalFile, Files.size(Paths.get(journalFile)));
+		}
+		System.exit(0);
+	}
+
+	private static void usage() {
+		System.err.println("usage : HeadlessMain <main|line:N[:C[:K]]|file:CHEMIN> <trains> <durée-ms>"
+				+ " [--engine=threads|events|partitions] [--partitions=N] [--mode=GLOBAL|SEGMENT|LOCK_FREE] [--threads=platform|virtual] [--dwell=MS]"
+				+ " [--metrics] [--save=CHEMIN] [--checkpoint=CHEMIN [--restore]] [--journal=CHEMIN] [--unsafe-fleet]");
+	}
+
+	/**
+	 * Affiche, par raison d'attente, les blocages et la distribution des durées d'attente
+	 */
+	private static void printWaits(RailwayMetrics metrics) {
+		for (WaitReason reason : WaitReason.values()) {
+			WaitHistogram waits = metrics.getWaitTimes(reason);
+			System.out.printf("Attente %s : %d blocages, %d attentes, p50 %.1f µs, p99 %.1f µs, max %.1f µs,"
+					+ " équité (max/moyenne) %.1f%n", reason, metrics.getBlockedAttempts(reason), waits.count(),
+					waits.quantileNanos(0.5) / 1e3, waits.quantileNanos(0.99) / 1e3, waits.maxNanos() / 1e3,
+					waits.fairness());
+		}
+	}
+
+	/**
+	 * Construit les éléments d'une ligne à partir de sa description
+	 * @param spec {@code main} ou {@code line:N[:C[:K]]}
+	 * @param trainCount le nombre de trains, pour dimensionner les gares terminales
+	 */
+	static Element[] parseTopology(String spec, int trainCount) {
+		int terminalSize = Math.max(3, (trainCount + 1) / 2);
+		if (spec.equals("main")) {
+			return new Element[] { new Station("GareA", terminalSize), new Section("AB"), new Section("BC"),
+					new IntermediateStation("GareC", 2), new Section("CD"), new Station("GareD", terminalSize) };
+		}
+		if (spec.startsWith("line:")) {
+			String[] parts = spec.split(":");
+			int length = Integer.parseInt(parts[1]);
+			int capacity = parts.length > 2 ? Integer.parseInt(parts[2]) : 2;
+			int spacing = parts.length > 3 ? Integer.parseInt(parts[3]) : 3;
+			return line(length, capacity, spacing, terminalSize);
+		}
+		throw new IllegalArgumentException("topologie inconnue : " + spec);
+	}
+
+	/**
+	 * Construit une ligne de {@code length} éléments : une gare intermédiaire de
+	 * {@code capacity} quais tous les {@code spacing} éléments, et deux gares terminales
+	 * @param terminalSize le nombre de quais des gares terminales
+	 */
+	static Element[] line(int length, int capacity, int spacing, int terminalSize) {
+		if (length < 3)
+			throw new IllegalArgumentException("ligne trop courte : " + length);
+		if (spacing < 2)
+			throw new IllegalArgumentException("espacement des gares invalide : " + spacing);
+
+		Element[] elements = new Element[length];
+		elements[0] = new Station("GareA", terminalSize);
+		for (int i = 1; i < length - 1; i++) {
+			// Pas de gare juste avant la gare terminale (deux gares ne se touchent pas)
+			if (i % spacing == 0 && i < length - 2) {
+				elements[i] = new IntermediateStation("Gare" + i, capacity);
+			} else {
+				elements[i] = new Section("S" + i);
+			}
+		}
+		elements[length - 1] = new Station("GareZ", terminalSize);
+		return elements;
+	}
+
+	/**
+	 * Place les trains alternativement aux deux extrémités de la ligne
+	 */
+	static List<Train> placeTrains(Railway railway, int count) throws BadPositionForTrainException {
+		Element[] elements = railway.getElements();
+		List<Train> trains = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			boolean left = i % 2 == 0;
+			Element station = left ? elements[0] : elements[elements.length - 1];
+			trains.add(new Train("T" + (i + 1), new Position(station, left ? Direction.LR : Direction.RL), railway));
+		}
+		return trains;
+	}
+
+	/**
+	 * Sauvegardes périodiques pendant une exécution, et leur durée
+	 */
+	private static final class Saver {
+		final Checkpoint checkpoint;
+		private long last = System.nanoTime();
+		private int count;
+		private long totalNanos;
+		private long maxNanos;
+
+		Saver(Checkpoint checkpoint) {
+			this.checkpoint = checkpoint;
+		}
+
+		/**
+		 * Sauvegarde si {@link #CHECKPOINT_INTERVAL} s'est écoulé depuis la précédente
+		 */
+		void maybeSave() {
+			long now = System.nanoTime();
+			if (now - last < CHECKPOINT_INTERVAL * 1_000_000) {
+				return;
+			}
+			checkpoint.save();
+			last = System.nanoTime();
+			long elapsed = last - now;
+			count++;
+			totalNanos += elapsed;
+			maxNanos = Math.max(maxNanos, elapsed);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Sauvegardes : %d (dernière n° %d), %.1f ms en moyenne, %.1f ms au plus", count,
+					checkpoint.getSequence(), count == 0 ? 0 : totalNanos / 1e6 / count, maxNanos / 1e6);
+		}
+	}
+
+	/**
+	 * Résultat d'une exécution
+	 */
+	private static final class Run {
+		long moves;
+		long elapsedNanos;
+		long firstMoveNanos = -1;  // Date (System.nanoTime) du premier déplacement, -1 s'il n'y en a pas
+		long firstMoveMillis;  // Même date (System.currentTimeMillis)
+		String note;
+	}
+
+	/**
+	 * Boucle d'un train : se déplace sans pause jusqu'à l'échéance. Une classe plutôt
+	 * qu'une lambda : pas d'amorçage invokedynamic avant le premier déplacement.
+	 */
+	private static final class Mover implements Runnable {
+		private final Railway railway;
+		private final Train train;
+		private final long deadline;  // Échéance (System.nanoTime)
+		private final long[] moves;  // Nombre de déplacements de chaque train
+		private final int index;  // Rang du train dans moves
+		private final AtomicLong firstMove;  // Date du premier déplacement de la ligne (-1 : aucun)
+		private final AtomicLong firstMoveMillis;
+
+		Mover(Railway railway, Train train, long deadline, long[] moves, int index, AtomicLong firstMove,
+				AtomicLong firstMoveMillis) {
+			this.railway = railway;
+			this.train = train;
+			this.deadline = deadline;
+			this.moves = moves;
+			this.index = index;
+			this.firstMove = firstMove;
+			this.firstMoveMillis = firstMoveMillis;
+		}
+
+		@Override
+		public void run() {
+			long count = 0;
+			// Chaque train surveille l'échéance : avec plus de trains que de cœurs,
+			// le thread principal peut se réveiller en retard
+			while (!Thread.currentThread().isInterrupted() && System.nanoTime() < deadline) {
+				if (!railway.move(train)) {
+					break;  // Interrompu pendant l'attente, sans se déplacer
+				}
+				if (count++ == 0 && firstMove.get() < 0 && firstMove.compareAndSet(-1, System.nanoTime())) {
+					firstMoveMillis.set(System.currentTimeMillis());
+				}
+			}
+			moves[index] = count;
+		}
+	}
+
+	/**
+	 * Un thread par train, qui se déplace sans pause pendant {@code duration} ms
+	 */
+	private static Run runThreads(Railway railway, List<Train> trains, ThreadMode threadMode, long duration,
+			Saver saver) throws InterruptedException {
+		Run run = new Run();
+		AtomicLong firstMove = new AtomicLong(-1);
+		AtomicLong firstMoveMillis = new AtomicLong();
+		long[] moves = new long[trains.size()];
+		List<Thread> threads = new ArrayList<>(trains.size());
+		long start = System.nanoTime();
+		long deadline = start + duration * 1_000_000;
+		for (int i = 0; i < trains.size(); i++) {
+			Train train = trains.get(i);
+			Thread thread = threadMode.newThread(new Mover(railway, train, deadline, moves, i, firstMove, firstMoveMillis));
+			thread.setName("Train-" + train.getName());
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.setDaemon(true);
+			thread.start();
+		}
+		long remaining;
+		while ((remaining = deadline - System.nanoTime()) > 0) {
+			if (saver == null) {
+				Thread.sleep(remaining / 1_000_000, (int) (remaining % 1_000_000));
+			} else {
+				Thread.sleep(Math.min(remaining / 1_000_000, CHECKPOINT_INTERVAL));
+				saver.maybeSave();
+			}
+		}
+		// Réveiller les trains bloqués
+		for (Thread thread : threads) {
+			thread.interrupt();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		run.elapsedNanos = System.nanoTime() - start;
+		for (long count : moves) {
+			run.moves += count;
+		}
+		run.firstMoveNanos = firstMove.get();
+		run.firstMoveMillis = firstMoveMillis.get();
+		return run;
+	}
+
+	/**
+	 * Simulation à événements discrets, exécutée par tranches pendant {@code duration} ms réelles
+	 */
+	private static Run runEvents(Railway railway, List<Train> trains, long dwell, long duration, Saver saver) {
+		Run run = new Run();
+		EventSimulation simulation = new EventSimulation(railway, dwell);
+		for (Train train : trains) {
+			simulation.addTrain(train);
+		}
+		long start = System.nanoTime();
+		long deadline = start + duration * 1_000_000;
+		while (System.nanoTime() < deadline && !simulation.isDeadlocked()) {
+			simulation.run(Math.max(1, Math.min(EVENT_SLICE, dwell)));
+			if (saver != null) {
+				// Entre deux tranches : la simulation est à l'arrêt
+				saver.maybeSave();
+			}
+			if (run.firstMoveNanos < 0 && simulation.getMoves() > 0) {
+				run.firstMoveNanos = System.nanoTime();
+				run.firstMoveMillis = System.currentTimeMillis();
+			}
+		}
+		run.elapsedNanos = System.nanoTime() - start;
+		run.moves = simulation.getMoves();
+		run.note = String.format("Temps virtuel : %d ms, tentatives bloquées : %d%s", simulation.getTime(),
+				simulation.getBlockedAttempts(),
+				simulation.isDeadlocked() ? " - INTERBLOCAGE : tous les trains sont bloqués" : "");
+		return run;
+	}
+
+	/**
+	 * Simulation à événements discrets répartie, exécutée par tranches pendant
+	 * {@code duration} ms réelles
+	 */
+	private static Run runPartitions(Railway railway, List<Train> trains, int partitions, long dwell, long duration,
+			Saver saver) throws InterruptedException {
+		Run run = new Run();
+		PartitionedSimulation simulation = new PartitionedSimulation(railway, partitions, dwell);
+		for (Train train : trains) {
+			simulation.addTrain(train);
+		}
+		long start = System.nanoTime();
+		long deadline = start + duration * 1_000_000;
+		while (System.nanoTime() < deadline && !simulation.isDeadlocked()) {
+			// Chaque tranche démarre un thread par partition : plusieurs fenêtres par tranche
+			simulation.run(PARTITION_WINDOWS * dwell);
+			if (saver != null) {
+				saver.maybeSave();
+			}
+			if (run.firstMoveNanos < 0 && simulation.getMoves() > 0) {
+				run.firstMoveNanos = System.nanoTime();
+				run.firstMoveMillis = System.currentTimeMillis();
+			}
+		}
+		run.elapsedNanos = System.nanoTime() - start;
+		run.moves = simulation.getMoves();
+		run.note = String.format("Partitions : %d, temps virtuel : %d ms, tentatives bloquées : %d%s",
+				simulation.getPartitionCount(), simulation.getTime(), simulation.getBlockedAttempts(),
+				simulation.isDeadlocked() ? " - INTERBLOCAGE : tous les trains sont bloqués" : "");
+		return run;
+	}
+}
@@ -16,6 +16,9 @@ package train;
  * Solution : Limiter à n+1 trains maximum garantit qu'au moins un train peut toujours
  * entrer dans la gare et libérer de l'espace.
  * 
+ * Cette règle suppose des gares voisines de 2 places ; la limite exacte, pour une ligne
+ * quelconque, est calculée par {@link FleetAnalysis} et vérifiée au placement des trains.
+ * 
  * @author Votre nom
  */
 public class IntermediateStation extends Station {
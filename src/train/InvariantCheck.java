@@ -0,0 +1,110 @@
+package train;
+
+import java.util.Arrays;
+
+/**
+ * Vérification des invariants de sûreté sur l'état d'une ligne ({@link RailwayState}),
+ * partagée par {@link JournalReplay} et {@link ModelChecker} :
+ * <ul>
+ * <li>capacité : un train au plus par section, présents et réservations dans la limite
+ * des quais de chaque gare ;</li>
+ * <li>sens unique : aucun segment n'a de trains dans les deux directions ;</li>
+ * <li>cohérence : présences, réservations (trains en route vers chaque gare) et
+ * compteurs des segments égaux à ceux recalculés depuis la position des trains.</li>
+ * </ul>
+ * Chaque vérification retourne la description de la première violation, ou null.
+ * {@link #checkElement} et {@link #checkSegment} lisent chacune un seul mot de l'état :
+ * elles restent exactes pendant les déplacements d'une ligne en mode
+ * {@link ConcurrencyMode#LOCK_FREE} ({@link LockFreeStress}).
+ * Les tableaux de recalcul sont alloués une fois : une instance par thread.
+ */
+final class InvariantCheck {
+	private final RailwayState state;
+	private final Topology topology;
+	private final Element[] elements;
+	private final int[] occupancy;  // [élément] : trains recalculés
+	private final int[] reservations;  // [élément] : trains en route recalculés
+	private final int[] segments;  // [2 * segment + direction] : trains recalculés
+
+	InvariantCheck(Railway railway) {
+		this.state = railway.getState();
+		this.topology = railway.getTopology();
+		this.elements = railway.getElements();
+		this.occupancy = new int[elements.length];
+		this.reservations = new int[elements.length];
+		this.segments = new int[2 * topology.segmentCount()];
+	}
+
+	/**
+	 * Vérifie la capacité d'un élément
+	 */
+	String checkElement(int index) {
+		long word = state.elementWord(index);
+		int trains = RailwayState.trains(word);
+		int reserved = RailwayState.reserved(word);
+		int capacity = topology.isStation(index) ? ((Station) elements[index]).getSize() : 1;
+		if (trains < 0 || reserved < 0 || trains + reserved > capacity) {
+			return elements[index] + " : " + trains + " trains et " + reserved + " réservations pour " + capacity
+					+ " places";
+		}
+		return null;
+	}
+
+	/**
+	 * Vérifie qu'un segment n'a pas de trains dans les deux directions
+	 */
+	String checkSegment(int segment) {
+		if (state.segments().isTwoWay(segment)) {
+			return "trains dans les deux directions sur le segment " + segment;
+		}
+		return null;
+	}
+
+	/**
+	 * Vérifie tout l'état : capacité de chaque élément, sens unique de chaque segment,
+	 * et présences, réservations et compteurs recalculés depuis la position des trains
+	 * @param trainCount le nombre de trains de la ligne
+	 */
+	String checkAll(int trainCount) {
+		Arrays.fill(occupancy, 0);
+		Arrays.fill(reservations, 0);
+		Arrays.fill(segments, 0);
+		for (int id = 0; id < trainCount; id++) {
+			int element = state.trainElement(id);
+			occupancy[element]++;
+			if (!topology.isStation(element)) {
+				Direction direction = state.trainDirection(id);
+				reservations[topology.destination(element, direction)]++;
+				segments[2 * topology.segment(element) + direction.ordinal()]++;
+			}
+		}
+		for (int i = 0; i < elements.length; i++) {
+			String error = checkElement(i);
+			if (error != null) {
+				return error;
+			}
+			if (state.occupancy(i) != occupancy[i]) {
+				return elements[i] + " : " + state.occupancy(i) + " trains comptés, " + occupancy[i] + " présents";
+			}
+			if (state.reservations(i) != reservations[i]) {
+				return elements[i] + " : " + state.reservations(i) + " réservations, " + reservations[i]
+						+ " trains en route";
+			}
+		}
+		for (int segment = 0; segment < topology.segmentCount(); segment++) {
+			for (Direction direction : Direction.values()) {
+				int counted = state.segments().get(segment, direction);
+				int actual = segments[2 * segment + direction.ordinal()];
+				if (counted != actual) {
+					return "segment " + segment + " (" + direction.name() + ") : " + counted + " trains comptés, "
+							+ actual + " sur ses sections";
+				}
+			}
+			String error = checkSegment(segment);
+			if (error != null) {
+				return error;
+			}
+		}
+		return null;
+	}
+}
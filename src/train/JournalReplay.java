@@ -0,0 +1,535 @@
+package train;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Relecture d'un {@link MoveJournal} : la ligne est reconstruite depuis le scénario du
+ * journal, puis les déplacements sont réappliqués dans leur ordre, sur un seul thread
+ * et sans pause ({@link Railway#tryMove}, sans verrou ni attente).
+ *
+ * Chaque déplacement relu est vérifié :
+ * <ul>
+ * <li>avant : il doit être accordé par les règles de circulation ; en arrivant en gare,
+ * le train doit y avoir une réservation et son segment doit le compter (la ligne, elle,
+ * ramène silencieusement ces compteurs à 0 au lieu de les rendre négatifs) ;</li>
+ * <li>après : les éléments touchés ne dépassent pas leur capacité (un train par section,
+ * présents et réservations dans la limite des quais) et aucun segment quitté n'a de
+ * trains dans les deux directions.</li>
+ * </ul>
+ * À chaque entrée d'index du journal, l'état relu est comparé octet par octet à l'état
+ * enregistré, et tout l'état est recalculé depuis la position des trains
+ * ({@link #checkAll()}) : présences, réservations (trains en route vers chaque gare)
+ * et compteurs des segments. Une violation lève une {@link IllegalStateException}
+ * qui donne le numéro du déplacement.
+ *
+ * {@link #seek(long)} saute à n'importe quel déplacement : l'état de la dernière entrée
+ * d'index qui le précède est restauré, puis au plus un intervalle de déplacements est
+ * rejoué. Les entrées d'index sont repérées une fois pour toutes à l'ouverture, en
+ * parcourant le fichier. Un journal interrompu (arrêt brutal) est relu jusqu'à son
+ * dernier enregistrement complet.
+ *
+ * Lancement : java -cp bin train.JournalReplay FICHIER [déplacement de départ] [nombre]
+ */
+public final class JournalReplay implements AutoCloseable {
+	private final FileChannel channel;
+	private final Input input;
+	private final Railway railway;
+	private final RailwayState state;
+	private final Topology topology;
+	private final Element[] elements;
+	private final Train[] trains;
+	private final InvariantCheck invariants;
+	private final int indexInterval;
+	private final ByteBuffer initialState;  // État avant le premier déplacement
+	private final long entriesStart;  // Position de la première entrée dans le fichier
+	private long end;  // Position après la dernière entrée complète
+	private long eventCount;  // Nombre de déplacements du journal
+	private long[] indexEvents = new long[16];  // Numéro de déplacement de chaque entrée d'index
+	private long[] indexOffsets = new long[16];  // Position de chaque entrée d'index dans le fichier
+	private int indexCount;
+	private long position;  // Numéro du prochain déplacement à rejouer
+	private ByteBuffer replayed;  // Copie de l'état relu, comparée aux entrées d'index
+	private ByteBuffer recorded;  // État lu dans une entrée d'index
+	private long verifiedSnapshots;
+
+	private JournalReplay(FileChannel channel) throws IOException, BadPositionForTrainException {
+		this.channel = channel;
+		this.input = new Input(channel);
+		DataInputStream data = new DataInputStream(input);
+		if (data.readInt() != MoveJournal.MAGIC)
+			throw new IOException("ce n'est pas un journal des déplacements");
+		short version = data.readShort();
+		if (version != MoveJournal.VERSION)
+			throw new IOException("version de journal non prise en charge : " + version);
+		this.indexInterval = data.readInt();
+		// L'état enregistré est repris tel quel, même s'il pouvait bloquer la ligne
+		this.railway = Scenario.readBinary(data, ConcurrencyMode.GLOBAL, false);
+		this.entriesStart = input.position();
+
+		this.state = railway.getState();
+		this.topology = railway.getTopology();
+		this.elements = railway.getElements();
+		this.trains = new Train[railway.getTrainCount()];
+		for (int id = 0; id < trains.length; id++) {
+			trains[id] = railway.getTrain(id);
+		}
+		this.invariants = new InvariantCheck(railway);
+		this.initialState = ByteBuffer.allocate((int) state.savedSize()).order(ByteOrder.LITTLE_ENDIAN);
+		state.save(initialState);
+		initialState.flip();
+		scan();
+		input.seek(entriesStart);
+	}
+
+	/**
+	 * Ouvre un journal et reconstruit sa ligne dans l'état initial
+	 * @param file le fichier écrit par {@link MoveJournal}
+	 */
+	public static JournalReplay open(Path file) throws IOException, BadPositionForTrainException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			return new JournalReplay(channel);
+		} catch (IOException | BadPositionForTrainException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Parcourt les entrées pour compter les déplacements et repérer les entrées d'index
+	 */
+	private void scan() throws IOException {
+		long count = 0;
+		end = entriesStart;
+		while (true) {
+			long offset = input.position();
+			int first = input.read();
+			if (first < 0) {
+				break;
+			}
+			if (first == MoveJournal.INDEX_TAG) {
+				long event = input.readLong();
+				int size = input.readInt();
+				if (event == Long.MIN_VALUE || size < 0 || !input.skip(size, channel.size())) {
+					break;
+				}
+				if (event != count)
+					throw new IOException("entrée d'index à la position " + offset + " : déplacement " + event
+							+ " au lieu de " + count);
+				if (indexCount == indexEvents.length) {
+					indexEvents = Arrays.copyOf(indexEvents, 2 * indexCount);
+					indexOffsets = Arrays.copyOf(indexOffsets, 2 * indexCount);
+				}
+				indexEvents[indexCount] = event;
+				indexOffsets[indexCount] = offset;
+				indexCount++;
+			} else if (input.readVarint(first) < 0) {
+				break;
+			} else {
+				count++;
+			}
+			end = input.position();
+		}
+		eventCount = count;
+	}
+
+	/**
+	 * Retourne la ligne relue (son état suit la relecture)
+	 */
+	public Railway getRailway() {
+		return railway;
+	}
+
+	/**
+	 * Retourne le nombre de déplacements du journal
+	 */
+	public long getEventCount() {
+		return eventCount;
+	}
+
+	/**
+	 * Retourne le nombre d'entrées d'index du journal
+	 */
+	public int getIndexCount() {
+		return indexCount;
+	}
+
+	/**
+	 * Retourne l'intervalle entre deux entrées d'index à l'enregistrement
+	 */
+	public int getIndexInterval() {
+		return indexInterval;
+	}
+
+	/**
+	 * Retourne le numéro du prochain déplacement à rejouer (le nombre de déplacements
+	 * appliqués à l'état de la ligne)
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * Retourne le nombre d'entrées d'index comparées à l'état relu
+	 */
+	public long getVerifiedSnapshots() {
+		return verifiedSnapshots;
+	}
+
+	/**
+	 * Rejoue le déplacement suivant
+	 * @return l'identifiant du train déplacé, -1 à la fin du journal
+	 * @throws IllegalStateException si le déplacement viole une règle de la ligne
+	 */
+	public int step() throws IOException {
+		if (position >= eventCount) {
+			verifyTrailingSnapshots();
+			return -1;
+		}
+		int first = input.read();
+		while (first == MoveJournal.INDEX_TAG) {
+			verifySnapshot();
+			first = input.read();
+		}
+		int train = input.readVarint(first) - 1;
+		apply(train);
+		position++;
+		return train;
+	}
+
+	/**
+	 * Rejoue au plus {@code count} déplacements, sans pause
+	 * @return le nombre de déplacements rejoués
+	 */
+	public long run(long count) throws IOException {
+		long target = Math.min(eventCount, position + Math.max(0, count));
+		long start = position;
+		while (position < target) {
+			step();
+		}
+		if (position == eventCount) {
+			verifyTrailingSnapshots();
+		}
+		return position - start;
+	}
+
+	/**
+	 * Place la relecture juste avant le déplacement {@code event} (0 : état initial),
+	 * depuis la dernière entrée d'index qui le précède
+	 * @param event le numéro du déplacement, entre 0 et {@link #getEventCount()}
+	 */
+	public void seek(long event) throws IOException {
+		if (event < 0 || event > eventCount)
+			throw new IllegalArgumentException("déplacement hors du journal : " + event);
+
+		// Dernière entrée d'index avant event, sauf si la relecture en cours est plus proche
+		int entry = -1;
+		for (int i = indexCount - 1; i >= 0; i--) {
+			if (indexEvents[i] <= event) {
+				entry = i;
+				break;
+			}
+		}
+		long from = entry < 0 ? 0 : indexEvents[entry];
+		if (event < position || from > position) {
+			if (entry < 0) {
+				railway.restoreState(initialState.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+				input.seek(entriesStart);
+			} else {
+				// Après l'octet de marque et le numéro du déplacement
+				input.seek(indexOffsets[entry] + 1 + 8);
+				int size = input.readInt();
+				recorded = read(recorded, size);
+				railway.restoreState(recorded);
+			}
+			position = from;
+		}
+		while (position < event) {
+			step();
+		}
+	}
+
+	/**
+	 * Applique un déplacement relu en vérifiant les règles de la ligne
+	 */
+	private void apply(int id) {
+		if (id < 0 || id >= trains.length)
+			throw violation("train inconnu " + id);
+
+		Train train = trains[id];
+		int current = state.trainElement(id);
+		Direction direction = state.trainDirection(id);
+		int next = topology.next(current, direction);
+		if (next < 0)
+			throw violation(train.getName() + " au bout de la ligne sur " + elements[current]);
+
+		boolean departing = topology.isStation(current) && !topology.isStation(next);
+		boolean arriving = !topology.isStation(current) && topology.isStation(next);
+		if (arriving) {
+			// Railway ramène ces compteurs à 0 sans erreur : vérifier avant qu'ils le fassent
+			if (state.reservations(next) <= 0)
+				throw violation(train.getName() + " arrive à " + elements[next] + " sans réservation");
+			int segment = topology.arrivalSegment(next, direction);
+			if (state.segments().get(segment, direction) <= 0)
+				throw violation(train.getName() + " quitte le segment " + segment + " qui ne le compte pas (" + direction
+						+ ") : le compteur deviendrait négatif");
+		}
+		if (!railway.tryMove(train))
+			throw violation(train.getName() + " ne peut pas quitter " + elements[current] + " : " + train.getWaitReason());
+
+		checkElement(next);
+		if (departing) {
+			int segment = topology.departureSegment(current, direction);
+			String error = invariants.checkSegment(segment);
+			if (error != null)
+				throw violation(error);
+			checkElement(topology.destination(current, direction));
+		}
+	}
+
+	/**
+	 * Vérifie la capacité d'un élément
+	 */
+	private void checkElement(int index) {
+		String error = invariants.checkElement(index);
+		if (error != null)
+			throw violation(error);
+	}
+
+	/**
+	 * Vérifie tout l'état de la ligne : capacité de chaque élément, et présences,
+	 * réservations et compteurs des segments recalculés depuis la position des trains
+	 * @throws IllegalStateException à la première différence
+	 */
+	public void checkAll() {
+		String error = invariants.checkAll(trains.length);
+		if (error != null)
+			throw violation(error);
+	}
+
+	/**
+	 * Compare l'état relu à l'entrée d'index lue (juste après son octet de marque)
+	 */
+	private void verifySnapshot() throws IOException {
+		long event = input.readLong();
+		int size = input.readInt();
+		if (event != position)
+			throw violation("entrée d'index du déplacement " + event);
+		recorded = read(recorded, size);
+		if (replayed == null || replayed.capacity() != size) {
+			replayed = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		replayed.clear();
+		state.save(replayed);
+		replayed.flip();
+		int mismatch = replayed.mismatch(recorded);
+		if (mismatch >= 0)
+			throw violation("l'état relu diffère de l'état enregistré (octet " + mismatch + " sur " + size + ")");
+		checkAll();
+		verifiedSnapshots++;
+	}
+
+	/**
+	 * Vérifie les entrées d'index écrites après le dernier déplacement
+	 */
+	private void verifyTrailingSnapshots() throws IOException {
+		while (input.position() < end) {
+			if (input.read() != MoveJournal.INDEX_TAG)
+				throw violation("déplacement après la fin du journal");
+			verifySnapshot();
+		}
+	}
+
+	/**
+	 * Lit l'état d'une entrée d'index dans un tampon réutilisé
+	 */
+	private ByteBuffer read(ByteBuffer buffer, int size) throws IOException {
+		if (buffer == null || buffer.capacity() != size) {
+			buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		buffer.clear();
+		input.readFully(buffer);
+		buffer.flip();
+		return buffer;
+	}
+
+	private IllegalStateException violation(String message) {
+		return new IllegalStateException("déplacement " + position + " : " + message);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Lecture tamponnée du fichier, sans synchronisation, qui connaît sa position
+	 * et peut s'y déplacer
+	 */
+	private static final class Input extends InputStream {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+		private long bufferStart;  // Position dans le fichier du début du tampon
+
+		Input(FileChannel channel) {
+			this.channel = channel;
+			buffer.flip();
+		}
+
+		long position() {
+			return bufferStart + buffer.position();
+		}
+
+		void seek(long offset) throws IOException {
+			channel.position(offset);
+			bufferStart = offset;
+			buffer.clear().flip();
+		}
+
+		private boolean fill() throws IOException {
+			bufferStart += buffer.limit();
+			buffer.clear();
+			int read;
+			do {
+				read = channel.read(buffer);
+			} while (read == 0);
+			buffer.flip();
+			return read > 0;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!buffer.hasRemaining() && !fill()) {
+				return -1;
+			}
+			return buffer.get() & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining() && !fill()) {
+				return -1;
+			}
+			int count = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, count);
+			return count;
+		}
+
+		void readFully(ByteBuffer target) throws IOException {
+			while (target.hasRemaining()) {
+				if (!buffer.hasRemaining() && !fill())
+					throw new EOFException();
+				int count = Math.min(target.remaining(), buffer.remaining());
+				ByteBuffer chunk = buffer.duplicate();
+				chunk.limit(chunk.position() + count);
+				target.put(chunk);
+				buffer.position(buffer.position() + count);
+			}
+		}
+
+		/**
+		 * Saute {@code size} octets
+		 * @return false si le fichier est plus court
+		 */
+		boolean skip(int size, long fileSize) throws IOException {
+			long target = position() + size;
+			if (target > fileSize) {
+				return false;
+			}
+			seek(target);
+			return true;
+		}
+
+		/**
+		 * @return un int gros-boutiste, ou Integer.MIN_VALUE si le fichier est trop court
+		 */
+		int readInt() throws IOException {
+			int value = 0;
+			for (int i = 0; i < 4; i++) {
+				int b = read();
+				if (b < 0) {
+					return Integer.MIN_VALUE;
+				}
+				value = (value << 8) | b;
+			}
+			return value;
+		}
+
+		/**
+		 * @return un long gros-boutiste, ou Long.MIN_VALUE si le fichier est trop court
+		 */
+		long readLong() throws IOException {
+			long value = 0;
+			for (int i = 0; i < 8; i++) {
+				int b = read();
+				if (b < 0) {
+					return Long.MIN_VALUE;
+				}
+				value = (value << 8) | b;
+			}
+			return value;
+		}
+
+		/**
+		 * Termine la lecture d'un entier variable (poids faibles d'abord)
+		 * @param first son premier octet, déjà lu
+		 * @return sa valeur, ou -1 si le fichier est trop court
+		 */
+		int readVarint(int first) throws IOException {
+			int value = first & 0x7F;
+			int shift = 7;
+			int b = first;
+			while ((b & 0x80) != 0) {
+				b = read();
+				if (b < 0) {
+					return -1;
+				}
+				value |= (b & 0x7F) << shift;
+				shift += 7;
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * Rejoue un journal à pleine vitesse et affiche le débit
+	 * @param args le fichier du journal, puis facultativement le déplacement de départ
+	 *        (atteint par {@link #seek}) et le nombre de déplacements à rejouer
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("usage : JournalReplay FICHIER [départ] [nombre]");
+			System.exit(2);
+		}
+		try (JournalReplay replay = open(Paths.get(args[0]))) {
+			System.out.printf("Journal : %d déplacements, %d entrées d'index (tous les %d), %d trains, %d éléments%n",
+					replay.getEventCount(), replay.getIndexCount(), replay.getIndexInterval(),
+					replay.getRailway().getTrainCount(), replay.getRailway().getElements().length);
+			long from = args.length > 1 ? Long.parseLong(args[1]) : 0;
+			long count = args.length > 2 ? Long.parseLong(args[2]) : replay.getEventCount();
+			long start = System.nanoTime();
+			replay.seek(Math.min(from, replay.getEventCount()));
+			long seekNanos = System.nanoTime() - start;
+			start = System.nanoTime();
+			long replayed = replay.run(count);
+			long elapsed = System.nanoTime() - start;
+			replay.checkAll();
+			System.out.printf("Saut au déplacement %d : %.1f ms%n", replay.getPosition() - replayed, seekNanos / 1e6);
+			System.out.printf("Relecture : %d déplacements en %.1f ms (%.0f /s), %d entrées d'index vérifiées, aucune violation%n",
+					replayed, elapsed / 1e6, replayed / Math.max(1e-9, elapsed / 1e9), replay.getVerifiedSnapshots());
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package train;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Test de charge du mode {@link ConcurrencyMode#LOCK_FREE} : un thread par train roule
+ * sans pause pendant plusieurs manches, pendant qu'un thread de contrôle vérifie en
+ * continu les invariants lisibles d'un seul mot ({@link InvariantCheck#checkElement},
+ * {@link InvariantCheck#checkSegment}). Entre deux manches, les trains sont arrêtés et
+ * tout l'état est vérifié ({@link InvariantCheck#checkAll}) : présences, réservations
+ * et compteurs des segments recalculés depuis la position des trains. Le programme
+ * s'arrête en erreur à la première violation, si une manche ne déplace aucun train,
+ * ou si un train ne s'est jamais déplacé (famine).
+ *
+ * Exécuté par le build ({@code mvn test}, phase test du module core) ; le débit des
+ * trois modes sur le même parcours est mesuré par {@code ConcurrencyModeThroughput}
+ * (module jmh).
+ *
+ * Lancement : java -cp bin train.LockFreeStress [topologie] [trains] [manches] [ms par manche]
+ * (topologie comme pour {@link HeadlessMain}, par défaut line:60:16:3 et 31 trains, la
+ * plus grande flotte sans interblocage possible de cette ligne).
+ */
+public class LockFreeStress {
+
+	public static void main(String[] args) throws Exception {
+		String topology = args.length > 0 ? args[0] : "line:60:16:3";
+		int trainCount = args.length > 1 ? Integer.parseInt(args[1]) : 31;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		long millis = args.length > 3 ? Long.parseLong(args[3]) : 500;
+
+		Railway railway = new Railway(HeadlessMain.parseTopology(topology, trainCount), ConcurrencyMode.LOCK_FREE);
+		List<Train> trains = HeadlessMain.placeTrains(railway, trainCount);
+		System.out.printf("%s, %d trains, %d manches de %d ms, %d processeurs%n", topology, trainCount, rounds, millis,
+				Runtime.getRuntime().availableProcessors());
+
+		InvariantCheck check = new InvariantCheck(railway);
+		long[] moves = new long[trainCount];
+		for (int round = 1; round <= rounds; round++) {
+			AtomicReference<String> violation = new AtomicReference<>();
+			AtomicLong checks = new AtomicLong();
+			Thread checker = new Thread(() -> watch(railway, violation, checks), "Contrôle");
+			checker.setDaemon(true);
+			checker.start();
+			long roundMoves = drive(railway, trains, millis, moves);
+			checker.interrupt();
+			checker.join();
+
+			String error = violation.get();
+			if (error == null) {
+				error = check.checkAll(trainCount);
+			}
+			System.out.printf("manche %d : %d déplacements, %d contrôles pendant la manche, %s%n", round, roundMoves,
+					checks.get(), error == null ? "aucune violation" : "VIOLATION : " + error);
+			if (error != null || roundMoves == 0) {
+				System.exit(1);
+			}
+		}
+		long min = Long.MAX_VALUE;
+		long max = 0;
+		for (long count : moves) {
+			min = Math.min(min, count);
+			max = Math.max(max, count);
+		}
+		System.out.printf("déplacements par train : min %d, max %d ; réveils %d (dont %d inutiles)%n", min, max,
+				railway.getWakeups(), railway.getSpuriousWakeups());
+		if (min == 0) {
+			System.out.println("FAMINE : un train ne s'est jamais déplacé");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Fait rouler chaque train sur son thread pendant la durée donnée, puis les arrête
+	 * @param moves les déplacements de chaque train, incrémentés
+	 * @return le nombre de déplacements
+	 */
+	static long drive(Railway railway, List<Train> trains, long millis, long[] moves)
+			throws InterruptedException {
+		long[] counts = new long[trains.size()];
+		List<Thread> threads = new ArrayList<>(trains.size());
+		for (int i = 0; i < trains.size(); i++) {
+			Train train = trains.get(i);
+			int index = i;
+			Thread thread = new Thread(() -> {
+				long count = 0;
+				while (!Thread.currentThread().isInterrupted()) {
+					if (railway.move(train)) {
+						count++;
+					}
+				}
+				counts[index] = count;
+			}, "Train-" + train.getName());
+			thread.setDaemon(true);
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		Thread.sleep(millis);
+		for (Thread thread : threads) {
+			thread.interrupt();
+		}
+		long total = 0;
+		for (int i = 0; i < threads.size(); i++) {
+			threads.get(i).join();
+			moves[i] += counts[i];
+			total += counts[i];
+		}
+		return total;
+	}
+
+	/**
+	 * Vérifie en boucle la capacité de chaque élément et le sens unique de chaque
+	 * segment, jusqu'à l'interruption ou la première violation
+	 */
+	private static void watch(Railway railway, AtomicReference<String> violation, AtomicLong checks) {
+		InvariantCheck check = new InvariantCheck(railway);
+		int elements = railway.getElements().length;
+		int segments = railway.getTopology().segmentCount();
+		while (!Thread.currentThread().isInterrupted()) {
+			for (int i = 0; i < elements; i++) {
+				String error = check.checkElement(i);
+				if (error != null) {
+					violation.compareAndSet(null, error);
+					return;
+				}
+			}
+			for (int segment = 0; segment < segments; segment++) {
+				String error = check.checkSegment(segment);
+				if (error != null) {
+					violation.compareAndSet(null, error);
+					return;
+				}
+			}
+			checks.incrementAndGet();
+		}
+	}
+}
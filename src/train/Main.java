@@ -6,14 +6,24 @@ import javax.swing.*;
  * @author Fabien Dagnat <fabien.dagnat@imt-atlantique.fr>
  */
 public class Main {
-	public static void main(String[] args) {
+	public static void main(String[] args) throws Exception {
+		// Simulation en lot, sans interface graphique (Swing n'est alors jamais chargé)
+		if (args.length > 0 && args[0].equals("--headless")) {
+			HeadlessMain.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+
+		// Type de thread des trains : "platform" (par défaut) ou "virtual" (JDK 21)
+		ThreadMode threadMode = args.length > 0 ? ThreadMode.valueOf(args[0].toUpperCase()) : ThreadMode.PLATFORM;
+
 		// Création des gares terminales
 		Station A = new Station("GareA", 3);
 		Station D = new Station("GareD", 3);
 		
 		// Création d'une gare intermédiaire au milieu
 		// INVARIANT DE SÛRETÉ : avec n places, maximum n+1 trains pour éviter l'interblocage
-		// Avec 2 places, on peut avoir au maximum 3 trains
+		// Avec 2 places, on peut avoir au maximum 3 trains (FleetAnalysis, qui tient compte
+		// des gares terminales de 3 places, en autorise 4 ; un 5e serait refusé au placement)
 		IntermediateStation C = new IntermediateStation("GareC", 2);
 		
 		// Création des sections
@@ -27,14 +37,21 @@ public class Main {
 		// Création de la ligne
 		Railway railway = new Railway(elements);
 		
+		// Mesures d'exécution, consultables en JMX (jconsole : train:type=Railway,name=main)
+		RailwayMetrics metrics = new RailwayMetrics(railway);
+		railway.setMetrics(metrics);
+		metrics.register("main");
+		
+		// Journal des événements, affiché sur la console par un thread de vidage
+		EventLog eventLog = new EventLog();
+		railway.setEventLog(eventLog);
+		eventLog.startDrainer(new EventPrinter(railway, System.out));
+		
 		// Création de l'interface graphique sur le thread Swing
 		SwingUtilities.invokeLater(() -> {
-			// Créer la fenêtre de visualisation
+			// Créer la fenêtre de visualisation (la vue suit les déplacements de la ligne)
 			RailwayFrame frame = new RailwayFrame(railway, elements);
 			
-			// Associer la vue à la ligne
-			railway.setView(frame.getRailwayView());
-			
 			try {
 				// Création de 3 trains (respecte l'invariant : n+1 avec n=2 pour la gare intermédiaire)
 				
@@ -51,13 +68,9 @@ public class Main {
 				Train t3 = new Train("T3", p3, railway);
 
 				// Création et démarrage des threads pour chaque train
-				Thread thread1 = new Thread(t1);
-				Thread thread2 = new Thread(t2);
-				Thread thread3 = new Thread(t3);
-
-				thread1.start();
-				thread2.start();
-				thread3.start();
+				threadMode.start(t1);
+				threadMode.start(t2);
+				threadMode.start(t3);
 
 			} catch (BadPositionForTrainException e) {
 				frame.log("ERREUR: " + e.getMessage());
@@ -0,0 +1,577 @@
+package train;
+
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+/**
+ * Vérification exhaustive d'une ligne : tous les états atteignables depuis la position
+ * de départ des trains sont explorés, en appliquant les règles de circulation de
+ * {@link Railway} elles-mêmes ({@link Railway#moveIfFree}), et chacun est vérifié :
+ * <ul>
+ * <li>les invariants de sûreté ({@link InvariantCheck}) : un train par section,
+ * présents et réservations dans la limite des quais, sens unique sur chaque segment,
+ * compteurs cohérents avec la position des trains ;</li>
+ * <li>l'absence d'interblocage : au moins un train peut se déplacer.</li>
+ * </ul>
+ * Un train bloqué pour toujours pendant que d'autres circulent (famine) n'est pas
+ * recherché : c'est une propriété de vivacité, hors de portée d'une exploration en
+ * largeur ; {@link FleetAnalysis} en donne une borne.
+ *
+ * Un état est codé sur quelques mots {@code long} : position et direction de chaque
+ * train, réservations de chaque gare et compteurs de chaque segment, chaque valeur sur
+ * le nombre de bits juste suffisant. Les présents, déterminés par la position des
+ * trains, sont recalculés au décodage ; les réservations et les compteurs sont
+ * conservés tels que la ligne les a calculés, et vérifiés à chaque état. Les trains étant
+ * interchangeables, leurs positions sont triées (réduction par symétrie). Les états
+ * visités sont rangés dans un {@link StateSet}, sans objet par état, avec la case de
+ * leur prédécesseur.
+ *
+ * L'exploration se fait en largeur, niveau par niveau, sur plusieurs threads : chacun
+ * a sa propre copie de la ligne, prend des lots d'états du niveau courant et ajoute
+ * leurs successeurs nouveaux au niveau suivant ; une barrière sépare les niveaux. La
+ * première violation arrête l'exploration à la fin de son niveau et donne un
+ * contre-exemple de longueur minimale, de l'état initial à l'état fautif.
+ *
+ * <pre>
+ * java -cp bin train.ModelChecker main 5
+ * java -Xmx16g -cp bin train.ModelChecker line:40:2:6 6 --max-states=400000000 --threads=8
+ * </pre>
+ * Topologies comme {@link HeadlessMain} ({@code main}, {@code line:N[:C[:K]]},
+ * {@code file:CHEMIN}), trains placés alternativement aux deux extrémités (sauf scénario).
+ * La table des états est allouée d'avance pour {@code --max-states} états (4 M par
+ * défaut) : prévoir {@code 8 * (mots + 1) / 0,75} octets par état.
+ */
+public final class ModelChecker {
+	private static final int CHUNK = 256;  // États pris à la fois par un thread
+	private static final Direction[] DIRECTIONS = Direction.values();
+
+	private final Element[] layout;  // Éléments de la ligne vérifiée (copiés pour chaque thread)
+	private final int[] initialElements;  // [train] : gare de départ
+	private final Direction[] initialDirections;
+	private final int trainCount;
+	private final int threadCount;
+	private final long maxStates;
+	private PrintStream progress;  // Avancement (null : aucun affichage)
+
+	// === Codage des états ===
+	private final int words;  // Mots par état
+	private final int[] fieldWord;  // [champ] : mot du champ
+	private final int[] fieldShift;  // [champ] : position du champ dans son mot
+	private final long[] fieldMask;  // [champ] : masque de la largeur du champ
+	private final int[] stations;  // Index des gares
+	private final int reservationFields;  // Premier champ des réservations : un par gare
+	private final int segmentFields;  // Premier champ des compteurs : [2 * segment + direction]
+	private final int segmentCount;
+
+	// === Exploration ===
+	private StateSet visited;
+	private long[] frontier = new long[0];  // Cases des états du niveau courant
+	private int frontierSize;
+	private final AtomicLong cursor = new AtomicLong();
+	private final AtomicReference<Violation> violation = new AtomicReference<>();
+	private Worker[] workers;
+	private boolean done;
+	private int depth;
+	private long transitions;
+	private long lastProgress;
+
+	/**
+	 * @param railway une ligne dont tous les trains sont en gare : sa disposition et la
+	 *        position de ses trains forment l'état initial (la ligne n'est pas modifiée)
+	 * @param threadCount le nombre de threads d'exploration
+	 * @param maxStates le nombre d'états que la table doit pouvoir contenir
+	 */
+	public ModelChecker(Railway railway, int threadCount, long maxStates) {
+		if (threadCount <= 0)
+			throw new IllegalArgumentException("nombre de threads invalide : " + threadCount);
+
+		this.layout = railway.getElements();
+		this.trainCount = railway.getTrainCount();
+		this.threadCount = threadCount;
+		this.maxStates = maxStates;
+		RailwayState state = railway.getState();
+		Topology topology = railway.getTopology();
+		this.initialElements = new int[trainCount];
+		this.initialDirections = new Direction[trainCount];
+		for (int id = 0; id < trainCount; id++) {
+			initialElements[id] = state.trainElement(id);
+			initialDirections[id] = state.trainDirection(id);
+			if (!topology.isStation(initialElements[id]))
+				throw new IllegalArgumentException(railway.getTrain(id).getName() + " n'est pas en gare");
+		}
+
+		// Champs, chacun sur le nombre de bits juste suffisant, sans chevaucher deux mots
+		// (63 bits par mot : le bit de poids fort du premier est réservé par StateSet)
+		int n = layout.length;
+		this.stations = IntStream.range(0, n).filter(topology::isStation).toArray();
+		this.segmentCount = topology.segmentCount();
+		int fields = trainCount + stations.length + 2 * segmentCount;
+		this.fieldWord = new int[fields];
+		this.fieldShift = new int[fields];
+		this.fieldMask = new long[fields];
+		int[] widths = new int[fields];
+		int trainWidth = bits(n - 1) + 1;
+		for (int t = 0; t < trainCount; t++) {
+			widths[t] = trainWidth;
+		}
+		this.reservationFields = trainCount;
+		this.segmentFields = reservationFields + stations.length;
+		for (int s = 0; s < stations.length; s++) {
+			widths[reservationFields + s] = bits(((Station) layout[stations[s]]).getSize());
+		}
+		for (int c = 0; c < 2 * segmentCount; c++) {
+			widths[segmentFields + c] = bits(trainCount);
+		}
+		int word = 0;
+		int shift = 0;
+		for (int f = 0; f < fields; f++) {
+			if (shift + widths[f] > 63) {
+				word++;
+				shift = 0;
+			}
+			fieldWord[f] = word;
+			fieldShift[f] = shift;
+			fieldMask[f] = (1L << widths[f]) - 1;
+			shift += widths[f];
+		}
+		this.words = word + 1;
+	}
+
+	/**
+	 * Nombre de bits pour représenter les valeurs de 0 à max
+	 */
+	private static int bits(int max) {
+		return Math.max(1, 64 - Long.numberOfLeadingZeros(max));
+	}
+
+	/**
+	 * Affiche l'avancement de l'exploration (au plus une ligne par seconde)
+	 */
+	public void setProgress(PrintStream progress) {
+		this.progress = progress;
+	}
+
+	/**
+	 * Explore tous les états atteignables, ou jusqu'à la première violation
+	 * @return true si aucune violation n'a été trouvée
+	 * @throws IllegalStateException si la table des états est pleine
+	 */
+	public boolean run() throws InterruptedException, BadPositionForTrainException {
+		visited = new StateSet(words, maxStates);
+		workers = new Worker[threadCount];
+		for (int w = 0; w < threadCount; w++) {
+			workers[w] = new Worker();
+		}
+		Worker first = workers[0];
+		first.decodeInitial();
+		String error = first.invariants.checkAll(trainCount);
+		long[] initial = new long[words];
+		first.encode(initial);
+		long slot = visited.add(initial, -1);
+		if (error != null) {
+			violation.set(new Violation(slot, null, error));
+			return false;
+		}
+		frontier = new long[] { slot };
+		frontierSize = 1;
+		depth = 0;
+		done = false;
+		lastProgress = System.nanoTime();
+
+		CyclicBarrier barrier = new CyclicBarrier(threadCount, this::endLevel);
+		Thread[] threads = new Thread[threadCount];
+		for (int w = 0; w < threadCount; w++) {
+			Worker worker = workers[w];
+			threads[w] = new Thread(() -> worker.run(barrier), "ModelChecker-" + w);
+			threads[w].setDaemon(true);
+			threads[w].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		for (Worker worker : workers) {
+			if (worker.failure != null)
+				throw new IllegalStateException("exploration interrompue", worker.failure);
+		}
+		return violation.get() == null;
+	}
+
+	/**
+	 * Action de la barrière, tous les threads à l'arrêt : rassemble le niveau suivant
+	 */
+	private void endLevel() {
+		int size = 0;
+		for (Worker worker : workers) {
+			size += worker.nextSize;
+			transitions += worker.transitions;
+			worker.transitions = 0;
+		}
+		if (violation.get() != null || size == 0) {
+			done = true;
+			return;
+		}
+		long[] next = new long[size];
+		int position = 0;
+		for (Worker worker : workers) {
+			System.arraycopy(worker.next, 0, next, position, worker.nextSize);
+			position += worker.nextSize;
+			worker.nextSize = 0;
+		}
+		frontier = next;
+		frontierSize = size;
+		cursor.set(0);
+		depth++;
+		long now = System.nanoTime();
+		if (progress != null && now - lastProgress > 1_000_000_000L) {
+			progress.printf("profondeur %d : %d états à explorer, %d états vus%n", depth, size, visited.size());
+			lastProgress = now;
+		}
+	}
+
+	/**
+	 * Un thread d'exploration, avec sa propre copie de la ligne
+	 */
+	private final class Worker {
+		final Railway railway;
+		final RailwayState state;
+		final InvariantCheck invariants;
+		final Train[] trains;
+		final long[] current = new long[words];
+		final long[] successor = new long[words];
+		final int[] keys = new int[trainCount];  // Positions triées des trains : élément * 2 + direction
+		long[] next = new long[1024];  // Cases des nouveaux états trouvés pour le niveau suivant
+		int nextSize;
+		long transitions;
+		Throwable failure;
+
+		Worker() throws BadPositionForTrainException {
+			Element[] elements = new Element[layout.length];
+			for (int i = 0; i < elements.length; i++) {
+				elements[i] = copy(layout[i]);
+			}
+			this.railway = new Railway(elements, ConcurrencyMode.GLOBAL);
+			railway.setFleetLimitEnforced(false);
+			this.trains = new Train[trainCount];
+			Station[] stations = new Station[trainCount];
+			for (int t = 0; t < trainCount; t++) {
+				trains[t] = new Train("T" + (t + 1), initialDirections[t], railway);
+				stations[t] = (Station) elements[initialElements[t]];
+			}
+			railway.placeTrainsAtStations(trains, stations, trainCount);
+			this.state = railway.getState();
+			this.invariants = new InvariantCheck(railway);
+		}
+
+		void run(CyclicBarrier barrier) {
+			try {
+				while (!done) {
+					long start;
+					while ((start = cursor.getAndAdd(CHUNK)) < frontierSize) {
+						int end = (int) Math.min(start + CHUNK, frontierSize);
+						for (int i = (int) start; i < end; i++) {
+							expand(frontier[i]);
+						}
+					}
+					barrier.await();
+				}
+			} catch (InterruptedException | BrokenBarrierException e) {
+				Thread.currentThread().interrupt();
+			} catch (RuntimeException | Error e) {
+				failure = e;
+				barrier.reset();
+			}
+		}
+
+		/**
+		 * Calcule les successeurs d'un état : un par train qui peut se déplacer
+		 */
+		void expand(long slot) {
+			visited.read(slot, current);
+			decode(current);
+			boolean moved = false;
+			for (int t = 0; t < trainCount; t++) {
+				if (t > 0 && keys[t] == keys[t - 1]) {
+					continue;  // Même position que le train précédent : même successeur
+				}
+				if (!railway.moveIfFree(trains[t])) {
+					continue;
+				}
+				moved = true;
+				transitions++;
+				String error = invariants.checkAll(trainCount);
+				if (error != null) {
+					String move = layout[keys[t] >> 1] + " → " + layout[state.trainElement(t)];
+					violation.compareAndSet(null, new Violation(slot, move, error));
+				} else {
+					encode(successor);
+					long added = visited.add(successor, slot);
+					if (added >= 0) {
+						if (nextSize == next.length) {
+							next = Arrays.copyOf(next, 2 * nextSize);
+						}
+						next[nextSize++] = added;
+					}
+				}
+				decode(current);
+			}
+			if (!moved && trainCount > 0) {
+				violation.compareAndSet(null, new Violation(slot, null, "interblocage : aucun train ne peut se déplacer"));
+			}
+		}
+
+		/**
+		 * Place les trains à leur gare de départ (état initial)
+		 */
+		void decodeInitial() {
+			for (int t = 0; t < trainCount; t++) {
+				state.moveTrain(t, initialElements[t], initialDirections[t]);
+			}
+		}
+
+		/**
+		 * Code l'état de la ligne, positions des trains triées
+		 */
+		void encode(long[] words) {
+			Arrays.fill(words, 0);
+			for (int t = 0; t < trainCount; t++) {
+				keys[t] = 2 * state.trainElement(t) + state.trainDirection(t).ordinal();
+			}
+			Arrays.sort(keys);
+			for (int t = 0; t < trainCount; t++) {
+				put(words, t, keys[t]);
+			}
+			for (int s = 0; s < stations.length; s++) {
+				put(words, reservationFields + s, state.reservations(stations[s]));
+			}
+			for (int s = 0; s < segmentCount; s++) {
+				for (Direction direction : DIRECTIONS) {
+					put(words, segmentFields + 2 * s + direction.ordinal(), state.segments().get(s, direction));
+				}
+			}
+		}
+
+		/**
+		 * Remplace l'état de la ligne par un état codé (train t à la t-ième position triée),
+		 * présents recalculés depuis la position des trains
+		 */
+		void decode(long[] words) {
+			for (int i = 0; i < layout.length; i++) {
+				state.setOccupancy(i, 0);
+			}
+			for (int t = 0; t < trainCount; t++) {
+				keys[t] = (int) get(words, t);
+				int element = keys[t] >> 1;
+				state.moveTrain(t, element, DIRECTIONS[keys[t] & 1]);
+				state.setOccupancy(element, state.occupancy(element) + 1);
+			}
+			for (int s = 0; s < stations.length; s++) {
+				state.setReservations(stations[s], (int) get(words, reservationFields + s));
+			}
+			for (int s = 0; s < segmentCount; s++) {
+				for (Direction direction : DIRECTIONS) {
+					state.segments().set(s, direction, (int) get(words, segmentFields + 2 * s + direction.ordinal()));
+				}
+			}
+		}
+	}
+
+	private void put(long[] words, int field, long value) {
+		words[fieldWord[field]] |= (value & fieldMask[field]) << fieldShift[field];
+	}
+
+	private long get(long[] words, int field) {
+		return (words[fieldWord[field]] >>> fieldShift[field]) & fieldMask[field];
+	}
+
+	private static Element copy(Element element) {
+		if (element instanceof IntermediateStation) {
+			return new IntermediateStation(element.toString(), ((Station) element).getSize());
+		}
+		if (element instanceof Station) {
+			return new Station(element.toString(), ((Station) element).getSize());
+		}
+		return new Section(element.toString());
+	}
+
+	/**
+	 * Première violation trouvée : l'état où elle apparaît (ou son prédécesseur et le
+	 * déplacement fautif, pour un état qui ne respecte pas les invariants)
+	 */
+	private static final class Violation {
+		final long slot;
+		final String move;  // Déplacement qui mène à l'état fautif, null si c'est l'état de slot
+		final String message;
+
+		Violation(long slot, String move, String message) {
+			this.slot = slot;
+			this.move = move;
+			this.message = message;
+		}
+	}
+
+	/**
+	 * Retourne la description de la violation trouvée, ou null
+	 */
+	public String getViolation() {
+		Violation found = violation.get();
+		return found == null ? null : found.message;
+	}
+
+	/**
+	 * Retourne le contre-exemple de la violation trouvée (vide sans violation) : l'état
+	 * initial, puis chaque déplacement et l'état obtenu
+	 */
+	public List<String> getTrace() {
+		Violation found = violation.get();
+		if (found == null) {
+			return Collections.emptyList();
+		}
+		List<Long> path = new ArrayList<>();
+		for (long slot = found.slot; slot >= 0; slot = visited.parent(slot)) {
+			path.add(slot);
+		}
+		Collections.reverse(path);
+		List<String> trace = new ArrayList<>();
+		long[] previous = null;
+		for (long slot : path) {
+			long[] words = new long[this.words];
+			visited.read(slot, words);
+			trace.add(previous == null ? describe(words) : describeMove(previous, words) + " : " + describe(words));
+			previous = words;
+		}
+		if (found.move != null) {
+			trace.add(found.move + " : " + found.message);
+		}
+		return trace;
+	}
+
+	/**
+	 * Décrit les positions des trains d'un état : élément et sens de chacun
+	 */
+	private String describe(long[] words) {
+		StringBuilder text = new StringBuilder();
+		int previous = -1;
+		for (int t = 0; t < trainCount; t++) {
+			int key = (int) get(words, t);
+			if (key >> 1 != previous) {
+				if (previous >= 0) {
+					text.append(' ');
+				}
+				text.append(layout[key >> 1]);
+				previous = key >> 1;
+			}
+			text.append((key & 1) == Direction.LR.ordinal() ? '>' : '<');
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Décrit le déplacement d'un état au suivant : la position qui disparaît et celle qui apparaît
+	 */
+	private String describeMove(long[] from, long[] to) {
+		int[] before = new int[trainCount];
+		int[] after = new int[trainCount];
+		for (int t = 0; t < trainCount; t++) {
+			before[t] = (int) get(from, t);
+			after[t] = (int) get(to, t);
+		}
+		int i = 0;
+		int j = 0;
+		int left = -1;
+		int arrived = -1;
+		while (i < trainCount || j < trainCount) {
+			if (j == trainCount || (i < trainCount && before[i] < after[j])) {
+				left = before[i++];
+			} else if (i == trainCount || after[j] < before[i]) {
+				arrived = after[j++];
+			} else {
+				i++;
+				j++;
+			}
+		}
+		return left < 0 ? "?" : layout[left >> 1] + " → " + layout[arrived >> 1];
+	}
+
+	public long getStates() {
+		return visited == null ? 0 : visited.size();
+	}
+
+	public long getTransitions() {
+		return transitions;
+	}
+
+	/**
+	 * Retourne la profondeur atteinte : longueur du plus long des plus courts chemins explorés
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Retourne le nombre de mots {@code long} d'un état codé
+	 */
+	public int getWordsPerState() {
+		return words;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("usage : ModelChecker <main|line:N[:C[:K]]|file:CHEMIN> <trains> [--threads=N]"
+					+ " [--max-states=N]");
+			System.exit(2);
+		}
+		String topology = args[0];
+		int trainCount = Integer.parseInt(args[1]);
+		int threads = Runtime.getRuntime().availableProcessors();
+		long maxStates = 1 << 22;
+		for (int i = 2; i < args.length; i++) {
+			String value = args[i].substring(args[i].indexOf('=') + 1);
+			if (args[i].startsWith("--threads=")) {
+				threads = Integer.parseInt(value);
+			} else if (args[i].startsWith("--max-states=")) {
+				maxStates = Long.parseLong(value);
+			} else {
+				throw new IllegalArgumentException("option inconnue : " + args[i]);
+			}
+		}
+
+		Railway railway;
+		if (topology.startsWith("file:")) {
+			railway = Scenario.load(Paths.get(topology.substring("file:".length())), ConcurrencyMode.GLOBAL, false);
+		} else {
+			railway = new Railway(HeadlessMain.parseTopology(topology, trainCount));
+			railway.setFleetLimitEnforced(false);
+			HeadlessMain.placeTrains(railway, trainCount);
+		}
+		ModelChecker checker = new ModelChecker(railway, threads, maxStates);
+		checker.setProgress(System.out);
+		System.out.printf("%d éléments, %d trains (%s sans interblocage d'après FleetAnalysis), %d mots par état,"
+				+ " %d threads%n", railway.getElements().length, railway.getTrainCount(), railway.getFleetAnalysis(),
+				checker.getWordsPerState(), threads);
+
+		long start = System.nanoTime();
+		boolean verified = checker.run();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d états, %d transitions, profondeur %d, en %.2f s (%.0f états/s)%n", checker.getStates(),
+				checker.getTransitions(), checker.getDepth(), seconds, checker.getStates() / seconds);
+		if (verified) {
+			System.out.println("Aucune violation : invariants respectés et aucun interblocage atteignable");
+		} else {
+			System.out.println("VIOLATION : " + checker.getViolation());
+			List<String> trace = checker.getTrace();
+			for (int step = 0; step < trace.size(); step++) {
+				System.out.printf("%4d. %s%n", step, trace.get(step));
+			}
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,282 @@
+package train;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Journal des déplacements accordés par une ligne, dans leur ordre total, pour les
+ * rejouer à l'identique ({@link JournalReplay}).
+ *
+ * Chaque déplacement reçoit un numéro pendant qu'il est effectué, sous le verrou qui
+ * le protège : deux déplacements en conflit (mêmes éléments, même segment, même gare
+ * de destination) sont numérotés dans l'ordre où ils ont eu lieu, les autres commutent.
+ * Depuis l'état initial, la suite des trains déplacés suffit donc à tout reconstituer :
+ * l'élément suivant et la nouvelle direction se déduisent de la position du train.
+ *
+ * Comme {@link EventLog}, les numéros sont écrits dans un tampon circulaire sans verrou
+ * ni allocation, vidé dans le fichier par un thread dédié. Mais aucun déplacement ne
+ * doit manquer : si le tampon est plein, le train attend que le thread de vidage lui
+ * fasse de la place.
+ *
+ * Toutes les {@code indexInterval} déplacements, le premier train qui le constate prend
+ * toute la ligne ({@link Railway#snapshotJournal()}) et copie son état : c'est une entrée
+ * d'index, qui permet à la relecture de sauter à n'importe quel déplacement sans
+ * repartir du début. Sous ce verrou, aucun déplacement n'est en cours : l'état copié
+ * est exactement celui qui suit les déplacements déjà numérotés.
+ *
+ * Format (gros-boutiste, sauf l'état) :
+ * <pre>
+ * int    0x54524A4E ("TRJN")    short  version (1)
+ * int    intervalle des entrées d'index
+ * scénario binaire ({@link Scenario#writeBinary}) : la ligne et l'état initial
+ * puis une suite d'entrées :
+ *   déplacement     : identifiant du train + 1, entier variable (7 bits par octet, poids faibles d'abord)
+ *   entrée d'index  : octet 0, long numéro du déplacement suivant, int taille,
+ *                     état de la ligne ({@link RailwayState#save}, petit-boutiste)
+ * </pre>
+ * Un déplacement occupe un octet jusqu'à 127 trains, deux jusqu'à 16 383, trois au-delà
+ * (jusqu'à deux millions). L'état d'un million de trains occupe environ 5 Mo : choisir
+ * l'intervalle en conséquence.
+ *
+ * Le journal commence dans l'état initial du scénario : l'ouvrir avant de lancer les
+ * trains, tous en gare, et le fermer après les avoir arrêtés.
+ */
+public final class MoveJournal implements AutoCloseable {
+	static final int MAGIC = 0x54524A4E;  // "TRJN"
+	static final short VERSION = 1;
+	static final int INDEX_TAG = 0;
+	/** Intervalle par défaut entre deux entrées d'index (déplacements) */
+	public static final int DEFAULT_INDEX_INTERVAL = 1 << 16;
+	private static final int CAPACITY = 1 << 16;
+	private static final long DRAIN_PAUSE_NS = 1_000_000;  // Pause du thread de vidage quand le tampon est vide
+
+	private final Railway railway;
+	private final OutputStream out;
+	private final int indexInterval;
+	private final int mask = CAPACITY - 1;
+	private final int[] trains = new int[CAPACITY];
+	private final AtomicLongArray published = new AtomicLongArray(CAPACITY);  // Numéro (+1) publié dans chaque case
+	private final AtomicLong tail = new AtomicLong();  // Prochain numéro à attribuer
+	private volatile long head = 0;  // Prochain numéro à écrire
+	private final AtomicLong nextIndex;  // Numéro à partir duquel prendre une entrée d'index (MAX_VALUE : en cours)
+	private final ConcurrentLinkedQueue<Snapshot> snapshots = new ConcurrentLinkedQueue<>();
+	private final Thread drainer;
+	private volatile boolean closing = false;
+	private volatile IOException failure;  // Erreur d'écriture du thread de vidage
+
+	/**
+	 * État de la ligne copié avant le déplacement numéro {@code index}
+	 */
+	private static final class Snapshot {
+		final long index;
+		final ByteBuffer state;
+
+		Snapshot(long index, ByteBuffer state) {
+			this.index = index;
+			this.state = state;
+		}
+	}
+
+	private MoveJournal(Railway railway, OutputStream out, int indexInterval) {
+		this.railway = railway;
+		this.out = out;
+		this.indexInterval = indexInterval;
+		this.nextIndex = new AtomicLong(indexInterval);
+		this.drainer = new Thread(this::drainLoop, "MoveJournal-drainer");
+		this.drainer.setDaemon(true);
+	}
+
+	/**
+	 * Crée le journal d'une ligne et commence à enregistrer ses déplacements
+	 * @param railway la ligne, avec tous ses trains en gare et à l'arrêt
+	 * @param file le fichier du journal (remplacé s'il existe)
+	 */
+	public static MoveJournal start(Railway railway, Path file) throws IOException {
+		return start(railway, file, DEFAULT_INDEX_INTERVAL);
+	}
+
+	/**
+	 * @param indexInterval le nombre de déplacements entre deux entrées d'index
+	 * @throws IllegalStateException si un train n'est pas en gare, ou si la ligne a déjà un journal
+	 */
+	public static MoveJournal start(Railway railway, Path file, int indexInterval) throws IOException {
+		if (indexInterval <= 0)
+			throw new IllegalArgumentException("intervalle d'index invalide : " + indexInterval);
+
+		OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16);
+		try {
+			DataOutputStream data = new DataOutputStream(out);
+			data.writeInt(MAGIC);
+			data.writeShort(VERSION);
+			data.writeInt(indexInterval);
+			Scenario.writeBinary(railway, data);
+			MoveJournal journal = new MoveJournal(railway, out, indexInterval);
+			railway.setJournal(journal);
+			journal.drainer.start();
+			return journal;
+		} catch (IOException | RuntimeException e) {
+			out.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Numérote et enregistre un déplacement (appelé par la ligne pendant le déplacement,
+	 * sous le verrou qui le protège)
+	 * @param train l'identifiant du train déplacé
+	 */
+	void record(int train) {
+		long sequence = tail.getAndIncrement();
+		while (sequence - head > mask) {
+			if (failure != null) {
+				// Le thread de vidage s'est arrêté sur une erreur, signalée à la fermeture
+				return;
+			}
+			// Tampon plein : céder le processeur au thread de vidage
+			Thread.yield();
+		}
+		int slot = (int) sequence & mask;
+		trains[slot] = train;
+		published.lazySet(slot, sequence + 1);
+	}
+
+	/**
+	 * Indique si une entrée d'index est due, et en charge l'appelant (un seul à la fois)
+	 */
+	boolean claimSnapshot() {
+		long next = nextIndex.get();
+		return tail.get() >= next && nextIndex.compareAndSet(next, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Copie l'état de la ligne pour l'entrée d'index réclamée par {@link #claimSnapshot()}
+	 * (toute la ligne verrouillée par l'appelant)
+	 */
+	void snapshot(RailwayState state) {
+		long index = tail.get();
+		ByteBuffer copy = ByteBuffer.allocate((int) state.savedSize()).order(ByteOrder.LITTLE_ENDIAN);
+		state.save(copy);
+		copy.flip();
+		snapshots.add(new Snapshot(index, copy));
+		nextIndex.set(index + indexInterval);
+	}
+
+	/**
+	 * Retourne le nombre de déplacements enregistrés
+	 */
+	public long getMoves() {
+		return tail.get();
+	}
+
+	/**
+	 * Retourne l'intervalle entre deux entrées d'index
+	 */
+	public int getIndexInterval() {
+		return indexInterval;
+	}
+
+	private void drainLoop() {
+		try {
+			while (!closing) {
+				if (drain() == 0) {
+					LockSupport.parkNanos(this, DRAIN_PAUSE_NS);
+				}
+			}
+			drain();
+			// Entrée d'index prise après le dernier déplacement
+			writeSnapshots(head);
+			out.flush();
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+
+	/**
+	 * Écrit les déplacements publiés, dans l'ordre, précédés des entrées d'index qui les concernent
+	 * @return le nombre de déplacements écrits
+	 */
+	private int drain() throws IOException {
+		int count = 0;
+		long sequence = head;
+		while (true) {
+			int slot = (int) sequence & mask;
+			if (published.get(slot) != sequence + 1) {
+				break;
+			}
+			writeSnapshots(sequence);
+			writeVarint(trains[slot] + 1);
+			sequence++;
+			count++;
+			// Libérer la case pour les producteurs
+			head = sequence;
+		}
+		if (count > 0) {
+			out.flush();
+		}
+		return count;
+	}
+
+	/**
+	 * Écrit les entrées d'index prises avant le déplacement {@code sequence}
+	 */
+	private void writeSnapshots(long sequence) throws IOException {
+		Snapshot snapshot;
+		while ((snapshot = snapshots.peek()) != null && snapshot.index <= sequence) {
+			snapshots.poll();
+			out.write(INDEX_TAG);
+			writeLong(snapshot.index);
+			writeInt(snapshot.state.remaining());
+			out.write(snapshot.state.array(), snapshot.state.arrayOffset() + snapshot.state.position(),
+					snapshot.state.remaining());
+		}
+	}
+
+	private void writeVarint(int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private void writeInt(int value) throws IOException {
+		out.write(value >>> 24);
+		out.write(value >>> 16);
+		out.write(value >>> 8);
+		out.write(value);
+	}
+
+	private void writeLong(long value) throws IOException {
+		writeInt((int) (value >>> 32));
+		writeInt((int) value);
+	}
+
+	/**
+	 * Arrête l'enregistrement (les trains doivent être arrêtés), écrit les derniers
+	 * déplacements et ferme le fichier
+	 * @throws IOException si une écriture a échoué pendant l'enregistrement
+	 */
+	@Override
+	public void close() throws IOException {
+		railway.setJournal(null);
+		closing = true;
+		try {
+			drainer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		out.close();
+		if (failure != null)
+			throw failure;
+	}
+}
@@ -0,0 +1,362 @@
+package train;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Balayage de paramètres pour dimensionner une ligne : des milliers de simulations
+ * indépendantes ({@link EventSimulation}, sans interface), exécutées en parallèle dans
+ * un {@link ForkJoinPool}, sur une grille ou un échantillon aléatoire de configurations.
+ *
+ * Une configuration fixe la longueur de la ligne, l'espacement des gares
+ * intermédiaires (une tous les K éléments, voir {@link HeadlessMain#line}), leur
+ * nombre de quais, celui des gares terminales, le nombre de trains (placés
+ * alternativement aux deux extrémités) et la durée d'arrêt entre deux déplacements.
+ * Pour chacune, on mesure le débit (déplacements par heure virtuelle), les quantiles
+ * des attentes (en temps virtuel, à un facteur deux près, voir {@link WaitHistogram})
+ * et l'éventuel interblocage, à comparer au nombre de trains que la ligne accueille
+ * sans risque d'interblocage ({@link FleetAnalysis}).
+ *
+ * Chaque simulation construit ses propres éléments et son propre état, libérés à la
+ * fin ; les tables de topologie ({@link Topology}), qui ne dépendent que de la
+ * disposition des gares, sont calculées une fois par disposition et partagées par
+ * toutes les simulations. La mémoire occupée dépend donc du nombre de simulations
+ * simultanées (le parallélisme), pas du nombre de configurations.
+ *
+ * <pre>
+ * java -cp bin train.ParameterSweep --length=60 --spacing=3..6 --platforms=1,2,3 --trains=4,8,16,32 --dwell=500,1000
+ * java -cp bin train.ParameterSweep --samples=5000 --seed=1 --length=30..300 --platforms=1..4 --trains=2..64
+ * </pre>
+ * Chaque paramètre est une liste ({@code 1,2,3}) ou un intervalle ({@code 1..4}) ;
+ * {@code --terminal=0} (par défaut) dimensionne les gares terminales pour tous les trains.
+ * Autres options : {@code --hours=H} (durée virtuelle de chaque simulation, 4 par
+ * défaut), {@code --parallelism=N} (par défaut, le nombre de processeurs).
+ */
+public final class ParameterSweep {
+	private final long duration;  // Durée virtuelle de chaque simulation (ms)
+	private final ConcurrentHashMap<Long, Topology> topologies = new ConcurrentHashMap<>();
+
+	/**
+	 * Une configuration à simuler
+	 */
+	public static final class Configuration {
+		final int length;  // Nombre d'éléments de la ligne
+		final int spacing;  // Une gare intermédiaire tous les spacing éléments
+		final int platforms;  // Quais de chaque gare intermédiaire
+		final int terminal;  // Quais des gares terminales (0 : assez pour tous les trains)
+		final int trains;
+		final long dwell;  // Durée d'arrêt entre deux déplacements (ms virtuelles)
+
+		public Configuration(int length, int spacing, int platforms, int terminal, int trains, long dwell) {
+			this.length = length;
+			this.spacing = spacing;
+			this.platforms = platforms;
+			this.terminal = terminal;
+			this.trains = trains;
+			this.dwell = dwell;
+		}
+
+		int terminalSize() {
+			return terminal > 0 ? terminal : Math.max(3, (trains + 1) / 2);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%7d %6d %5d %5d %7d %7d", length, spacing, platforms, terminalSize(), trains, dwell);
+		}
+	}
+
+	/**
+	 * Résultat d'une simulation
+	 */
+	public static final class Result {
+		final Configuration configuration;
+		long moves;
+		long blockedAttempts;
+		int maxSafeTrains;  // Limite de FleetAnalysis pour la ligne de cette configuration
+		double movesPerHour;  // Déplacements par heure virtuelle
+		long waits;  // Nombre d'attentes terminées
+		long p50;  // Quantiles des attentes (ms virtuelles)
+		long p90;
+		long p99;
+		long max;
+		long deadlockTime = -1;  // Date virtuelle de l'interblocage (ms), -1 sans interblocage
+		String error;  // Configuration impossible (trains trop nombreux pour les gares...)
+
+		Result(Configuration configuration) {
+			this.configuration = configuration;
+		}
+
+		public boolean isDeadlocked() {
+			return deadlockTime >= 0;
+		}
+
+		public double getMovesPerHour() {
+			return movesPerHour;
+		}
+
+		@Override
+		public String toString() {
+			if (error != null) {
+				return configuration + "  impossible : " + error;
+			}
+			return String.format("%s %6d %12.0f %8d %8d %8d %8d  %s", configuration, maxSafeTrains, movesPerHour, p50,
+					p90, p99, max,
+					isDeadlocked() ? "interblocage à " + deadlockTime / 1000 + " s" : "-");
+		}
+	}
+
+	/**
+	 * @param duration la durée virtuelle de chaque simulation (ms)
+	 */
+	public ParameterSweep(long duration) {
+		if (duration <= 0)
+			throw new IllegalArgumentException("durée invalide : " + duration);
+
+		this.duration = duration;
+	}
+
+	/**
+	 * Simule toutes les configurations en parallèle
+	 * @param pool le pool qui exécute les simulations
+	 * @return les résultats, dans l'ordre des configurations
+	 */
+	public Result[] run(List<Configuration> configurations, ForkJoinPool pool) {
+		Configuration[] array = configurations.toArray(new Configuration[0]);
+		Result[] results = new Result[array.length];
+		pool.invoke(new Batch(array, results, 0, array.length));
+		return results;
+	}
+
+	/**
+	 * Découpe récursive des configurations jusqu'à une simulation par tâche : les tâches
+	 * de durées inégales s'équilibrent par vol de travail
+	 */
+	private final class Batch extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Configuration[] configurations;
+		private final Result[] results;
+		private final int from;
+		private final int to;
+
+		Batch(Configuration[] configurations, Result[] results, int from, int to) {
+			this.configurations = configurations;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				results[from] = simulate(configurations[from]);
+			} else if (to > from) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Batch(configurations, results, from, middle),
+						new Batch(configurations, results, middle, to));
+			}
+		}
+	}
+
+	/**
+	 * Simule une configuration
+	 */
+	public Result simulate(Configuration configuration) {
+		Result result = new Result(configuration);
+		try {
+			Element[] elements = HeadlessMain.line(configuration.length, configuration.platforms, configuration.spacing,
+					configuration.terminalSize());
+			long key = ((long) configuration.length << 32) | configuration.spacing;
+			Topology topology = topologies.computeIfAbsent(key, k -> new Topology(elements));
+			Railway railway = new Railway(elements, ConcurrencyMode.GLOBAL, topology);
+			// Les flottes qui peuvent se bloquer sont simulées aussi : c'est ce qu'on mesure
+			railway.setFleetLimitEnforced(false);
+			result.maxSafeTrains = railway.getFleetAnalysis().getMaxTrains();
+			EventSimulation simulation = new EventSimulation(railway, configuration.dwell);
+			for (Train train : HeadlessMain.placeTrains(railway, configuration.trains)) {
+				simulation.addTrain(train);
+			}
+			simulation.run(duration);
+
+			result.moves = simulation.getMoves();
+			result.blockedAttempts = simulation.getBlockedAttempts();
+			result.movesPerHour = simulation.getMoves() * 3_600_000.0 / duration;
+			if (simulation.isDeadlocked()) {
+				result.deadlockTime = simulation.getTime();
+			}
+			WaitHistogram waits = simulation.getWaitTimes();
+			result.waits = waits.count();
+			result.p50 = waits.quantileNanos(0.5) / 1_000_000;
+			result.p90 = waits.quantileNanos(0.9) / 1_000_000;
+			result.p99 = waits.quantileNanos(0.99) / 1_000_000;
+			result.max = waits.maxNanos() / 1_000_000;
+		} catch (BadPositionForTrainException | IllegalArgumentException e) {
+			result.error = e.getMessage();
+		}
+		return result;
+	}
+
+	/**
+	 * Retourne le nombre de dispositions de ligne dont les tables sont partagées
+	 */
+	public int getSharedTopologies() {
+		return topologies.size();
+	}
+
+	/**
+	 * Valeurs possibles d'un paramètre : une liste ou un intervalle d'entiers
+	 */
+	static final class Values {
+		private final long[] list;  // null pour un intervalle
+		private final long min;
+		private final long max;
+
+		/**
+		 * @param spec {@code a,b,c} ou {@code a..b}
+		 */
+		Values(String spec) {
+			int range = spec.indexOf("..");
+			if (range >= 0) {
+				list = null;
+				min = Long.parseLong(spec.substring(0, range));
+				max = Long.parseLong(spec.substring(range + 2));
+				if (min > max)
+					throw new IllegalArgumentException("intervalle vide : " + spec);
+			} else {
+				list = Arrays.stream(spec.split(",")).mapToLong(Long::parseLong).toArray();
+				min = Arrays.stream(list).min().getAsLong();
+				max = Arrays.stream(list).max().getAsLong();
+			}
+		}
+
+		/**
+		 * Toutes les valeurs, pour une grille
+		 */
+		long[] all() {
+			if (list != null) {
+				return list;
+			}
+			long[] values = new long[(int) (max - min + 1)];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = min + i;
+			}
+			return values;
+		}
+
+		/**
+		 * Une valeur tirée uniformément
+		 */
+		long sample(Random random) {
+			if (list != null) {
+				return list[random.nextInt(list.length)];
+			}
+			return min + (long) (random.nextDouble() * (max - min + 1));
+		}
+	}
+
+	/**
+	 * Toutes les combinaisons des valeurs des paramètres
+	 */
+	static List<Configuration> grid(Values length, Values spacing, Values platforms, Values terminal, Values trains,
+			Values dwell) {
+		List<Configuration> configurations = new ArrayList<>();
+		for (long l : length.all()) {
+			for (long k : spacing.all()) {
+				for (long p : platforms.all()) {
+					for (long t : terminal.all()) {
+						for (long n : trains.all()) {
+							for (long d : dwell.all()) {
+								configurations.add(new Configuration((int) l, (int) k, (int) p, (int) t, (int) n, d));
+							}
+						}
+					}
+				}
+			}
+		}
+		return configurations;
+	}
+
+	/**
+	 * Échantillon aléatoire (méthode de Monte-Carlo) : chaque paramètre tiré indépendamment
+	 */
+	static List<Configuration> sample(int count, Random random, Values length, Values spacing, Values platforms,
+			Values terminal, Values trains, Values dwell) {
+		List<Configuration> configurations = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			configurations.add(new Configuration((int) length.sample(random), (int) spacing.sample(random),
+					(int) platforms.sample(random), (int) terminal.sample(random), (int) trains.sample(random),
+					dwell.sample(random)));
+		}
+		return configurations;
+	}
+
+	public static void main(String[] args) {
+		Values length = new Values("60");
+		Values spacing = new Values("3");
+		Values platforms = new Values("1,2,3");
+		Values terminal = new Values("0");
+		Values trains = new Values("4,8,16,32");
+		Values dwell = new Values(String.valueOf(Train.DELAY_MS));
+		long hours = 4;
+		int samples = 0;
+		long seed = 1;
+		int parallelism = Runtime.getRuntime().availableProcessors();
+		for (String option : args) {
+			String value = option.substring(option.indexOf('=') + 1);
+			if (option.startsWith("--length=")) {
+				length = new Values(value);
+			} else if (option.startsWith("--spacing=")) {
+				spacing = new Values(value);
+			} else if (option.startsWith("--platforms=")) {
+				platforms = new Values(value);
+			} else if (option.startsWith("--terminal=")) {
+				terminal = new Values(value);
+			} else if (option.startsWith("--trains=")) {
+				trains = new Values(value);
+			} else if (option.startsWith("--dwell=")) {
+				dwell = new Values(value);
+			} else if (option.startsWith("--hours=")) {
+				hours = Long.parseLong(value);
+			} else if (option.startsWith("--samples=")) {
+				samples = Integer.parseInt(value);
+			} else if (option.startsWith("--seed=")) {
+				seed = Long.parseLong(value);
+			} else if (option.startsWith("--parallelism=")) {
+				parallelism = Integer.parseInt(value);
+			} else {
+				System.err.println("usage : ParameterSweep [--length=V] [--spacing=V] [--platforms=V] [--terminal=V]"
+						+ " [--trains=V] [--dwell=V] [--hours=H] [--samples=N [--seed=S]] [--parallelism=N]"
+						+ " (V : a,b,c ou a..b)");
+				System.exit(2);
+			}
+		}
+
+		List<Configuration> configurations = samples > 0
+				? sample(samples, new Random(seed), length, spacing, platforms, terminal, trains, dwell)
+				: grid(length, spacing, platforms, terminal, trains, dwell);
+		ParameterSweep sweep = new ParameterSweep(hours * 3_600_000L);
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		long start = System.nanoTime();
+		Result[] results = sweep.run(configurations, pool);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		pool.shutdown();
+
+		System.out.printf("%7s %6s %5s %5s %7s %7s %6s %12s %8s %8s %8s %8s  %s%n", "long.", "esp.", "quais", "term.",
+				"trains", "arrêt", "sûr", "dépl./h", "p50 ms", "p90 ms", "p99 ms", "max ms", "interblocage");
+		int deadlocks = 0;
+		for (Result result : results) {
+			System.out.println(result);
+			if (result.isDeadlocked()) {
+				deadlocks++;
+			}
+		}
+		System.out.printf("%d simulations de %d h virtuelles en %.2f s (%.0f /s, parallélisme %d), %d interblocages,"
+				+ " %d dispositions de ligne partagées%n", results.length, hours, seconds, results.length / seconds,
+				parallelism, deadlocks, sweep.getSharedTopologies());
+	}
+}
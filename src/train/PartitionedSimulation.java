@@ -0,0 +1,306 @@
+package train;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Simulation à événements discrets répartie sur plusieurs cœurs : la ligne est
+ * découpée en partitions de segments consécutifs (les frontières sont donc des
+ * gares), et chaque partition traite ses propres trains dans sa propre file
+ * d'événements, sur son propre thread.
+ *
+ * Un train appartient à la partition du segment qu'il occupe ou, en gare, de celui
+ * qu'il empruntera en partant. Les déplacements passent par {@link Railway#attemptMove}
+ * sur une ligne en mode {@link ConcurrencyMode#SEGMENT} : deux partitions ne prennent
+ * jamais les mêmes verrous, sauf autour d'une gare frontière, et la réservation d'une
+ * place à la gare de destination reste protégée par les verrous de ses segments,
+ * comme en multi-thread. Un train qui arrive dans une gare frontière pour repartir de
+ * l'autre côté, ou qui est réveillé par un déplacement de la partition voisine, est
+ * transmis à sa nouvelle partition par une {@link HandoffQueue}, sans verrou.
+ *
+ * Les horloges des partitions avancent par fenêtres de {@code dwellTime}, séparées par
+ * une barrière : un train transmis après un déplacement repart {@code dwellTime} plus
+ * tard, donc dans une fenêtre suivante (simulation conservative, avec {@code dwellTime}
+ * pour anticipation). Un réveil venu d'une autre partition est, lui, traité au début
+ * de la fenêtre suivante : au plus {@code dwellTime} de retard par rapport à
+ * {@link EventSimulation}. L'ordre des déplacements concurrents autour d'une gare
+ * frontière dépend de l'ordonnancement des threads : la simulation respecte les règles
+ * de circulation mais n'est pas déterministe.
+ *
+ * Le débit croît avec le nombre de partitions tant que chacune a assez de trains
+ * pour amortir la barrière de chaque fenêtre.
+ */
+public class PartitionedSimulation {
+	private final Railway railway;
+	private final Topology topology;
+	private final long dwellTime;  // Durée virtuelle entre deux déplacements d'un train, et largeur d'une fenêtre (ms)
+	private final Partition[] partitions;
+	private final int[] partitionOfSegment;  // [segment] : index de la partition
+	private int trainCount = 0;
+	private long now = 0;  // Début de la prochaine fenêtre (ms virtuelles)
+	private long runEnd;  // Fin (incluse) de l'exécution en cours
+	private boolean deadlocked = false;
+
+	/**
+	 * @param railway la ligne simulée, en mode {@link ConcurrencyMode#SEGMENT}
+	 * @param partitionCount le nombre de partitions (ramené au nombre de segments)
+	 * @param dwellTime la durée virtuelle entre deux déplacements d'un train (ms, positive)
+	 */
+	public PartitionedSimulation(Railway railway, int partitionCount, long dwellTime) {
+		if (railway == null)
+			throw new NullPointerException();
+		if (railway.getMode() != ConcurrencyMode.SEGMENT)
+			throw new IllegalArgumentException("la ligne doit être en mode SEGMENT");
+		if (partitionCount <= 0)
+			throw new IllegalArgumentException("nombre de partitions invalide : " + partitionCount);
+		if (dwellTime <= 0)
+			throw new IllegalArgumentException("durée invalide : " + dwellTime);
+
+		this.railway = railway;
+		this.topology = railway.getTopology();
+		this.dwellTime = dwellTime;
+
+		// Partitions d'à peu près autant d'éléments, coupées aux gares : le segment s va
+		// dans la partition de son premier élément, puis les partitions vides sont retirées
+		int segments = topology.segmentCount();
+		int elements = topology.length();
+		int[] firstElement = new int[segments];
+		for (int i = elements - 1; i >= 0; i--) {
+			firstElement[topology.segment(i)] = i;
+		}
+		this.partitionOfSegment = new int[segments];
+		int count = 0;
+		long previous = -1;
+		for (int segment = 0; segment < segments; segment++) {
+			long share = (long) firstElement[segment] * partitionCount / elements;
+			if (segment > 0 && share != previous) {
+				count++;
+			}
+			partitionOfSegment[segment] = count;
+			previous = share;
+		}
+		count++;
+		this.partitions = new Partition[count];
+		for (int p = 0; p < count; p++) {
+			partitions[p] = new Partition(p);
+		}
+
+		railway.setWaker(new Waker() {
+			@Override
+			public void wake(Train train) {
+				Partition owner = partitions[partitionOf(train)];
+				if (owner.thread == Thread.currentThread()) {
+					owner.events.add(owner.now, train);
+				} else {
+					// Réveil par la partition voisine : repris au début de la fenêtre suivante
+					owner.inbox.add(current().now, train);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Retourne la partition du thread courant (appelé pendant une exécution)
+	 */
+	private Partition current() {
+		Thread thread = Thread.currentThread();
+		for (Partition partition : partitions) {
+			if (partition.thread == thread) {
+				return partition;
+			}
+		}
+		throw new IllegalStateException("réveil hors d'une partition");
+	}
+
+	/**
+	 * Retourne la partition à laquelle appartient un train, d'après sa position
+	 */
+	private int partitionOf(Train train) {
+		RailwayState state = railway.getState();
+		int element = state.trainElement(train.getId());
+		int segment = topology.isStation(element)
+				? topology.departureSegment(element, state.trainDirection(train.getId()))
+				: topology.segment(element);
+		return partitionOfSegment[segment];
+	}
+
+	/**
+	 * Ajoute un train (déjà placé en gare sur la ligne) à la simulation, entre deux
+	 * exécutions. Sa première tentative de déplacement a lieu après {@code dwellTime}.
+	 */
+	public void addTrain(Train train) {
+		if (train == null)
+			throw new NullPointerException();
+
+		trainCount++;
+		partitions[partitionOf(train)].events.add(now + dwellTime, train);
+	}
+
+	/**
+	 * Traite tous les événements jusqu'à la date virtuelle {@code getTime() + duration},
+	 * une partition par thread
+	 * @param duration la durée virtuelle à simuler (ms)
+	 */
+	public void run(long duration) throws InterruptedException {
+		if (deadlocked) {
+			return;
+		}
+		runEnd = now + duration;
+		for (Partition partition : partitions) {
+			partition.ensureInbox(trainCount);
+		}
+		CyclicBarrier barrier = new CyclicBarrier(partitions.length, this::endWindow);
+		for (Partition partition : partitions) {
+			partition.thread = new Thread(() -> partition.run(barrier), "Partition-" + partition.index);
+			partition.thread.setDaemon(true);
+		}
+		for (Partition partition : partitions) {
+			partition.thread.start();
+		}
+		for (Partition partition : partitions) {
+			partition.thread.join();
+		}
+		for (Partition partition : partitions) {
+			partition.thread = null;
+			if (partition.failure != null)
+				throw new IllegalStateException("partition " + partition.index, partition.failure);
+		}
+		if (!deadlocked) {
+			now = runEnd;
+		}
+	}
+
+	/**
+	 * Action de la barrière, sur un seul thread, toutes les partitions à l'arrêt :
+	 * passe à la fenêtre suivante ou termine l'exécution
+	 */
+	private void endWindow() {
+		long pending = 0;
+		long last = now;
+		for (Partition partition : partitions) {
+			pending += partition.events.size() + partition.inbox.size();
+			last = Math.max(last, partition.now);
+		}
+		if (trainCount > 0 && pending == 0) {
+			// Tous les trains attendent une condition qui ne changera plus
+			deadlocked = true;
+			now = last;
+			return;
+		}
+		now = Math.min(now + dwellTime, runEnd + 1);
+	}
+
+	/**
+	 * Une partition : sa file d'événements, sa file de réception et son horloge
+	 */
+	private final class Partition {
+		final int index;
+		final EventQueue events = new EventQueue();
+		HandoffQueue inbox = new HandoffQueue(0);
+		volatile Thread thread;
+		long now;  // Date du dernier événement traité (ms virtuelles)
+		long moves;
+		long blockedAttempts;
+		Throwable failure;
+
+		Partition(int index) {
+			this.index = index;
+		}
+
+		/**
+		 * Agrandit la file de réception si des trains ont été ajoutés (entre deux exécutions)
+		 */
+		void ensureInbox(int trains) {
+			if (inbox.capacity() <= trains) {
+				inbox.drain(events, Long.MIN_VALUE);
+				inbox = new HandoffQueue(trains);
+			}
+		}
+
+		void run(CyclicBarrier barrier) {
+			try {
+				while (!deadlocked && PartitionedSimulation.this.now <= runEnd) {
+					long windowStart = PartitionedSimulation.this.now;
+					long windowEnd = Math.min(windowStart + dwellTime, runEnd + 1);
+					inbox.drain(events, windowStart);
+					while (!events.isEmpty() && events.peekTime() < windowEnd) {
+						now = events.peekTime();
+						Train train = events.poll();
+						if (railway.attemptMove(train)) {
+							moves++;
+							int owner = partitionOf(train);
+							if (owner == index) {
+								events.add(now + dwellTime, train);
+							} else {
+								partitions[owner].inbox.add(now + dwellTime, train);
+							}
+						} else {
+							// Inscrit dans une file d'attente : reprogrammé au réveil
+							blockedAttempts++;
+						}
+					}
+					barrier.await();
+				}
+			} catch (InterruptedException | BrokenBarrierException e) {
+				Thread.currentThread().interrupt();
+			} catch (RuntimeException | Error e) {
+				failure = e;
+				barrier.reset();
+			}
+		}
+	}
+
+	/**
+	 * Retourne le nombre de partitions
+	 */
+	public int getPartitionCount() {
+		return partitions.length;
+	}
+
+	/**
+	 * Retourne le nombre de segments de chaque partition
+	 */
+	public int[] getPartitionSizes() {
+		int[] sizes = new int[partitions.length];
+		for (int partition : partitionOfSegment) {
+			sizes[partition]++;
+		}
+		return sizes;
+	}
+
+	/**
+	 * Retourne la date virtuelle courante (ms)
+	 */
+	public long getTime() {
+		return now;
+	}
+
+	/**
+	 * Retourne le nombre de déplacements effectués (entre deux exécutions)
+	 */
+	public long getMoves() {
+		long moves = 0;
+		for (Partition partition : partitions) {
+			moves += partition.moves;
+		}
+		return moves;
+	}
+
+	/**
+	 * Retourne le nombre de tentatives de déplacement qui ont bloqué un train
+	 */
+	public long getBlockedAttempts() {
+		long blocked = 0;
+		for (Partition partition : partitions) {
+			blocked += partition.blockedAttempts;
+		}
+		return blocked;
+	}
+
+	/**
+	 * Indique si tous les trains sont bloqués : aucun ne pourra plus jamais se déplacer
+	 */
+	public boolean isDeadlocked() {
+		return deadlocked;
+	}
+}
@@ -10,6 +10,9 @@ package train;
  * La direction qu'il prend (enumération {@link Direction}) : de gauche à
  * droite ou de droite à gauche.
 
+ * Une position est immuable. Chaque ligne crée une fois pour toutes ses 2 × n
+ * positions possibles ({@link Railway#getPosition(Element, Direction)}) : celles
+ * obtenues auprès d'une ligne ou d'un train peuvent être comparées avec ==.
  * 
  * @author Fabien Dagnat <fabien.dagnat@imt-atlantique.fr> Modifié par Mayte
  *         Segarra
@@ -0,0 +1,156 @@
+package train;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntConsumer;
+
+/**
+ * Tampon des trains dont la position a changé, publié par les threads des trains
+ * et consommé par un seul lecteur (la vue, à chaque image).
+ * 
+ * Les changements sont regroupés : un train n'est inscrit qu'une fois entre deux
+ * lectures, quel que soit le nombre de ses déplacements (un indicateur par train,
+ * posé par compare-and-set). Les inscriptions passent par un tampon circulaire sans
+ * verrou ni allocation, sur le modèle de {@link EventLog}. Le lecteur relit la position
+ * courante du train dans {@link RailwayState} : le tampon ne contient que des identifiants.
+ * 
+ * Si le tampon est plein, l'inscription est abandonnée et le lecteur est prévenu qu'il
+ * doit relire la position de tous les trains ({@link #resetOverflow()}).
+ */
+final class PositionUpdates {
+	/** Capacité par défaut (nombre d'identifiants) */
+	static final int DEFAULT_CAPACITY = 1 << 14;
+	private static final int BLOCK_BITS = 12;  // Indicateurs par blocs de 4096 trains
+	private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+	private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+	private final int mask;  // Capacité - 1 (la capacité est une puissance de 2)
+	private final int[] trains;
+	private final AtomicLongArray published;  // Numéro (+1) de la dernière inscription publiée dans chaque case
+	private final AtomicLong tail = new AtomicLong();  // Prochain numéro à réserver
+	private volatile long head = 0;  // Prochain numéro à consommer
+	private volatile boolean overflow = false;  // Inscription perdue : tout relire
+	private volatile AtomicIntegerArray[] dirty = new AtomicIntegerArray[0];  // [train] : 1 si déjà inscrit
+
+	PositionUpdates() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity le nombre d'identifiants du tampon (arrondi à une puissance de 2)
+	 */
+	PositionUpdates(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacité invalide : " + capacity);
+
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		this.mask = size - 1;
+		this.trains = new int[size];
+		this.published = new AtomicLongArray(size);
+	}
+
+	/**
+	 * Prépare les indicateurs des trains [0, count[ (appelé au placement des trains,
+	 * avant leur premier déplacement)
+	 */
+	synchronized void ensureCapacity(int count) {
+		int blocks = (count + BLOCK_MASK) >>> BLOCK_BITS;
+		AtomicIntegerArray[] current = dirty;
+		if (blocks > current.length) {
+			AtomicIntegerArray[] grown = Arrays.copyOf(current, blocks);
+			for (int i = current.length; i < blocks; i++) {
+				grown[i] = new AtomicIntegerArray(BLOCK_SIZE);
+			}
+			dirty = grown;
+		}
+	}
+
+	/**
+	 * Signale que la position d'un train a changé (appelable par plusieurs threads,
+	 * sans verrou). La nouvelle position doit déjà être rangée dans {@link RailwayState}.
+	 * @param train l'identifiant du train
+	 */
+	void publish(int train) {
+		AtomicIntegerArray flags = dirty[train >>> BLOCK_BITS];
+		int index = train & BLOCK_MASK;
+		if (flags.get(index) != 0 || !flags.compareAndSet(index, 0, 1)) {
+			// Déjà inscrit : le lecteur lira la position la plus récente
+			return;
+		}
+
+		long sequence;
+		do {
+			sequence = tail.get();
+			if (sequence - head > mask) {
+				overflow = true;
+				return;
+			}
+		} while (!tail.compareAndSet(sequence, sequence + 1));
+
+		int slot = (int) sequence & mask;
+		trains[slot] = train;
+		published.lazySet(slot, sequence + 1);
+	}
+
+	/**
+	 * Transmet au lecteur les trains inscrits depuis la dernière lecture, une fois
+	 * chacun. L'indicateur du train est effacé avant la transmission : un déplacement
+	 * ultérieur l'inscrira de nouveau.
+	 * @param consumer reçoit les identifiants
+	 * @return le nombre de trains transmis
+	 */
+	int drain(IntConsumer consumer) {
+		int count = 0;
+		long sequence = head;
+		while (true) {
+			int slot = (int) sequence & mask;
+			if (published.get(slot) != sequence + 1) {
+				break;
+			}
+			int train = trains[slot];
+			sequence++;
+			count++;
+			head = sequence;
+			dirty[train >>> BLOCK_BITS].set(train & BLOCK_MASK, 0);
+			consumer.accept(train);
+		}
+		return count;
+	}
+
+	/**
+	 * Indique si des inscriptions ont été perdues depuis le dernier appel. Dans ce cas
+	 * tous les indicateurs sont effacés et le lecteur doit relire tous les trains.
+	 */
+	boolean resetOverflow() {
+		if (!overflow) {
+			return false;
+		}
+		overflow = false;
+		for (AtomicIntegerArray flags : dirty) {
+			for (int i = 0; i < BLOCK_SIZE; i++) {
+				flags.set(i, 0);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Signale que toutes les positions ont pu changer (restauration d'un
+	 * {@link Checkpoint}) : le lecteur relira tous les trains
+	 */
+	void invalidateAll() {
+		overflow = true;
+	}
+
+	/**
+	 * Retourne la capacité du tampon
+	 */
+	int getCapacity() {
+		return mask + 1;
+	}
+}
@@ -8,40 +8,214 @@ package train;
  * @author Philippe Tanguy <philippe.tanguy@imt-atlantique.fr>
  */
 
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import jdk.jfr.FlightRecorder;
 
 public class Railway {
 	private final Element[] elements;  // Tableau des éléments composant la ligne (gares et sections)
-	private RailwayView view;  // Vue pour la visualisation graphique
+	private final Topology topology;  // Tables de topologie précalculées (immuables)
+	private final FleetAnalysis fleet;  // Nombre maximal de trains sans interblocage possible
+	private boolean fleetLimitEnforced = true;  // Refuser les trains au-delà de cette limite
+	private boolean fifoDepartures = true;  // Départs dans l'ordre des files des gares (DepartureQueue)
+	private final RailwayState state;  // État mutable des éléments, segments et trains
+	private final Position[] positions;  // Positions possibles, partagées : [2 * élément + direction]
+	private volatile PositionUpdates positionUpdates;  // Trains déplacés, lus par la vue (null : pas de lecteur)
+	private final ConcurrencyMode mode;  // Mode de synchronisation des déplacements
+	private EventLog eventLog;  // Journal des événements (null : aucun enregistrement)
+	private RailwayMetrics metrics;  // Mesures d'exécution (null : aucune mesure)
+	private MoveJournal journal;  // Journal des déplacements (null : aucun enregistrement)
+	private final List<Train> trains = new ArrayList<>();  // Trains placés, indexés par identifiant
+	// Réveil d'un train bloqué : débloque son thread (remplacé par EventSimulation)
+	private Waker waker = Waker.UNPARK;
 	
 	// === Variables pour la prévention de l'interblocage ===
 	// Compteur de trains par segment et par direction
-	// Un segment est défini par l'index de la gare de départ (vers la droite)
-	// Clé: index du segment, Valeur: nombre de trains allant vers la droite
-	private Map<Integer, Integer> trainsPerSegmentLR = new HashMap<>();
-	// Clé: index du segment, Valeur: nombre de trains allant vers la gauche
-	private Map<Integer, Integer> trainsPerSegmentRL = new HashMap<>();
+	// Un segment est la portion entre deux gares consécutives (identifiant dense, voir Topology)
+	private final SegmentCounters trainsPerSegment;  // Rangé dans RailwayState
 	
 	// Compteurs globaux pour l'affichage
-	private int trainsOnSectionsLR = 0;
-	private int trainsOnSectionsRL = 0;
+	private final AtomicInteger trainsOnSectionsLR = new AtomicInteger();
+	private final AtomicInteger trainsOnSectionsRL = new AtomicInteger();
+
+	// Verrou de toute la ligne (mode GLOBAL). Un ReentrantLock plutôt qu'un moniteur :
+	// un thread virtuel bloqué dessus libère son thread porteur.
+	private final ReentrantLock globalLock = new ReentrantLock();
+
+	// === Verrous par segment (mode SEGMENT) ===
+	// Indexés par segment, null en mode GLOBAL.
+	// L'état d'une gare est protégé par les verrous des deux segments qui la bordent :
+	// on les prend tous les deux pour la modifier, un seul suffit pour la lire.
+	private final ReentrantLock[] segmentLocks;
+
+	// === Files d'attente ciblées ===
+	// Par segment : trains attendant qu'il n'y ait plus de train allant vers la droite
+	// (resp. la gauche) sur ce segment. Les files des éléments sont dans Element.
+	private final WaitQueue[] waitingNoTrainLR;
+	private final WaitQueue[] waitingNoTrainRL;
+
+	// === Files d'attente sans verrou (mode LOCK_FREE, null sinon) ===
+	// Par élément : trains attendant une place dans cet élément (section suivante ou gare de destination)
+	private final ConcurrentWaitQueue[] elementWaiters;
+	// [2 * segment + direction] : trains attendant qu'il n'y ait plus de train dans cette direction
+	private final ConcurrentWaitQueue[] segmentWaiters;
+	// [2 * élément + direction] : file des départs d'une gare dans une direction (null pour une section)
+	private final ConcurrentDepartureQueue[] departureWaiters;
+	// Réveils suivis d'une nouvelle tentative infructueuse
+	private final LongAdder wakeups = new LongAdder();
+	private final LongAdder spuriousWakeups = new LongAdder();
 
 	public Railway(Element[] elements) {
-		if (elements == null)
+		this(elements, ConcurrencyMode.GLOBAL);
+	}
+
+	public Railway(Element[] elements, ConcurrencyMode mode) {
+		this(elements, mode, null);
+	}
+
+	/**
+	 * Construit une ligne qui partage des tables de topologie déjà calculées (immuables),
+	 * par exemple entre les simulations d'un {@link ParameterSweep}
+	 * @param topology les tables d'une ligne de même disposition (gares aux mêmes
+	 *        index), ou null pour les calculer
+	 */
+	Railway(Element[] elements, ConcurrencyMode mode, Topology topology) {
+		if (elements == null || mode == null)
 			throw new NullPointerException();
 
 		this.elements = elements;
-		for (Element e : elements)
-			e.setRailway(this);
+		this.mode = mode;
+		for (int i = 0; i < elements.length; i++) {
+			elements[i].setRailway(this);
+			elements[i].setIndex(i);
+		}
+		if (topology == null) {
+			topology = new Topology(elements);
+		} else if (!topology.matches(elements)) {
+			throw new IllegalArgumentException("topologie d'une autre disposition de ligne");
+		}
+		this.topology = topology;
+		this.fleet = new FleetAnalysis(elements);
+		this.positions = new Position[2 * elements.length];
+		for (int i = 0; i < elements.length; i++) {
+			for (Direction d : Direction.values()) {
+				positions[2 * i + d.ordinal()] = new Position(elements[i], d);
+			}
+		}
+
+		int segments = topology.segmentCount();
+		this.state = new RailwayState(elements.length, segments);
+		this.trainsPerSegment = state.segments();
+		this.segmentLocks = new ReentrantLock[segments];
+		this.waitingNoTrainLR = new WaitQueue[segments];
+		this.waitingNoTrainRL = new WaitQueue[segments];
+		for (int i = 0; i < segments; i++) {
+			if (mode == ConcurrencyMode.SEGMENT) {
+				segmentLocks[i] = new ReentrantLock();
+			}
+			waitingNoTrainLR[i] = new WaitQueue();
+			waitingNoTrainRL[i] = new WaitQueue();
+		}
+		if (mode == ConcurrencyMode.LOCK_FREE) {
+			this.elementWaiters = new ConcurrentWaitQueue[elements.length];
+			for (int i = 0; i < elements.length; i++) {
+				elementWaiters[i] = new ConcurrentWaitQueue();
+			}
+			this.segmentWaiters = new ConcurrentWaitQueue[2 * segments];
+			for (int i = 0; i < 2 * segments; i++) {
+				segmentWaiters[i] = new ConcurrentWaitQueue();
+			}
+			this.departureWaiters = new ConcurrentDepartureQueue[2 * elements.length];
+			for (int i = 0; i < elements.length; i++) {
+				if (elements[i] instanceof Station) {
+					departureWaiters[2 * i] = new ConcurrentDepartureQueue();
+					departureWaiters[2 * i + 1] = new ConcurrentDepartureQueue();
+				}
+			}
+		} else {
+			this.elementWaiters = null;
+			this.segmentWaiters = null;
+			this.departureWaiters = null;
+		}
 	}
 
 	/**
-	 * Définit la vue pour la visualisation
+	 * Retourne le tampon où sont signalés les trains déplacés, en le créant au premier
+	 * appel. Les déplacements n'y inscrivent rien tant que personne ne l'a demandé.
+	 * Il n'a qu'un seul lecteur : la vue ({@link RailwayView}), à chaque image.
 	 */
-	public void setView(RailwayView view) {
-		this.view = view;
+	PositionUpdates getPositionUpdates() {
+		PositionUpdates updates = positionUpdates;
+		if (updates == null) {
+			synchronized (trains) {
+				updates = positionUpdates;
+				if (updates == null) {
+					updates = new PositionUpdates();
+					updates.ensureCapacity(trains.size());
+					positionUpdates = updates;
+				}
+			}
+		}
+		return updates;
+	}
+
+	/**
+	 * Retourne le mode de synchronisation de la ligne
+	 */
+	public ConcurrencyMode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Retourne le stockage de l'état mutable de la ligne
+	 */
+	RailwayState getState() {
+		return state;
+	}
+
+	/**
+	 * Retourne les tables de topologie de la ligne
+	 */
+	Topology getTopology() {
+		return topology;
+	}
+
+	/**
+	 * Retourne l'analyse du nombre de trains que la ligne accueille sans interblocage
+	 * possible
+	 */
+	public FleetAnalysis getFleetAnalysis() {
+		return fleet;
+	}
+
+	/**
+	 * Active ou désactive le refus, au placement, des trains au-delà de
+	 * {@link FleetAnalysis#getMaxTrains()} (activé par défaut). À désactiver avant de
+	 * placer les trains pour étudier volontairement des flottes qui peuvent se bloquer
+	 * (mesures de débit, reprise d'un état enregistré).
+	 */
+	public void setFleetLimitEnforced(boolean enforced) {
+		this.fleetLimitEnforced = enforced;
+	}
+
+	/**
+	 * Active ou désactive les files des départs (activées par défaut) : les trains
+	 * bloqués dans une gare en partent dans l'ordre où ils ont été bloqués, et seul le
+	 * premier de chaque direction est réveillé quand la condition qui le bloque change.
+	 * Désactivées, tous les trains bloqués sur une même condition sont réveillés et le
+	 * premier à reprendre le verrou part. À choisir avant que les trains ne roulent.
+	 * En mode {@link ConcurrencyMode#LOCK_FREE}, les files sont des
+	 * {@link ConcurrentDepartureQueue} ; désactivées, les trains réveillés y tentent leur
+	 * départ par compare-and-set, sans ordre.
+	 */
+	public void setFifoDepartures(boolean fifo) {
+		this.fifoDepartures = fifo;
 	}
 
 	/**
@@ -54,10 +228,10 @@ public class Railway {
 	/**
 	 * Retourne l'index d'un élément dans la ligne
 	 * @param element l'élément à chercher
-	 * @return l'index de l'élément ou -1 s'il n'est pas trouvé
+	 * @return l'index de l'élément
 	 */
 	private int getIndex(Element element) {
-		return Arrays.asList(elements).indexOf(element);
+		return element.getIndex();
 	}
 
 	/**
@@ -67,17 +241,8 @@ public class Railway {
 	 * @return l'élément suivant ou null si on est au bout
 	 */
 	private Element getNextElement(Element current, Direction direction) {
-		int index = getIndex(current);
-		if (direction == Direction.LR) {
-			if (index + 1 < elements.length) {
-				return elements[index + 1];
-			}
-		} else {
-			if (index - 1 >= 0) {
-				return elements[index - 1];
-			}
-		}
-		return null;
+		int index = topology.next(getIndex(current), direction);
+		return index < 0 ? null : elements[index];
 	}
 
 	/**
@@ -87,13 +252,7 @@ public class Railway {
 	 * @return la nouvelle direction
 	 */
 	private Direction getNewDirection(Element nextElement, Direction currentDirection) {
-		int index = getIndex(nextElement);
-		if (index == elements.length - 1 && currentDirection == Direction.LR) {
-			return Direction.RL;
-		} else if (index == 0 && currentDirection == Direction.RL) {
-			return Direction.LR;
-		}
-		return currentDirection;
+		return topology.directionOnArrival(getIndex(nextElement), currentDirection);
 	}
 
 	/**
@@ -114,50 +273,17 @@ public class Railway {
 	 * @return la gare de destination (terminale ou intermédiaire)
 	 */
 	private Station getDestinationStation(Element currentElement, Direction direction) {
-		int startIndex = getIndex(currentElement);
-		
-		if (direction == Direction.LR) {
-			// Chercher la prochaine gare vers la droite
-			for (int i = startIndex + 1; i < elements.length; i++) {
-				if (elements[i] instanceof Station) {
-					return (Station) elements[i];
-				}
-			}
-			// Si pas trouvée, retourner la dernière (ne devrait pas arriver)
-			return (Station) elements[elements.length - 1];
-		} else {
-			// Chercher la prochaine gare vers la gauche
-			for (int i = startIndex - 1; i >= 0; i--) {
-				if (elements[i] instanceof Station) {
-					return (Station) elements[i];
-				}
-			}
-			// Si pas trouvée, retourner la première (ne devrait pas arriver)
-			return (Station) elements[0];
-		}
+		return (Station) elements[topology.destination(getIndex(currentElement), direction)];
 	}
 
 	/**
-	 * Retourne l'index du segment entre deux gares
-	 * Un segment est identifié par l'index de la gare la plus à gauche
+	 * Retourne l'index du segment emprunté en quittant une gare
 	 * @param station la gare de départ
 	 * @param direction la direction du train
 	 * @return l'index du segment
 	 */
 	private int getSegmentIndex(Element station, Direction direction) {
-		int stationIndex = getIndex(station);
-		if (direction == Direction.LR) {
-			// Le segment est identifié par la gare de gauche
-			return stationIndex;
-		} else {
-			// Trouver la gare précédente (à gauche) pour identifier le segment
-			for (int i = stationIndex - 1; i >= 0; i--) {
-				if (elements[i] instanceof Station) {
-					return i;
-				}
-			}
-			return 0;
-		}
+		return topology.departureSegment(getIndex(station), direction);
 	}
 
 	/**
@@ -169,176 +295,279 @@ public class Railway {
 	private boolean noOppositeTrainsOnSegment(int segmentIndex, Direction direction) {
 		if (direction == Direction.LR) {
 			// Vérifier s'il y a des trains allant vers la gauche sur ce segment
-			return trainsPerSegmentRL.getOrDefault(segmentIndex, 0) == 0;
+			return trainsPerSegment.get(segmentIndex, Direction.RL) == 0;
 		} else {
 			// Vérifier s'il y a des trains allant vers la droite sur ce segment
-			return trainsPerSegmentLR.getOrDefault(segmentIndex, 0) == 0;
+			return trainsPerSegment.get(segmentIndex, Direction.LR) == 0;
 		}
 	}
 
-	/**
-	 * Vérifie si un train peut quitter une gare pour entrer sur les sections
-	 * Invariant de sûreté: 
-	 * - un train ne peut pas entrer sur un segment si des trains circulent dans le sens opposé SUR CE SEGMENT
-	 * - un train ne peut pas partir si la gare de destination est pleine
-	 * @param currentElement la gare où se trouve le train
-	 * @param direction la direction dans laquelle le train veut aller
-	 * @return true si le train peut quitter la gare
-	 */
-	private boolean canLeaveStation(Element currentElement, Direction direction) {
-		// Identifier le segment que le train veut emprunter
-		int segmentIndex = getSegmentIndex(currentElement, direction);
-		
-		// Vérifier qu'aucun train ne circule en sens inverse SUR CE SEGMENT
-		boolean noOppositeTrains = noOppositeTrainsOnSegment(segmentIndex, direction);
-		
-		// Vérifier que la gare de destination a des quais disponibles
-		Station destination = getDestinationStation(currentElement, direction);
-		boolean destinationHasSpace = destination.canAccept();
-		
-		return noOppositeTrains && destinationHasSpace;
-	}
-
-	/**
-	 * Vérifie pourquoi un train ne peut pas quitter la gare (pour le message)
-	 * @param currentElement la gare actuelle
-	 * @param direction la direction du train
-	 * @return le message expliquant pourquoi le train attend
-	 */
-	private String getWaitReason(Element currentElement, Direction direction) {
-		int segmentIndex = getSegmentIndex(currentElement, direction);
-		
-		// Vérifier les trains en sens inverse sur ce segment
-		if (!noOppositeTrainsOnSegment(segmentIndex, direction)) {
-			return "trains en sens inverse sur le segment " + segmentIndex;
-		}
-		
-		// Vérifier la gare de destination
-		Station destination = getDestinationStation(currentElement, direction);
-		if (!destination.canAccept()) {
-			return "gare de destination " + destination + " pleine";
-		}
-		
-		return "raison inconnue";
-	}
-
 	/**
 	 * Enregistre l'entrée d'un train sur un segment
+	 * (le verrou du segment doit être pris ; visible dans le paquet pour les benchmarks)
 	 * @param station la gare de départ
 	 * @param direction la direction du train (LR ou RL)
 	 */
-	private void enterSegment(Element station, Direction direction) {
+	void enterSegment(Element station, Direction direction) {
 		int segmentIndex = getSegmentIndex(station, direction);
+		trainsPerSegment.increment(segmentIndex, direction);
 		
 		if (direction == Direction.LR) {
-			trainsPerSegmentLR.put(segmentIndex, trainsPerSegmentLR.getOrDefault(segmentIndex, 0) + 1);
-			trainsOnSectionsLR++;
+			trainsOnSectionsLR.incrementAndGet();
 		} else {
-			trainsPerSegmentRL.put(segmentIndex, trainsPerSegmentRL.getOrDefault(segmentIndex, 0) + 1);
-			trainsOnSectionsRL++;
+			trainsOnSectionsRL.incrementAndGet();
 		}
 	}
 
 	/**
 	 * Enregistre la sortie d'un train d'un segment
+	 * (le verrou du segment doit être pris ; visible dans le paquet pour les benchmarks)
 	 * @param station la gare d'arrivée
 	 * @param direction la direction du train (LR ou RL)
 	 */
-	private void leaveSegment(Element station, Direction direction) {
-		int segmentIndex;
+	void leaveSegment(Element station, Direction direction) {
+		// Le segment d'où vient le train
+		int segmentIndex = topology.arrivalSegment(getIndex(station), direction);
+		int remaining = trainsPerSegment.decrement(segmentIndex, direction);
 		if (direction == Direction.LR) {
-			// On arrive à une gare, le segment est celui avant cette gare
-			for (int i = getIndex(station) - 1; i >= 0; i--) {
-				if (elements[i] instanceof Station) {
-					segmentIndex = i;
-					trainsPerSegmentLR.put(segmentIndex, Math.max(0, trainsPerSegmentLR.getOrDefault(segmentIndex, 0) - 1));
-					break;
-				}
+			if (remaining == 0) {
+				// Le segment est libre vers la droite : réveiller les trains allant vers la gauche
+				wakeAll(waitingNoTrainLR[segmentIndex]);
 			}
-			trainsOnSectionsLR--;
+			trainsOnSectionsLR.decrementAndGet();
 		} else {
-			// On arrive à une gare venant de la droite
-			segmentIndex = getIndex(station);
-			trainsPerSegmentRL.put(segmentIndex, Math.max(0, trainsPerSegmentRL.getOrDefault(segmentIndex, 0) - 1));
-			trainsOnSectionsRL--;
+			if (remaining == 0) {
+				wakeAll(waitingNoTrainRL[segmentIndex]);
+			}
+			trainsOnSectionsRL.decrementAndGet();
 		}
 	}
 
 	/**
-	 * Méthode synchronisée pour déplacer un train vers l'élément suivant
-	 * 
-	 * Cette méthode implémente les règles de circulation et la prévention de l'interblocage :
-	 * - Un train attend si l'élément suivant est occupé
-	 * - Un train attend si des trains circulent en sens inverse SUR LE MÊME SEGMENT
-	 * - Un train réserve une place à la gare de destination avant de partir
-	 * - Les gares intermédiaires permettent de changer de segment (croisement)
-	 * 
-	 * @param train le train à déplacer
+	 * Prend les verrous des segments [first, last] dans l'ordre croissant.
+	 * Cet ordre fixe garantit l'absence d'interblocage entre verrous.
 	 */
-	public synchronized void move(Train train) {
-		Position currentPos = train.getPosition();
-		Element currentElement = currentPos.getPos();
-		Direction currentDirection = currentPos.getDirection();
+	private void lockSegments(int first, int last) {
+		for (int i = first; i <= last; i++) {
+			segmentLocks[i].lock();
+		}
+	}
 
-		// Calculer l'élément suivant
-		Element nextElement = getNextElement(currentElement, currentDirection);
-		
-		if (nextElement == null) {
-			// Ne devrait pas arriver car on change de direction aux extrémités
-			return;
+	/**
+	 * Relâche les verrous des segments [first, last]
+	 */
+	private void unlockSegments(int first, int last) {
+		for (int i = last; i >= first; i--) {
+			segmentLocks[i].unlock();
 		}
+	}
 
-		// Déterminer la nouvelle direction (peut changer aux extrémités)
-		Direction newDirection = getNewDirection(nextElement, currentDirection);
+	/**
+	 * Vérifie si le train peut effectuer le déplacement de currentElement vers nextElement
+	 * (les verrous protégeant les éléments concernés doivent être pris)
+	 * @return null si le déplacement est possible, sinon la file d'attente de la
+	 *         première condition non satisfaite
+	 */
+	private WaitQueue blockingQueue(Element currentElement, Direction direction, Element nextElement) {
+		if (currentElement instanceof Section && nextElement instanceof Station) {
+			// La place a été réservée au départ
+			return null;
+		}
+		if (!canEnter(nextElement)) {
+			return nextElement.getWaitQueue();
+		}
+		if (currentElement instanceof Station && nextElement instanceof Section) {
+			int segmentIndex = getSegmentIndex(currentElement, direction);
+			if (!noOppositeTrainsOnSegment(segmentIndex, direction)) {
+				return direction == Direction.LR ? waitingNoTrainRL[segmentIndex] : waitingNoTrainLR[segmentIndex];
+			}
+			Station destination = getDestinationStation(currentElement, direction);
+			if (!destination.canAccept()) {
+				return destination.getWaitQueue();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Réveille tous les trains d'une file d'attente
+	 * (le verrou protégeant l'état attendu doit être pris)
+	 */
+	private void wakeAll(WaitQueue queue) {
+		Train waiting;
+		while ((waiting = queue.poll()) != null) {
+			waker.wake(waiting);
+		}
+	}
+
+	/**
+	 * Remplace la façon de réveiller les trains bloqués (par défaut : débloquer leur thread).
+	 * Utilisé par {@link EventSimulation}, où un réveil programme un événement.
+	 */
+	void setWaker(Waker waker) {
+		if (waker == null)
+			throw new NullPointerException();
+
+		this.waker = waker;
+	}
+
+	/**
+	 * Définit le journal où sont enregistrés les événements de la ligne
+	 * (attentes, réservations, arrivées, déplacements)
+	 * @param eventLog le journal, ou null pour ne rien enregistrer
+	 */
+	public void setEventLog(EventLog eventLog) {
+		this.eventLog = eventLog;
+	}
+
+	/**
+	 * Retourne le journal des événements (null s'il n'y en a pas)
+	 */
+	public EventLog getEventLog() {
+		return eventLog;
+	}
+
+	/**
+	 * Installe les mesures d'exécution de la ligne (entrées, blocages, durées d'attente)
+	 * @param metrics les mesures, créées pour cette ligne, ou null pour ne rien mesurer
+	 */
+	public void setMetrics(RailwayMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Retourne les mesures d'exécution (null s'il n'y en a pas)
+	 */
+	public RailwayMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Installe le journal des déplacements ({@link MoveJournal#start})
+	 * @param journal le journal, ou null pour arrêter l'enregistrement
+	 */
+	void setJournal(MoveJournal journal) {
+		if (journal != null && this.journal != null)
+			throw new IllegalStateException("la ligne a déjà un journal des déplacements");
+		// Sans verrou, deux déplacements en conflit ne seraient pas numérotés dans leur ordre
+		if (journal != null && mode == ConcurrencyMode.LOCK_FREE)
+			throw new IllegalStateException("pas de journal des déplacements en mode LOCK_FREE");
+
+		this.journal = journal;
+	}
+
+	/**
+	 * Prend une entrée d'index du journal des déplacements si elle est due, toute la
+	 * ligne verrouillée (à appeler sans tenir de verrou de la ligne, après un déplacement)
+	 */
+	void snapshotJournal() {
+		MoveJournal journal = this.journal;
+		if (journal != null && journal.claimSnapshot()) {
+			lockLine();
+			try {
+				journal.snapshot(state);
+			} finally {
+				unlockLine();
+			}
+		}
+	}
+
+	/**
+	 * Enregistre un événement dans le journal s'il y en a un (sans allocation)
+	 */
+	void record(EventType type, Train train, Element element, int detail) {
+		EventLog log = eventLog;
+		if (log != null) {
+			log.record(type, train.getId(), getIndex(element), detail);
+		}
+	}
 
+	/**
+	 * Enregistre un événement concernant l'élément où se trouve le train
+	 */
+	void record(EventType type, Train train, int detail) {
+		EventLog log = eventLog;
+		if (log != null) {
+			log.record(type, train.getId(), state.trainElement(train.getId()), detail);
+		}
+	}
+
+	/**
+	 * Retourne la raison d'attente correspondant à la file où un train a été inscrit
+	 * @param blocking la file retournée par {@link #blockingQueue}
+	 */
+	private WaitReason waitReason(Element currentElement, Direction direction, Element nextElement,
+			WaitQueue blocking) {
+		if (blocking == nextElement.getWaitQueue()) {
+			return WaitReason.ELEMENT_BUSY;
+		}
+		Station destination = getDestinationStation(currentElement, direction);
+		return blocking == destination.getWaitQueue() ? WaitReason.DESTINATION_FULL : WaitReason.OPPOSITE_TRAINS;
+	}
+
+	/**
+	 * Enregistre la raison pour laquelle un train attend avant de se déplacer.
+	 * Seule la nature de la condition est enregistrée : le message n'est construit
+	 * que si un destinataire du journal le demande.
+	 */
+	private void recordWait(Train train, Element currentElement, Direction direction, Element nextElement,
+			WaitReason reason) {
+		if (eventLog == null) {
+			return;
+		}
+		// L'élément attendu, ou la gare et la destination (ou le segment) qui bloquent
+		Element element = currentElement;
+		int detail;
+		switch (reason) {
+		case ELEMENT_BUSY:
+			element = nextElement;
+			detail = 0;
+			break;
+		case DESTINATION_FULL:
+			detail = topology.destination(getIndex(currentElement), direction);
+			break;
+		default:
+			detail = getSegmentIndex(currentElement, direction);
+		}
+		record(reason.getEventType(), train, element, detail);
+	}
+
+	/**
+	 * Effectue le déplacement (les conditions de {@link #blockingQueue} doivent être vérifiées)
+	 */
+	private void applyMove(Train train, Element currentElement, Direction currentDirection,
+			Element nextElement, Direction newDirection) {
 		// CAS 1: Le train est dans une gare et veut entrer dans une section
 		if (currentElement instanceof Station && nextElement instanceof Section) {
-			// Attendre que:
-			// 1. La section soit libre
-			// 2. Aucun train ne circule dans le sens opposé (prévention deadlock) - sauf pour gare intermédiaire
-			// 3. La gare de destination a des quais disponibles (non réservés)
-			while (!canEnter(nextElement) || !canLeaveStation(currentElement, currentDirection)) {
-				try {
-					if (!canLeaveStation(currentElement, currentDirection)) {
-						System.out.println(train + " attend en gare (" + getWaitReason(currentElement, currentDirection) + ")");
-					} else {
-						System.out.println(train + " attend pour entrer dans " + nextElement);
-					}
-					wait();
-				} catch (InterruptedException e) {
-					Thread.currentThread().interrupt();
-					return;
-				}
-			}
-			
 			// RÉSERVER une place à la gare de destination AVANT de partir
 			Station destination = getDestinationStation(currentElement, currentDirection);
 			destination.reserveSpot();
-			System.out.println(train + " réserve une place à " + destination + 
-					" (disponibles: " + destination.getAvailableSpots() + "/" + destination.getSize() + ")");
+			record(EventType.SPOT_RESERVED, train, destination, destination.getAvailableSpots());
+			if (FlightRecorder.isInitialized()) {
+				TrainEvents.reserve(train, destination);
+			}
 			
 			// Quitter la gare
 			currentElement.leave();
+			wakeAll(currentElement.getWaitQueue());
 			// Entrer dans la section
 			nextElement.enter();
 			// Enregistrer le train sur le segment
 			enterSegment(currentElement, currentDirection);
+			if (metrics != null) {
+				metrics.enteredSegment(getSegmentIndex(currentElement, currentDirection));
+			}
+			// Passer son tour au suivant de la file des départs
+			DepartureQueue departures = ((Station) currentElement).getDepartureQueue(currentDirection);
+			if (departures.remove(train)) {
+				promote(departures, currentElement, currentDirection, nextElement);
+			}
 		}
 		// CAS 2: Le train est dans une section et va vers une autre section
 		else if (currentElement instanceof Section && nextElement instanceof Section) {
-			// Attendre que la section suivante soit libre
-			while (!canEnter(nextElement)) {
-				try {
-					System.out.println(train + " attend pour entrer dans " + nextElement);
-					wait();
-				} catch (InterruptedException e) {
-					Thread.currentThread().interrupt();
-					return;
-				}
-			}
-			
 			// Quitter la section actuelle
 			currentElement.leave();
+			wakeAll(currentElement.getWaitQueue());
 			// Entrer dans la nouvelle section
 			nextElement.enter();
 			// Note: le train reste comptabilisé dans la même direction
@@ -351,6 +580,7 @@ public class Railway {
 			
 			// Quitter la section
 			currentElement.leave();
+			wakeAll(currentElement.getWaitQueue());
 			// Décompter le train du segment
 			leaveSegment(nextElement, currentDirection);
 			// Consommer la réservation (la transformer en occupation réelle)
@@ -358,65 +588,794 @@ public class Railway {
 			// Entrer dans la gare
 			nextElement.enter();
 			
-			System.out.println(train + " arrive à " + arrivalStation + 
-					" (occupés: " + arrivalStation.getTrainCount() + "/" + arrivalStation.getSize() + ")");
+			record(EventType.TRAIN_ARRIVED, train, arrivalStation, arrivalStation.getTrainCount());
+			if (FlightRecorder.isInitialized()) {
+				TrainEvents.arrive(train, arrivalStation);
+			}
 		}
 		// CAS 4: Gare à gare (ne devrait pas arriver dans cette configuration)
 		else {
-			while (!canEnter(nextElement)) {	
-				try {
-					wait();
-				} catch (InterruptedException e) {
-					Thread.currentThread().interrupt();
-					return;
-				}
-			}
 			currentElement.leave();
+			wakeAll(currentElement.getWaitQueue());
 			nextElement.enter();
 		}
 		
+		finishMove(train, currentElement, nextElement, newDirection);
+	}
+
+	/**
+	 * Termine un déplacement dont l'état des éléments et segments est à jour : position
+	 * du train, journal, mesures, événements et signalement à la vue
+	 */
+	private void finishMove(Train train, Element currentElement, Element nextElement, Direction newDirection) {
 		// Mettre à jour la position du train
-		Position newPos = new Position(nextElement, newDirection);
-		train.setPosition(newPos);
+		state.moveTrain(train.getId(), getIndex(nextElement), newDirection);
+		if (journal != null) {
+			journal.record(train.getId());
+		}
+		if (metrics != null) {
+			metrics.moved(getIndex(nextElement));
+		}
+		if (FlightRecorder.isInitialized()) {
+			TrainEvents.move(train, currentElement, nextElement, newDirection);
+		}
+
+		// Signaler le déplacement à la vue, sans verrou : elle relira la position à la prochaine image
+		PositionUpdates updates = positionUpdates;
+		if (updates != null) {
+			updates.publish(train.getId());
+		}
+	}
+
+	/**
+	 * Déplace un train vers l'élément suivant
+	 * 
+	 * Cette méthode implémente les règles de circulation et la prévention de l'interblocage :
+	 * - Un train attend si l'élément suivant est occupé
+	 * - Un train attend si des trains circulent en sens inverse SUR LE MÊME SEGMENT
+	 * - Un train réserve une place à la gare de destination avant de partir
+	 * - Les gares intermédiaires permettent de changer de segment (croisement)
+	 * 
+	 * La synchronisation dépend du {@link ConcurrencyMode} de la ligne. Un train bloqué
+	 * s'inscrit dans la file d'attente de la condition qui l'empêche d'avancer, relâche
+	 * les verrous et se suspend jusqu'à ce que cette condition puisse avoir changé.
+	 * 
+	 * @param train le train à déplacer
+	 * @return true si le train s'est déplacé, false si son thread a été interrompu
+	 *         pendant l'attente (le train n'a pas bougé)
+	 */
+	public boolean move(Train train) {
+		RailwayMetrics metrics = this.metrics;
+		// Attente en cours : du premier blocage au déplacement, quels que soient les réveils
+		WaitReason waitReason = null;  // Raison du premier blocage (null : pas encore bloqué)
+		int waitElement = 0;  // Élément où le train attend
+		long waitStart = 0;  // Date du premier blocage (mesurée seulement avec des mesures installées)
+		TrainEvents.Wait waitEvent = null;  // Événement JFR (null : non enregistré)
+		int wakeupCount = 0;
+		while (true) {
+			if (attemptMove(train)) {
+				if (waitReason != null) {
+					if (metrics != null) {
+						metrics.waited(waitReason, waitElement, System.nanoTime() - waitStart);
+					}
+					if (waitEvent != null) {
+						TrainEvents.endWait(waitEvent, train, elements[waitElement], waitReason, wakeupCount, false);
+					}
+				}
+				return true;
+			}
+			if (waitReason != null) {
+				spuriousWakeups.increment();
+			} else {
+				waitReason = train.getWaitReason();
+				waitElement = state.trainElement(train.getId());
+				if (metrics != null) {
+					waitStart = System.nanoTime();
+				}
+				if (FlightRecorder.isInitialized()) {
+					waitEvent = TrainEvents.beginWait();
+				}
+			}
+			// Inscrit dans une file d'attente : attendre d'être réveillé
+			LockSupport.park(this);
+			if (Thread.currentThread().isInterrupted()) {
+				// Une éventuelle inscription restante ne provoquera qu'un réveil sans effet ;
+				// une place dans une file des départs bloquerait les trains suivants
+				abandonDeparture(train);
+				if (waitEvent != null) {
+					TrainEvents.endWait(waitEvent, train, elements[waitElement], waitReason, wakeupCount, true);
+				}
+				return false;
+			}
+			wakeups.increment();
+			wakeupCount++;
+		}
+	}
+
+	/**
+	 * Une seule tentative de déplacement, avec la synchronisation du mode de la ligne,
+	 * sans attendre. Si le train est bloqué, il reste inscrit dans une file d'attente :
+	 * le réveil qui suivra sera sans effet si l'appelant ne se suspend pas.
+	 * @param train le train à déplacer
+	 * @return true si le train s'est déplacé
+	 */
+	boolean attemptMove(Train train) {
+		switch (mode) {
+		case SEGMENT:
+			return tryMoveWithSegmentLocks(train);
+		case LOCK_FREE:
+			return tryMoveLockFree(train);
+		default:
+			return tryMoveWithGlobalLock(train);
+		}
+	}
+
+	/**
+	 * Tentative de déplacement en mode GLOBAL : un seul verrou pour toute la ligne
+	 * @return true si le train s'est déplacé, false s'il a été inscrit dans une file d'attente
+	 */
+	private boolean tryMoveWithGlobalLock(Train train) {
+		boolean moved;
+		globalLock.lock();
+		try {
+			moved = tryMove(train);
+		} finally {
+			globalLock.unlock();
+		}
+		if (moved && journal != null) {
+			snapshotJournal();
+		}
+		return moved;
+	}
+
+	/**
+	 * Tente de déplacer un train vers l'élément suivant, sans attendre ni verrouiller.
+	 * L'appelant garantit l'exclusion mutuelle sur les éléments concernés (verrou de
+	 * la ligne, verrous des segments, ou simulation à événements discrets sur un seul
+	 * thread). Si le déplacement est impossible, le train est inscrit dans la file
+	 * d'attente de la condition qui le bloque et sera signalé au {@link Waker}.
+	 * @param train le train à déplacer
+	 * @return true si le train s'est déplacé, false s'il a été inscrit dans une file d'attente
+	 */
+	boolean tryMove(Train train) {
+		int id = train.getId();
+		Element currentElement = elements[state.trainElement(id)];
+		Direction currentDirection = state.trainDirection(id);
+
+		// Calculer l'élément suivant
+		Element nextElement = getNextElement(currentElement, currentDirection);
+		
+		if (nextElement == null) {
+			// Ne devrait pas arriver car on change de direction aux extrémités
+			return true;
+		}
+
+		// Déterminer la nouvelle direction (peut changer aux extrémités)
+		Direction newDirection = getNewDirection(nextElement, currentDirection);
+
+		// Attendre que:
+		// 1. L'élément suivant soit libre
+		// 2. Aucun train ne circule dans le sens opposé sur le segment (depuis une gare)
+		// 3. La gare de destination a des quais disponibles (non réservés)
+		// 4. Au départ d'une gare, aucun train ne soit bloqué avant lui dans la même direction
+		DepartureQueue departures = null;
+		if (fifoDepartures && currentElement instanceof Station && nextElement instanceof Section) {
+			departures = ((Station) currentElement).getDepartureQueue(currentDirection);
+			Train first = departures.peek();
+			if (first != null && first != train) {
+				// Même conditions que le premier : attendre son départ, sans s'inscrire ailleurs
+				blocked(train, currentElement, currentDirection, nextElement, first.getWaitReason());
+				train.setWaitingThread(Thread.currentThread());
+				departures.add(train);
+				return false;
+			}
+		}
+		WaitQueue blocking = blockingQueue(currentElement, currentDirection, nextElement);
+		if (blocking != null) {
+			blocked(train, currentElement, currentDirection, nextElement,
+					waitReason(currentElement, currentDirection, nextElement, blocking));
+			if (departures != null) {
+				departures.add(train);
+			}
+			block(train, blocking);
+			return false;
+		}
+
+		// Encore inscrit après un réveil parasite : la file est protégée par les mêmes verrous
+		WaitQueue stale = train.getWaitQueue();
+		if (stale != null) {
+			stale.remove(train);
+		}
+		applyMove(train, currentElement, currentDirection, nextElement, newDirection);
+		return true;
+	}
+
+	/**
+	 * Déplace un train si aucune condition ne le bloque, sans l'inscrire dans une file
+	 * d'attente : les règles de {@link #tryMove} appliquées à un état quelconque, pour
+	 * l'exploration des états de {@link ModelChecker} (ligne propre au thread appelant)
+	 * @return true si le train s'est déplacé
+	 */
+	boolean moveIfFree(Train train) {
+		int id = train.getId();
+		Element currentElement = elements[state.trainElement(id)];
+		Direction currentDirection = state.trainDirection(id);
+		Element nextElement = getNextElement(currentElement, currentDirection);
+		if (nextElement == null || blockingQueue(currentElement, currentDirection, nextElement) != null) {
+			return false;
+		}
+		applyMove(train, currentElement, currentDirection, nextElement, getNewDirection(nextElement, currentDirection));
+		return true;
+	}
+
+	/**
+	 * Tentative de déplacement en mode SEGMENT : chaque segment a son propre verrou.
+	 * 
+	 * Le déplacement prend, dans l'ordre croissant, les verrous de tous les segments
+	 * bordant les éléments qu'il modifie : un seul pour un déplacement à l'intérieur
+	 * d'un segment, les deux segments de part et d'autre d'une gare quand on la quitte
+	 * ou qu'on y arrive (ainsi que ceux de la gare de destination, dont on modifie les
+	 * réservations). Les files d'attente consultées sont donc protégées par ces verrous.
+	 * 
+	 * @return true si le train s'est déplacé, false s'il a été inscrit dans une file d'attente
+	 */
+	private boolean tryMoveWithSegmentLocks(Train train) {
+		// Seul le thread du train modifie sa position : lecture sans verrou
+		int id = train.getId();
+		Element currentElement = elements[state.trainElement(id)];
+		Direction currentDirection = state.trainDirection(id);
+
+		Element nextElement = getNextElement(currentElement, currentDirection);
+		if (nextElement == null) {
+			return true;
+		}
+
+		// Segments à verrouiller (intervalle contigu)
+		int currentIndex = getIndex(currentElement);
+		int nextIndex = getIndex(nextElement);
+		int first = Math.min(topology.firstSegment(currentIndex), topology.firstSegment(nextIndex));
+		int last = Math.max(topology.lastSegment(currentIndex), topology.lastSegment(nextIndex));
+		if (currentElement instanceof Station && nextElement instanceof Section) {
+			int destinationIndex = topology.destination(currentIndex, currentDirection);
+			first = Math.min(first, topology.firstSegment(destinationIndex));
+			last = Math.max(last, topology.lastSegment(destinationIndex));
+		}
+
+		boolean moved;
+		lockSegments(first, last);
+		try {
+			moved = tryMove(train);
+		} finally {
+			unlockSegments(first, last);
+		}
+		if (moved && journal != null) {
+			snapshotJournal();
+		}
+		return moved;
+	}
+
+	/**
+	 * Tentative de déplacement en mode LOCK_FREE, sans aucun verrou.
+	 *
+	 * Chaque condition porte sur un seul mot atomique ({@link RailwayState},
+	 * {@link SegmentCounters}), pris par compare-and-set. Au départ d'une gare, le train
+	 * prend dans l'ordre le segment (aucun train en sens inverse), une place dans la gare
+	 * de destination, puis la section suivante ; si l'une manque, il rend celles déjà
+	 * prises en réveillant les trains qu'elles ont pu bloquer entre-temps. Un train
+	 * bloqué s'inscrit dans la file de la condition manquante puis essaie encore une
+	 * fois : une libération survenue avant son inscription n'est pas manquée (voir
+	 * {@link ConcurrentWaitQueue}).
+	 *
+	 * Comme avec les verrous, les trains qui ne peuvent pas quitter une gare se rangent
+	 * dans sa file des départs ({@link ConcurrentDepartureQueue}) : seul le premier
+	 * tente son départ et s'inscrit dans la file de la condition qui le bloque.
+	 *
+	 * @return true si le train s'est déplacé, false s'il a été inscrit dans une file d'attente
+	 */
+	private boolean tryMoveLockFree(Train train) {
+		// Seul le thread du train modifie sa position : lecture sans synchronisation
+		int id = train.getId();
+		int current = state.trainElement(id);
+		Direction direction = state.trainDirection(id);
+		int next = topology.next(current, direction);
+		if (next < 0) {
+			return true;
+		}
+
+		ConcurrentDepartureQueue departures = null;
+		if (fifoDepartures && topology.isStation(current) && !topology.isStation(next)) {
+			departures = departureWaiters[2 * current + direction.ordinal()];
+			Train first = departures.peek();
+			if (first != null && first != train && waitForTurn(train, departures, first, current, direction, next)) {
+				return false;
+			}
+		}
+		ConcurrentWaitQueue registered = null;
+		while (true) {
+			WaitReason reason = acquire(current, direction, next);
+			if (reason == null) {
+				// Inscription devenue inutile (la sienne, ou celle faite par le train parti
+				// avant lui) : un réveil à venir la trouvera retirée
+				ConcurrentWaitQueue parked = train.getParkedOn();
+				if (parked != null) {
+					train.clearParkedOn(parked);
+				}
+				commit(train, current, direction, next);
+				if (departures != null) {
+					passDeparture(departures.remove(train), next);
+				}
+				return true;
+			}
+			if (departures != null && registered == null) {
+				// Bloqué : se ranger dans la file des départs, derrière un éventuel premier
+				// (la raison est lue par les trains qui se rangeront derrière lui)
+				train.setWaitReason(reason);
+				train.setWaitingThread(Thread.currentThread());
+				departures.add(train);
+				Train first = departures.peek();
+				if (first != train && waitForTurn(train, departures, first, current, direction, next)) {
+					return false;
+				}
+			}
+			ConcurrentWaitQueue queue = reason == WaitReason.OPPOSITE_TRAINS
+					? segmentWaiters[2 * topology.departureSegment(current, direction) + 1 - direction.ordinal()]
+					: elementWaiters[reason == WaitReason.ELEMENT_BUSY ? next : topology.destination(current, direction)];
+			if (queue == registered) {
+				blocked(train, elements[current], direction, elements[next], reason);
+				return false;
+			}
+			train.setWaitingThread(Thread.currentThread());
+			queue.add(train);
+			registered = queue;
+		}
+	}
+
+	/**
+	 * Passe la tête d'une file des départs au train suivant, juste après un départ (mode
+	 * LOCK_FREE). La section que le train parti vient de prendre est celle que le
+	 * nouveau premier doit prendre : il est inscrit directement dans sa file d'attente
+	 * plutôt que réveillé pour rien, puis réveillé si elle s'est libérée entre-temps.
+	 * @param first le nouveau premier (null si la file est vide)
+	 * @param section la section suivante de la gare dans cette direction
+	 */
+	private void passDeparture(Train first, int section) {
+		if (first == null) {
+			return;
+		}
+		ConcurrentWaitQueue queue = elementWaiters[section];
+		if (!queue.addWaiting(first)) {
+			// Il attend déjà une condition, ou s'est inscrit lui-même : le laisser décider
+			waker.wake(first);
+		} else if (RailwayState.trains(state.elementWord(section)) == 0 && first.clearParkedOn(queue)) {
+			waker.wake(first);
+		}
+	}
+
+	/**
+	 * Range un train derrière le premier de la file des départs de sa gare (mode
+	 * LOCK_FREE), avec les mêmes conditions que lui : il sera réveillé quand il deviendra
+	 * premier. Vérifie ensuite qu'il ne l'est pas devenu entre-temps.
+	 * @param first le premier train constaté dans la file
+	 * @return true si le train doit attendre son tour, false s'il est devenu premier
+	 */
+	private boolean waitForTurn(Train train, ConcurrentDepartureQueue departures, Train first, int current,
+			Direction direction, int next) {
+		blocked(train, elements[current], direction, elements[next], first.getWaitReason());
+		train.setWaitingThread(Thread.currentThread());
+		departures.add(train);
+		return departures.peek() != train;
+	}
+
+	/**
+	 * Prend, par compare-and-set, tout ce qu'il faut pour déplacer un train d'un élément
+	 * au suivant (mode LOCK_FREE)
+	 * @return null si tout est pris, sinon la condition manquante (rien n'est alors pris)
+	 */
+	private WaitReason acquire(int current, Direction direction, int next) {
+		if (topology.isStation(next)) {
+			if (topology.isStation(current)) {
+				// Gare à gare (ne devrait pas arriver dans cette configuration)
+				return state.tryAdmit(next, capacity(next)) ? null : WaitReason.ELEMENT_BUSY;
+			}
+			// La place a été réservée au départ
+			return null;
+		}
+		if (!topology.isStation(current)) {
+			return state.tryOccupy(next) ? null : WaitReason.ELEMENT_BUSY;
+		}
+		// Conditions d'abord constatées sans rien prendre : renoncer à une prise réveillerait
+		// pour rien les trains qu'elle a bloqués entre-temps
+		int segment = topology.departureSegment(current, direction);
+		int destination = topology.destination(current, direction);
+		if (RailwayState.trains(state.elementWord(next)) != 0) {
+			return WaitReason.ELEMENT_BUSY;
+		}
+		if (trainsPerSegment.hasTrains(segment, direction == Direction.LR ? Direction.RL : Direction.LR)) {
+			return WaitReason.OPPOSITE_TRAINS;
+		}
+		long word = state.elementWord(destination);
+		if (RailwayState.trains(word) + RailwayState.reserved(word) >= capacity(destination)) {
+			return WaitReason.DESTINATION_FULL;
+		}
+		if (!trainsPerSegment.tryEnter(segment, direction)) {
+			return WaitReason.OPPOSITE_TRAINS;
+		}
+		if (!state.tryReserve(destination, capacity(destination))) {
+			leaveSegmentLockFree(segment, direction);
+			return WaitReason.DESTINATION_FULL;
+		}
+		if (!state.tryOccupy(next)) {
+			state.cancelReservation(destination);
+			elementWaiters[destination].wakeAll(waker);
+			leaveSegmentLockFree(segment, direction);
+			return WaitReason.ELEMENT_BUSY;
+		}
+		return null;
+	}
+
+	/**
+	 * Termine un déplacement dont {@link #acquire} a tout pris (mode LOCK_FREE) : libère
+	 * l'élément quitté et réveille les trains qui l'attendaient
+	 */
+	private void commit(Train train, int current, Direction direction, int next) {
+		Element currentElement = elements[current];
+		Element nextElement = elements[next];
+		if (topology.isStation(current)) {
+			if (!topology.isStation(next)) {
+				Station destination = getDestinationStation(currentElement, direction);
+				record(EventType.SPOT_RESERVED, train, destination, destination.getAvailableSpots());
+				if (FlightRecorder.isInitialized()) {
+					TrainEvents.reserve(train, destination);
+				}
+				(direction == Direction.LR ? trainsOnSectionsLR : trainsOnSectionsRL).incrementAndGet();
+				if (metrics != null) {
+					metrics.enteredSegment(topology.departureSegment(current, direction));
+				}
+			}
+			state.depart(current);
+		} else {
+			if (topology.isStation(next)) {
+				state.arrive(next);
+			}
+			state.release(current);
+		}
+		elementWaiters[current].wakeAll(waker);
+		if (topology.isStation(next) && !topology.isStation(current)) {
+			leaveSegmentLockFree(topology.arrivalSegment(next, direction), direction);
+			(direction == Direction.LR ? trainsOnSectionsLR : trainsOnSectionsRL).decrementAndGet();
+			Station arrivalStation = (Station) nextElement;
+			record(EventType.TRAIN_ARRIVED, train, arrivalStation, arrivalStation.getTrainCount());
+			if (FlightRecorder.isInitialized()) {
+				TrainEvents.arrive(train, arrivalStation);
+			}
+		}
+		finishMove(train, currentElement, nextElement, topology.directionOnArrival(next, direction));
+	}
 
-		// Mettre à jour la vue si elle existe
-		if (view != null) {
-			view.updateTrainPosition(train, currentElement, nextElement);
+	/**
+	 * Décompte un train d'un segment (mode LOCK_FREE) ; s'il n'en reste plus dans sa
+	 * direction, réveille les trains qui attendaient de partir en sens inverse
+	 */
+	private void leaveSegmentLockFree(int segment, Direction direction) {
+		if (trainsPerSegment.leave(segment, direction) == 0) {
+			segmentWaiters[2 * segment + direction.ordinal()].wakeAll(waker);
 		}
+	}
 
-		// Notifier tous les threads en attente qu'un changement a eu lieu
-		notifyAll();
+	/**
+	 * Retourne le nombre de places d'un élément (quais d'une gare, 1 pour une section)
+	 */
+	private int capacity(int index) {
+		return topology.isStation(index) ? ((Station) elements[index]).getSize() : 1;
+	}
+
+	/**
+	 * Enregistre la raison d'un blocage (train, journal, mesures)
+	 */
+	private void blocked(Train train, Element currentElement, Direction direction, Element nextElement,
+			WaitReason reason) {
+		train.setWaitReason(reason);
+		recordWait(train, currentElement, direction, nextElement, reason);
+		if (metrics != null) {
+			metrics.blocked(reason, getIndex(currentElement), reason == WaitReason.OPPOSITE_TRAINS
+					? getSegmentIndex(currentElement, direction) : -1);
+		}
+	}
+
+	/**
+	 * Donne la tête d'une file des départs au train suivant : s'il est bloqué, il est
+	 * inscrit directement dans la file d'attente de la condition qui le bloque (sans
+	 * réveil inutile) ; sinon il est réveillé. Les verrous de la gare doivent être pris.
+	 */
+	private void promote(DepartureQueue departures, Element station, Direction direction, Element nextElement) {
+		Train next = departures.peek();
+		if (next == null) {
+			return;
+		}
+		WaitQueue blocking = blockingQueue(station, direction, nextElement);
+		if (blocking != null) {
+			next.setWaitReason(waitReason(station, direction, nextElement, blocking));
+			blocking.add(next);
+		} else {
+			waker.wake(next);
+		}
+	}
+
+	/**
+	 * Retire un train arrêté de la file des départs où il attend son tour, en passant
+	 * la tête au suivant s'il était premier. Appelé par le thread du train (seul à le
+	 * ranger dans une file des départs ou à l'en retirer).
+	 */
+	private void abandonDeparture(Train train) {
+		ConcurrentDepartureQueue concurrentDepartures = train.getConcurrentDepartureQueue();
+		if (concurrentDepartures != null) {
+			Train first = concurrentDepartures.remove(train);
+			if (first != null) {
+				waker.wake(first);
+			}
+			return;
+		}
+		DepartureQueue departures = train.getDepartureQueue();
+		if (departures == null) {
+			return;
+		}
+		int index = state.trainElement(train.getId());
+		Element station = elements[index];
+		Direction direction = state.trainDirection(train.getId());
+		if (mode == ConcurrencyMode.SEGMENT) {
+			lockSegments(topology.firstSegment(index), topology.lastSegment(index));
+		} else {
+			globalLock.lock();
+		}
+		try {
+			if (departures.remove(train)) {
+				promote(departures, station, direction, getNextElement(station, direction));
+			}
+		} finally {
+			if (mode == ConcurrencyMode.SEGMENT) {
+				unlockSegments(topology.firstSegment(index), topology.lastSegment(index));
+			} else {
+				globalLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Inscrit le train courant dans une file d'attente
+	 * (le verrou protégeant l'état attendu doit être pris)
+	 */
+	private void block(Train train, WaitQueue queue) {
+		train.setWaitingThread(Thread.currentThread());
+		queue.add(train);
+	}
+
+	/**
+	 * Retourne le nombre de réveils de trains en attente
+	 */
+	public long getWakeups() {
+		return wakeups.sum();
+	}
+
+	/**
+	 * Retourne le nombre de réveils inutiles : le train réveillé n'a toujours
+	 * pas pu se déplacer et s'est rendormi
+	 */
+	public long getSpuriousWakeups() {
+		return spuriousWakeups.sum();
 	}
 
 	/**
 	 * Retourne le nombre de trains sur les se	ctions allant vers la droite
 	 */
 	public int getTrainsOnSectionsLR() {
-		return trainsOnSectionsLR;
+		return trainsOnSectionsLR.get();
 	}
 
 	/**
 	 * Retourne le nombre de trains sur les sections allant vers la gauche
 	 */
 	public int getTrainsOnSectionsRL() {
-		return trainsOnSectionsRL;
+		return trainsOnSectionsRL.get();
 	}
 
 	/**
 	 * Place un train sur un élément initial (doit être une gare)
 	 * @param train le train à placer
 	 * @param station la gare où placer le train
-	 * @throws BadPositionForTrainException si la gare ne peut pas accueillir le train
+	 * @throws BadPositionForTrainException si la gare ne peut pas accueillir le train,
+	 *         si sa direction sort de la ligne, ou si un train de plus pourrait bloquer la ligne (voir {@link FleetAnalysis})
+	 */
+	public void placeTrainAtStation(Train train, Station station) throws BadPositionForTrainException {
+		if (mode == ConcurrencyMode.SEGMENT) {
+			int index = getIndex(station);
+			lockSegments(topology.firstSegment(index), topology.lastSegment(index));
+			try {
+				placeTrain(train, station);
+			} finally {
+				unlockSegments(topology.firstSegment(index), topology.lastSegment(index));
+			}
+		} else {
+			globalLock.lock();
+			try {
+				placeTrain(train, station);
+			} finally {
+				globalLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Place un lot de trains, créés sans être placés, en prenant une seule fois la
+	 * synchronisation de la ligne (tous les verrous de segments en mode SEGMENT).
+	 * Chaque gare est vérifiée comme par {@link #placeTrainAtStation} ; en cas d'échec,
+	 * les trains qui précèdent dans le lot restent placés.
+	 * @param trains les trains, dans l'ordre où ils reçoivent leur identifiant
+	 * @param stations la gare de chaque train (de cette ligne)
+	 * @param count le nombre de trains du lot (début des tableaux)
+	 * @throws BadPositionForTrainException si une gare ne peut pas accueillir son train
+	 */
+	void placeTrainsAtStations(Train[] trains, Station[] stations, int count) throws BadPositionForTrainException {
+		lockLine();
+		try {
+			for (int i = 0; i < count; i++) {
+				placeTrain(trains[i], stations[i]);
+			}
+		} finally {
+			unlockLine();
+		}
+	}
+
+	/**
+	 * Prend la synchronisation de toute la ligne : le verrou global, ou tous les
+	 * verrous de segments dans l'ordre croissant. Plus aucun déplacement n'est en cours,
+	 * sauf en mode LOCK_FREE, où le verrou global ne sépare que les placements de trains.
+	 */
+	private void lockLine() {
+		if (mode == ConcurrencyMode.SEGMENT) {
+			lockSegments(0, segmentLocks.length - 1);
+		} else {
+			globalLock.lock();
+		}
+	}
+
+	private void unlockLine() {
+		if (mode == ConcurrencyMode.SEGMENT) {
+			unlockSegments(0, segmentLocks.length - 1);
+		} else {
+			globalLock.unlock();
+		}
+	}
+
+	/**
+	 * Copie l'état de la ligne dans un tampon ({@link RailwayState#save}), toute la ligne
+	 * verrouillée : la copie est cohérente, les trains en mouvement attendent la fin de
+	 * la copie. Avec une {@link EventSimulation}, appeler entre deux {@code run}.
 	 */
-	public synchronized void placeTrainAtStation(Train train, Station station) throws BadPositionForTrainException {
+	void saveState(ByteBuffer out) {
+		if (mode == ConcurrencyMode.LOCK_FREE)
+			throw new IllegalStateException("pas de copie cohérente de l'état en mode LOCK_FREE");
+
+		lockLine();
+		try {
+			state.save(out);
+		} finally {
+			unlockLine();
+		}
+	}
+
+	/**
+	 * Remplace l'état de la ligne par celui d'un tampon écrit par {@link #saveState}.
+	 * Les trains ne doivent pas rouler (aucun train en attente) : ils reprendront depuis
+	 * les positions restaurées.
+	 */
+	void restoreState(ByteBuffer in) {
+		lockLine();
+		try {
+			state.restore(in);
+			// Compteurs globaux recalculés à partir des segments
+			int lr = 0;
+			int rl = 0;
+			for (int segment = 0; segment < trainsPerSegment.segmentCount(); segment++) {
+				lr += trainsPerSegment.get(segment, Direction.LR);
+				rl += trainsPerSegment.get(segment, Direction.RL);
+			}
+			trainsOnSectionsLR.set(lr);
+			trainsOnSectionsRL.set(rl);
+		} finally {
+			unlockLine();
+		}
+		PositionUpdates updates = positionUpdates;
+		if (updates != null) {
+			updates.invalidateAll();
+		}
+	}
+
+	private void placeTrain(Train train, Station station) throws BadPositionForTrainException {
 		if (!station.canAccept()) {
 			throw new BadPositionForTrainException(train.getName() + " - la gare " + station + " est pleine");
 		}
-		station.enter();
-		
-		// Mettre à jour la vue si elle existe
-		if (view != null) {
-			view.placeTrainInitially(train, station);
+		if (topology.next(getIndex(station), train.getInitialDirection()) < 0) {
+			throw new BadPositionForTrainException(train.getName() + " - aucun élément après la gare " + station
+					+ " en direction " + train.getInitialDirection().name());
+		}
+		if (fleetLimitEnforced && !fleet.isSafe(getTrainCount() + 1)) {
+			throw new BadPositionForTrainException(train.getName() + " - la ligne accueille " + fleet
+					+ " sans risque d'interblocage ; la gare " + station + " et ses voisines en accueillent "
+					+ fleet.getStationLimit(getIndex(station)));
+		}
+		if (mode == ConcurrencyMode.LOCK_FREE) {
+			// Des trains peuvent rouler : la place est prise par compare-and-set
+			if (!state.tryAdmit(getIndex(station), station.getSize())) {
+				throw new BadPositionForTrainException(train.getName() + " - la gare " + station + " est pleine");
+			}
+		} else {
+			station.enter();
+		}
+		synchronized (trains) {
+			train.setId(state.addTrain(getIndex(station), train.getInitialDirection()));
+			trains.add(train);
+			if (positionUpdates != null) {
+				positionUpdates.ensureCapacity(trains.size());
+			}
+		}
+		// La vue découvre les nouveaux trains à la prochaine image (voir getTrainCount)
+	}
+
+	/**
+	 * Retourne la position unique (partagée) correspondant à un élément de la ligne et
+	 * une direction. Les positions retournées par la ligne, dont {@link Train#getPosition()},
+	 * proviennent toutes de cette table : deux d'entre elles sont égales si et seulement
+	 * si elles sont identiques (==), et les obtenir n'alloue rien.
+	 * @param element un élément de cette ligne
+	 * @param direction la direction
+	 * @return la position partagée
+	 */
+	public Position getPosition(Element element, Direction direction) {
+		if (element.getRailway() != this)
+			throw new IllegalArgumentException(element + " n'appartient pas à cette ligne");
+
+		return positions[2 * getIndex(element) + direction.ordinal()];
+	}
+
+	/**
+	 * Retourne la position d'un train, lue dans le stockage de la ligne (sans allocation)
+	 * @param train un train placé sur cette ligne
+	 */
+	Position getTrainPosition(Train train) {
+		int id = train.getId();
+		return positions[2 * state.trainElement(id) + state.trainDirection(id).ordinal()];
+	}
+
+	/**
+	 * Modifie directement la position d'un train (sans règle de circulation)
+	 * @param train un train placé sur cette ligne
+	 * @param position sa nouvelle position, sur un élément de cette ligne
+	 */
+	void setTrainPosition(Train train, Position position) {
+		Element element = position.getPos();
+		if (element.getRailway() != this)
+			throw new IllegalArgumentException(element + " n'appartient pas à cette ligne");
+
+		state.moveTrain(train.getId(), getIndex(element), position.getDirection());
+	}
+
+	/**
+	 * Retourne un train à partir de son identifiant
+	 * @param id l'identifiant attribué au placement du train ({@link Train#getId()})
+	 * @return le train
+	 */
+	public Train getTrain(int id) {
+		synchronized (trains) {
+			return trains.get(id);
+		}
+	}
+
+	/**
+	 * Retourne le nombre de trains placés sur la ligne
+	 */
+	public int getTrainCount() {
+		synchronized (trains) {
+			return trains.size();
 		}
 	}
 
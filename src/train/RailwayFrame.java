@@ -22,9 +22,12 @@ public class RailwayFrame extends JFrame {
         titleLabel.setBorder(BorderFactory.createEmptyBorder(10, 0, 10, 0));
         add(titleLabel, BorderLayout.NORTH);
         
-        // Vue de la ligne
+        // Vue de la ligne, qui défile horizontalement (Ctrl + molette pour zoomer)
         railwayView = new RailwayView(railway, elements);
-        add(railwayView, BorderLayout.CENTER);
+        JScrollPane scrollPane = new JScrollPane(railwayView,
+                ScrollPaneConstants.VERTICAL_SCROLLBAR_NEVER, ScrollPaneConstants.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+        scrollPane.setBorder(BorderFactory.createEmptyBorder());
+        add(scrollPane, BorderLayout.CENTER);
         
         pack();
         setLocationRelativeTo(null);
@@ -0,0 +1,493 @@
+package train;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Mesures d'exécution d'une ligne, exportées en JMX pour suivre la contention en
+ * production (jconsole, VisualVM, ou tout collecteur JMX).
+ *
+ * Mesures recueillies :
+ * <ul>
+ * <li>par élément : entrées, tentatives bloquées et temps total d'attente des trains
+ * qui y sont arrêtés ;</li>
+ * <li>par segment : entrées et départs bloqués par des trains en sens inverse ;</li>
+ * <li>par raison d'attente ({@link WaitReason}) : histogramme des durées d'attente
+ * ({@link WaitHistogram}), du premier blocage au déplacement ;</li>
+ * <li>pour la ligne : déplacements, dont le débit par seconde entre deux lectures.</li>
+ * </ul>
+ * L'occupation des gares n'est pas recopiée : les MBeans la lisent dans l'état de la
+ * ligne, et le collecteur en fait une courbe en l'échantillonnant.
+ *
+ * L'enregistrement, appelé par {@link Railway} pendant les déplacements, n'alloue
+ * rien et ne prend aucun verrou : compteurs atomiques indexés par identifiant dense
+ * et {@link LongAdder} répartis entre threads. Les durées d'attente ne sont mesurées
+ * que par {@link Railway#move(Train)} : une {@link EventSimulation} n'attend pas en
+ * temps réel (ses blocages sont tout de même comptés).
+ *
+ * <pre>
+ * RailwayMetrics metrics = new RailwayMetrics(railway);
+ * railway.setMetrics(metrics);
+ * metrics.register("main");  // train:type=Railway,name=main, etc.
+ * </pre>
+ */
+public final class RailwayMetrics {
+	private static final String DOMAIN = "train";
+	// Au-delà, les gares ne sont visibles que dans les tableaux du MBean de la ligne
+	static final int MAX_STATION_MBEANS = 1000;
+
+	private final Railway railway;
+	private final AtomicLongArray elementEntries;
+	private final AtomicLongArray elementBlocked;
+	private final AtomicLongArray elementWaitNanos;
+	private final AtomicLongArray segmentEntries;
+	private final AtomicLongArray segmentBlocked;
+	private final WaitHistogram[] waitTimes = new WaitHistogram[WaitReason.values().length];
+	private final LongAdder[] blockedByReason = new LongAdder[WaitReason.values().length];
+	private final LongAdder moves = new LongAdder();
+	private final List<ObjectName> registered = new ArrayList<>();  // Noms enregistrés, pour unregister
+
+	/**
+	 * Crée les compteurs d'une ligne (à installer avec {@link Railway#setMetrics})
+	 * @param railway la ligne mesurée
+	 */
+	public RailwayMetrics(Railway railway) {
+		if (railway == null)
+			throw new NullPointerException();
+
+		this.railway = railway;
+		int elements = railway.getElements().length;
+		int segments = railway.getState().segments().segmentCount();
+		this.elementEntries = new AtomicLongArray(elements);
+		this.elementBlocked = new AtomicLongArray(elements);
+		this.elementWaitNanos = new AtomicLongArray(elements);
+		this.segmentEntries = new AtomicLongArray(segments);
+		this.segmentBlocked = new AtomicLongArray(segments);
+		for (int i = 0; i < waitTimes.length; i++) {
+			waitTimes[i] = new WaitHistogram();
+			blockedByReason[i] = new LongAdder();
+		}
+	}
+
+	// === Enregistrement (appelé par Railway, sans allocation) ===
+
+	/**
+	 * Un train est entré dans un élément
+	 */
+	void moved(int element) {
+		moves.increment();
+		elementEntries.incrementAndGet(element);
+	}
+
+	/**
+	 * Un train est parti d'une gare sur un segment
+	 */
+	void enteredSegment(int segment) {
+		segmentEntries.incrementAndGet(segment);
+	}
+
+	/**
+	 * Une tentative de déplacement a bloqué un train
+	 * @param reason la condition non satisfaite
+	 * @param element l'élément où le train est arrêté
+	 * @param segment le segment convoité si des trains y circulent en sens inverse, sinon -1
+	 */
+	void blocked(WaitReason reason, int element, int segment) {
+		blockedByReason[reason.ordinal()].increment();
+		elementBlocked.incrementAndGet(element);
+		if (segment >= 0) {
+			segmentBlocked.incrementAndGet(segment);
+		}
+	}
+
+	/**
+	 * Un train s'est déplacé après avoir attendu
+	 * @param reason la raison de son premier blocage
+	 * @param element l'élément où il a attendu
+	 * @param nanos la durée de l'attente (ns)
+	 */
+	void waited(WaitReason reason, int element, long nanos) {
+		waitTimes[reason.ordinal()].record(nanos);
+		elementWaitNanos.addAndGet(element, nanos);
+	}
+
+	// === Lecture ===
+
+	/**
+	 * Retourne le nombre total de déplacements
+	 */
+	public long getMoves() {
+		return moves.sum();
+	}
+
+	/**
+	 * Retourne le nombre de tentatives bloquées pour une raison donnée
+	 */
+	public long getBlockedAttempts(WaitReason reason) {
+		return blockedByReason[reason.ordinal()].sum();
+	}
+
+	WaitHistogram getWaitTimes(WaitReason reason) {
+		return waitTimes[reason.ordinal()];
+	}
+
+	private static long[] toArray(AtomicLongArray counters) {
+		long[] result = new long[counters.length()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = counters.get(i);
+		}
+		return result;
+	}
+
+	// === Export JMX ===
+
+	/**
+	 * Enregistre les MBeans de la ligne dans le serveur de la plateforme :
+	 * <ul>
+	 * <li>{@code train:type=Railway,name=<name>} : la ligne ;</li>
+	 * <li>{@code train:type=WaitTime,railway=<name>,reason=<raison>} : une par raison d'attente ;</li>
+	 * <li>{@code train:type=Station,railway=<name>,index=<i>,name=<gare>} : une par gare
+	 * (les {@value #MAX_STATION_MBEANS} premières).</li>
+	 * </ul>
+	 * @param name le nom de la ligne dans les noms des MBeans
+	 * @throws IllegalStateException si un MBean de ce nom existe déjà
+	 */
+	public synchronized void register(String name) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		String line = quoteIfNeeded(name);
+		try {
+			register(server, DOMAIN + ":type=Railway,name=" + line, new Line(), LineMXBean.class);
+			for (WaitReason reason : WaitReason.values()) {
+				register(server, DOMAIN + ":type=WaitTime,railway=" + line + ",reason=" + reason,
+						new WaitTime(reason), WaitTimeMXBean.class);
+			}
+			int stations = 0;
+			for (Element element : railway.getElements()) {
+				if (element instanceof Station && stations++ < MAX_STATION_MBEANS) {
+					register(server, DOMAIN + ":type=Station,railway=" + line + ",index=" + element.getIndex()
+							+ ",name=" + quoteIfNeeded(element.toString()), new StationView((Station) element),
+							StationMXBean.class);
+				}
+			}
+		} catch (JMException e) {
+			unregister();
+			throw new IllegalStateException("enregistrement JMX impossible pour la ligne " + name, e);
+		}
+	}
+
+	private <T> void register(MBeanServer server, String name, T bean, Class<T> type) throws JMException {
+		ObjectName objectName = new ObjectName(name);
+		server.registerMBean(new StandardMBean(bean, type, true), objectName);
+		registered.add(objectName);
+	}
+
+	/**
+	 * Retire les MBeans enregistrés par {@link #register(String)}
+	 */
+	public synchronized void unregister() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (ObjectName objectName : registered) {
+			try {
+				server.unregisterMBean(objectName);
+			} catch (JMException e) {
+				// Déjà retiré
+			}
+		}
+		registered.clear();
+	}
+
+	private static String quoteIfNeeded(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			if (",=:\"*?\n ".indexOf(value.charAt(i)) >= 0) {
+				return ObjectName.quote(value);
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * MBean de la ligne. Les tableaux sont indexés par {@link Element#getIndex()}
+	 * (éléments) ou par identifiant de segment.
+	 */
+	public interface LineMXBean {
+		long getMoves();
+
+		/** Débit depuis la lecture précédente de cet attribut (depuis l'enregistrement la première fois) */
+		double getMovesPerSecond();
+
+		long getBlockedAttempts();
+
+		long getWakeups();
+
+		long getSpuriousWakeups();
+
+		int getTrainCount();
+
+		int getTrainsOnSectionsLR();
+
+		int getTrainsOnSectionsRL();
+
+		String[] getElementNames();
+
+		long[] getElementEntries();
+
+		long[] getElementBlockedAttempts();
+
+		long[] getElementWaitNanos();
+
+		long[] getSegmentEntries();
+
+		long[] getSegmentBlockedAttempts();
+	}
+
+	/**
+	 * MBean des durées d'attente pour une raison donnée (microsecondes)
+	 */
+	public interface WaitTimeMXBean {
+		long getBlockedAttempts();
+
+		long getCount();
+
+		double getTotalMillis();
+
+		double getMeanMicros();
+
+		double getP50Micros();
+
+		double getP90Micros();
+
+		double getP99Micros();
+
+		double getMaxMicros();
+
+		/** Plus longue attente divisée par la moyenne (1 : attentes égales) */
+		double getFairness();
+
+		/** Seau i : attentes de durée dans [2^(i-1), 2^i[ ns */
+		long[] getBuckets();
+	}
+
+	/**
+	 * MBean d'une gare : occupation instantanée et attentes
+	 */
+	public interface StationMXBean {
+		int getCapacity();
+
+		int getOccupancy();
+
+		int getReservedSpots();
+
+		int getAvailableSpots();
+
+		long getArrivals();
+
+		long getBlockedAttempts();
+
+		double getWaitMillis();
+	}
+
+	private final class Line implements LineMXBean {
+		private long lastMoves = moves.sum();
+		private long lastNanos = System.nanoTime();
+
+		@Override
+		public long getMoves() {
+			return moves.sum();
+		}
+
+		@Override
+		public synchronized double getMovesPerSecond() {
+			long now = System.nanoTime();
+			long current = moves.sum();
+			double rate = now == lastNanos ? 0 : (current - lastMoves) * 1e9 / (now - lastNanos);
+			lastMoves = current;
+			lastNanos = now;
+			return rate;
+		}
+
+		@Override
+		public long getBlockedAttempts() {
+			long total = 0;
+			for (LongAdder blocked : blockedByReason) {
+				total += blocked.sum();
+			}
+			return total;
+		}
+
+		@Override
+		public long getWakeups() {
+			return railway.getWakeups();
+		}
+
+		@Override
+		public long getSpuriousWakeups() {
+			return railway.getSpuriousWakeups();
+		}
+
+		@Override
+		public int getTrainCount() {
+			return railway.getTrainCount();
+		}
+
+		@Override
+		public int getTrainsOnSectionsLR() {
+			return railway.getTrainsOnSectionsLR();
+		}
+
+		@Override
+		public int getTrainsOnSectionsRL() {
+			return railway.getTrainsOnSectionsRL();
+		}
+
+		@Override
+		public String[] getElementNames() {
+			Element[] elements = railway.getElements();
+			String[] names = new String[elements.length];
+			for (int i = 0; i < names.length; i++) {
+				names[i] = elements[i].toString();
+			}
+			return names;
+		}
+
+		@Override
+		public long[] getElementEntries() {
+			return toArray(elementEntries);
+		}
+
+		@Override
+		public long[] getElementBlockedAttempts() {
+			return toArray(elementBlocked);
+		}
+
+		@Override
+		public long[] getElementWaitNanos() {
+			return toArray(elementWaitNanos);
+		}
+
+		@Override
+		public long[] getSegmentEntries() {
+			return toArray(segmentEntries);
+		}
+
+		@Override
+		public long[] getSegmentBlockedAttempts() {
+			return toArray(segmentBlocked);
+		}
+	}
+
+	private final class WaitTime implements WaitTimeMXBean {
+		private final WaitReason reason;
+
+		WaitTime(WaitReason reason) {
+			this.reason = reason;
+		}
+
+		private WaitHistogram histogram() {
+			return waitTimes[reason.ordinal()];
+		}
+
+		@Override
+		public long getBlockedAttempts() {
+			return blockedByReason[reason.ordinal()].sum();
+		}
+
+		@Override
+		public long getCount() {
+			return histogram().count();
+		}
+
+		@Override
+		public double getTotalMillis() {
+			return histogram().totalNanos() / 1e6;
+		}
+
+		@Override
+		public double getMeanMicros() {
+			long count = histogram().count();
+			return count == 0 ? 0 : histogram().totalNanos() / 1e3 / count;
+		}
+
+		@Override
+		public double getP50Micros() {
+			return histogram().quantileNanos(0.5) / 1e3;
+		}
+
+		@Override
+		public double getP90Micros() {
+			return histogram().quantileNanos(0.9) / 1e3;
+		}
+
+		@Override
+		public double getP99Micros() {
+			return histogram().quantileNanos(0.99) / 1e3;
+		}
+
+		@Override
+		public double getMaxMicros() {
+			return histogram().maxNanos() / 1e3;
+		}
+
+		@Override
+		public double getFairness() {
+			return histogram().fairness();
+		}
+
+		@Override
+		public long[] getBuckets() {
+			return histogram().buckets();
+		}
+	}
+
+	private final class StationView implements StationMXBean {
+		private final Station station;
+
+		StationView(Station station) {
+			this.station = station;
+		}
+
+		@Override
+		public int getCapacity() {
+			return station.getSize();
+		}
+
+		// Lectures sans verrou : valeurs éventuellement en retard d'un déplacement
+
+		@Override
+		public int getOccupancy() {
+			return station.getTrainCount();
+		}
+
+		@Override
+		public int getReservedSpots() {
+			return station.getReservedSpots();
+		}
+
+		@Override
+		public int getAvailableSpots() {
+			return station.getAvailableSpots();
+		}
+
+		@Override
+		public long getArrivals() {
+			return elementEntries.get(station.getIndex());
+		}
+
+		@Override
+		public long getBlockedAttempts() {
+			return elementBlocked.get(station.getIndex());
+		}
+
+		@Override
+		public double getWaitMillis() {
+			return elementWaitNanos.get(station.getIndex()) / 1e6;
+		}
+	}
+}
@@ -0,0 +1,277 @@
+package train;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * État mutable d'une ligne, rangé en tableaux de types primitifs indexés par
+ * identifiants denses (« struct of arrays ») :
+ * <ul>
+ * <li>par élément (index dans la ligne) : nombre de trains présents et places réservées,
+ * rangés dans un même mot {@code long} ;</li>
+ * <li>par segment : nombre de trains dans chaque direction ({@link SegmentCounters}) ;</li>
+ * <li>par train (identifiant attribué au placement) : index de l'élément occupé et direction.</li>
+ * </ul>
+ * Les objets {@link Element} et {@link Train} ne sont que des vues sur ce stockage,
+ * ce qui réduit la taille du tas et les indirections pour les très grandes flottes.
+ * 
+ * Comme avant, chaque case est protégée par le verrou qui protège l'élément, le
+ * segment ou le train correspondant ; seul l'ajout de trains est synchronisé ici.
+ * En mode {@link ConcurrencyMode#LOCK_FREE}, les mots des éléments et des segments
+ * sont modifiés sans verrou, par compare-and-set ({@link #tryReserve}, etc.) : chaque
+ * condition d'un déplacement (section libre, place dans la gare, aucun train en sens
+ * inverse) porte sur un seul mot.
+ * Les tableaux des trains sont découpés en blocs qui ne sont jamais déplacés, si bien
+ * qu'ajouter un train n'interfère pas avec les déplacements en cours.
+ */
+final class RailwayState {
+	private static final int BLOCK_BITS = 12;  // Blocs de 4096 trains
+	private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+	private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+	private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+	private static final long TRAIN = 1;  // Un train présent (32 bits de poids faible)
+	private static final long SPOT = 1L << 32;  // Une place réservée (32 bits de poids fort)
+
+	// [élément] : places réservées (gares uniquement) << 32 | nombre de trains présents
+	private final long[] elements;
+	private final SegmentCounters segments;  // [segment][direction] : trains engagés
+
+	private volatile int[][] trainElements = new int[0][];  // [train] : index de l'élément occupé
+	private volatile byte[][] trainDirections = new byte[0][];  // [train] : ordinal de la direction
+	private int trainCount = 0;
+
+	RailwayState(int elementCount, int segmentCount) {
+		this.elements = new long[elementCount];
+		this.segments = new SegmentCounters(segmentCount);
+	}
+
+	// === Éléments ===
+
+	int occupancy(int element) {
+		return trains(elements[element]);
+	}
+
+	void setOccupancy(int element, int trains) {
+		elements[element] = (elements[element] & ~0xFFFFFFFFL) | (trains & 0xFFFFFFFFL);
+	}
+
+	int reservations(int element) {
+		return reserved(elements[element]);
+	}
+
+	void setReservations(int element, int spots) {
+		elements[element] = ((long) spots << 32) | (elements[element] & 0xFFFFFFFFL);
+	}
+
+	int elementCount() {
+		return elements.length;
+	}
+
+	/**
+	 * Lit d'un seul accès (volatile) les trains présents et les places réservées d'un
+	 * élément, cohérents entre eux même pendant des déplacements sans verrou
+	 * @return le mot, à décoder par {@link #trains(long)} et {@link #reserved(long)}
+	 */
+	long elementWord(int element) {
+		return (long) WORDS.getVolatile(elements, element);
+	}
+
+	static int trains(long word) {
+		return (int) word;
+	}
+
+	static int reserved(long word) {
+		return (int) (word >>> 32);
+	}
+
+	// === Éléments sans verrou (mode LOCK_FREE) ===
+
+	/**
+	 * Fait entrer un train dans une section si elle est libre
+	 * @return false si elle est occupée
+	 */
+	boolean tryOccupy(int section) {
+		return WORDS.compareAndSet(elements, section, 0L, TRAIN);
+	}
+
+	/**
+	 * Libère une section occupée par le train appelant
+	 */
+	void release(int section) {
+		WORDS.setVolatile(elements, section, 0L);
+	}
+
+	/**
+	 * Ajoute un train ou réserve une place dans une gare s'il en reste une (ni occupée ni
+	 * réservée), en recommençant si le mot a changé entre la lecture et l'écriture
+	 * @param spot true pour réserver une place, false pour ajouter un train
+	 * @return false si la gare est pleine
+	 */
+	private boolean tryAdd(int station, int capacity, long spot) {
+		long word = elementWord(station);
+		while (trains(word) + reserved(word) < capacity) {
+			if (WORDS.weakCompareAndSet(elements, station, word, word + spot)) {
+				return true;
+			}
+			Thread.onSpinWait();
+			word = elementWord(station);
+		}
+		return false;
+	}
+
+	/**
+	 * Réserve une place dans une gare s'il en reste une
+	 * @return false si la gare est pleine
+	 */
+	boolean tryReserve(int station, int capacity) {
+		return tryAdd(station, capacity, SPOT);
+	}
+
+	/**
+	 * Place un train dans une gare s'il y reste une place
+	 * @return false si la gare est pleine
+	 */
+	boolean tryAdmit(int station, int capacity) {
+		return tryAdd(station, capacity, TRAIN);
+	}
+
+	/**
+	 * Annule une réservation prise par {@link #tryReserve}
+	 */
+	void cancelReservation(int station) {
+		WORDS.getAndAdd(elements, station, -SPOT);
+	}
+
+	/**
+	 * Change la réservation d'un train en présence, d'un seul accès
+	 */
+	void arrive(int station) {
+		WORDS.getAndAdd(elements, station, TRAIN - SPOT);
+	}
+
+	/**
+	 * Retire d'une gare un train qui y est présent
+	 */
+	void depart(int station) {
+		WORDS.getAndAdd(elements, station, -TRAIN);
+	}
+
+	// === Segments ===
+
+	SegmentCounters segments() {
+		return segments;
+	}
+
+	// === Trains ===
+
+	/**
+	 * Ajoute un train et lui attribue l'identifiant suivant
+	 * @param element l'index de l'élément où il est placé
+	 * @param direction sa direction
+	 * @return l'identifiant du train
+	 */
+	synchronized int addTrain(int element, Direction direction) {
+		int id = trainCount;
+		int block = id >>> BLOCK_BITS;
+		if (block == trainElements.length) {
+			int[][] elements = java.util.Arrays.copyOf(trainElements, block + 1);
+			byte[][] directions = java.util.Arrays.copyOf(trainDirections, block + 1);
+			elements[block] = new int[BLOCK_SIZE];
+			directions[block] = new byte[BLOCK_SIZE];
+			trainElements = elements;
+			trainDirections = directions;
+		}
+		trainElements[block][id & BLOCK_MASK] = element;
+		trainDirections[block][id & BLOCK_MASK] = (byte) direction.ordinal();
+		trainCount = id + 1;
+		return id;
+	}
+
+	synchronized int trainCount() {
+		return trainCount;
+	}
+
+	/**
+	 * @return l'index de l'élément occupé par le train
+	 */
+	int trainElement(int train) {
+		return trainElements[train >>> BLOCK_BITS][train & BLOCK_MASK];
+	}
+
+	/**
+	 * @return la direction du train
+	 */
+	Direction trainDirection(int train) {
+		return DIRECTIONS[trainDirections[train >>> BLOCK_BITS][train & BLOCK_MASK]];
+	}
+
+	/**
+	 * Enregistre la nouvelle position d'un train
+	 */
+	void moveTrain(int train, int element, Direction direction) {
+		int block = train >>> BLOCK_BITS;
+		trainElements[block][train & BLOCK_MASK] = element;
+		trainDirections[block][train & BLOCK_MASK] = (byte) direction.ordinal();
+	}
+
+	// === Sauvegarde (Checkpoint) ===
+
+	/**
+	 * Retourne la taille en octets de l'état écrit par {@link #save}
+	 */
+	synchronized long savedSize() {
+		return 4L * (2 * elements.length + 2 * segments.segmentCount() + trainCount) + trainCount;
+	}
+
+	/**
+	 * Copie tout l'état dans le tampon, à partir de sa position : présences et
+	 * réservations par élément, compteurs des segments, élément de chaque train (int),
+	 * puis direction de chaque train (octet). Copie par blocs, sans allocation
+	 * proportionnelle à la taille. L'appelant empêche toute modification pendant la copie.
+	 * @param out le tampon (son ordre des octets est respecté), avancé de {@link #savedSize()}
+	 */
+	synchronized void save(ByteBuffer out) {
+		IntBuffer ints = out.asIntBuffer();
+		for (long word : elements) {
+			ints.put(trains(word));
+		}
+		for (long word : elements) {
+			ints.put(reserved(word));
+		}
+		segments.save(ints);
+		for (int first = 0; first < trainCount; first += BLOCK_SIZE) {
+			ints.put(trainElements[first >>> BLOCK_BITS], 0, Math.min(BLOCK_SIZE, trainCount - first));
+		}
+		out.position(out.position() + 4 * ints.position());
+		for (int first = 0; first < trainCount; first += BLOCK_SIZE) {
+			out.put(trainDirections[first >>> BLOCK_BITS], 0, Math.min(BLOCK_SIZE, trainCount - first));
+		}
+	}
+
+	/**
+	 * Remplace tout l'état par celui du tampon, écrit par {@link #save} pour une ligne
+	 * identique avec le même nombre de trains. L'appelant empêche tout accès pendant la copie.
+	 */
+	synchronized void restore(ByteBuffer in) {
+		IntBuffer ints = in.asIntBuffer();
+		for (int i = 0; i < elements.length; i++) {
+			setOccupancy(i, ints.get());
+		}
+		for (int i = 0; i < elements.length; i++) {
+			setReservations(i, ints.get());
+		}
+		segments.restore(ints);
+		for (int first = 0; first < trainCount; first += BLOCK_SIZE) {
+			ints.get(trainElements[first >>> BLOCK_BITS], 0, Math.min(BLOCK_SIZE, trainCount - first));
+		}
+		in.position(in.position() + 4 * ints.position());
+		for (int first = 0; first < trainCount; first += BLOCK_SIZE) {
+			in.get(trainDirections[first >>> BLOCK_BITS], 0, Math.min(BLOCK_SIZE, trainCount - first));
+		}
+	}
+
+	private static final Direction[] DIRECTIONS = Direction.values();
+}
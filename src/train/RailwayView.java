@@ -2,23 +2,81 @@ package train;
 
 import javax.swing.*;
 import java.awt.*;
-import java.util.HashMap;
-import java.util.Map;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
 
 /**
  * Visualisation graphique de la ligne de chemin de fer
  * Affiche les éléments (gares et sections) et les trains qui y circulent
+ * 
+ * Les trains ne touchent jamais la vue : leurs déplacements sont signalés dans un
+ * tampon sans verrou ({@link PositionUpdates}) que la vue relit à cadence fixe
+ * (FRAMES_PER_SECOND), sur le thread Swing, avant de redessiner une seule fois.
+ * Toutes les données de la vue ne sont donc manipulées que par le thread Swing.
+ * 
+ * La vue se place dans un {@link JScrollPane} et se zoome avec Ctrl + molette. Seuls
+ * les éléments de la partie visible sont parcourus, si bien que le coût d'une image ne
+ * dépend pas de la longueur de la ligne :
+ * <ul>
+ * <li>en vue détaillée, le dessin de la voie (fond, éléments vides, noms) est préparé
+ * dans une image hors écran de la taille de la partie visible, refaite seulement quand
+ * celle-ci change (défilement, zoom, taille) ; à chaque image, seuls les éléments dont
+ * l'occupation a changé (et la légende) sont redessinés par-dessus, avec des couleurs,
+ * polices et traits créés une fois ;</li>
+ * <li>en dessous de DETAIL_ZOOM, les trains ne sont plus dessinés : chaque colonne de
+ * HEATMAP_BIN pixels montre le taux d'occupation des éléments qu'elle couvre (trains
+ * présents / capacité), calculé avec un arbre de Fenwick tenu à jour à chaque déplacement.</li>
+ * </ul>
  */
-public class RailwayView extends JPanel {
+public class RailwayView extends JPanel implements Scrollable {
     private static final int ELEMENT_WIDTH = 110;
     private static final int ELEMENT_HEIGHT = 70;
     private static final int TRAIN_SIZE = 35;
     private static final int PADDING = 15;
+    private static final int FRAMES_PER_SECOND = 30;
+    private static final int STEP = ELEMENT_WIDTH + PADDING;  // Largeur occupée par un élément
+    private static final int TRACK_Y = 30;  // Ordonnée des éléments
+    private static final int ELEMENT_AREA_HEIGHT = ELEMENT_HEIGHT + 10 + TRAIN_SIZE + 20;  // Élément, trains et flèches
+    private static final int VIEW_HEIGHT = ELEMENT_HEIGHT + 150;
+    private static final int LEGEND_HEIGHT = 35;
+    private static final int LEGEND_X = 85;  // Début de la partie variable de la légende
+    private static final int MAX_VIEWPORT_WIDTH = 1400;  // Largeur initiale maximale de la fenêtre
+    private static final int MAX_TRAINS_SHOWN = 6;  // Trains dessinés par élément (au-delà : « +n »)
+    // Nombre d'éléments suivants sur lesquels les trains d'un élément peuvent déborder
+    private static final int OVERHANG = (MAX_TRAINS_SHOWN * (TRAIN_SIZE + 10) + 40) / STEP;
+    
+    // === Zoom ===
+    private static final double MAX_ZOOM = 2.0;
+    private static final double DETAIL_ZOOM = 0.35;  // En dessous : carte de chaleur
+    private static final double ZOOM_FACTOR = 1.25;  // Facteur par cran de molette
+    private static final int HEATMAP_BIN = 4;  // Largeur d'une colonne de la carte de chaleur (pixels)
     
     private final Railway railway;
     private final Element[] elements;
-    private final Map<String, Color> trainColors;
-    private final Map<Element, java.util.List<Train>> trainPositions;
+    private final PositionUpdates updates;  // Trains déplacés depuis la dernière image
+    private final Timer frameTimer;  // Cadence de lecture des déplacements
+    private final List<Train> registeredTrains;  // Trains affichés, par identifiant
+    private final List<String> legendLabels;  // [train] : texte de la légende
+    private final List<List<Train>> trainPositions;  // Trains présents, par index d'élément
+    private int[] shownElements = new int[16];  // [train] : index de l'élément où il est affiché
+    private boolean changed;  // La légende (ou la carte de chaleur) doit être redessinée
+    private final IntConsumer refresh = this::refreshTrain;
+    private final String[][] occupancyLabels;  // [élément][trains] : texte « Trains: n/quais » des gares
+    
+    // === Carte de chaleur ===
+    private final int[] occupancyTree;  // Arbre de Fenwick : trains affichés par élément
+    private final long[] capacityPrefix;  // [i] : capacité cumulée des éléments [0, i[
+    
+    // === Zone visible ===
+    private double zoom = 1.0;
+    private final Rectangle visible = new Rectangle();  // Partie visible (coordonnées de la vue)
+    private BufferedImage staticLayer;  // Voie de la partie visible, dessinée hors écran (null : à refaire)
+    private final Rectangle staticBounds = new Rectangle();  // Partie visible dessinée dans staticLayer (réutilisée au défilement)
+    private double staticZoom;  // Zoom de staticLayer
     
     // Couleurs modernes pour les trains
     private static final Color[] COLORS = {
@@ -29,178 +87,586 @@ public class RailwayView extends JPanel {
         new Color(230, 126, 34),  // Orange moderne
         new Color(26, 188, 156)   // Turquoise moderne
     };
+    private static final Color[] DARKER_COLORS = new Color[COLORS.length];
+    static {
+        for (int i = 0; i < COLORS.length; i++) {
+            DARKER_COLORS[i] = COLORS[i].darker();
+        }
+    }
     
-    private int colorIndex = 0;
+    // Dégradé de la carte de chaleur, du vide (blanc) au complet (rouge)
+    private static final Color[] HEAT_COLORS = new Color[32];
+    static {
+        for (int i = 0; i < HEAT_COLORS.length; i++) {
+            float t = i / (float) (HEAT_COLORS.length - 1);
+            HEAT_COLORS[i] = new Color(255 - (int) (35 * t), 255 - (int) (175 * t), 255 - (int) (175 * t));
+        }
+    }
+    
+    // Styles, créés une fois pour toutes
+    private static final Color BACKGROUND = new Color(240, 240, 240);
+    private static final Color TRACK_COLOR = new Color(100, 100, 100);
+    private static final Color STATION_FILL = new Color(70, 70, 70);
+    private static final Color STATION_BORDER = new Color(50, 50, 50);
+    private static final Color CROSSING_COLOR = new Color(100, 200, 100);
+    private static final Color SECTION_BORDER = new Color(180, 180, 180);
+    private static final Color OCCUPIED_FILL = new Color(220, 80, 80);
+    private static final Color OCCUPIED_BORDER = new Color(180, 60, 60);
+    private static final Color TEXT_COLOR = new Color(60, 60, 60);
+    private static final Color ARROW_COLOR = new Color(236, 240, 241);
+    private static final Color MUTED_COLOR = new Color(120, 120, 120);
+    private static final Color FREE_LINE_COLOR = new Color(80, 160, 80);
+    private static final Font NAME_FONT = new Font("SansSerif", Font.BOLD, 11);
+    private static final Font INFO_FONT = new Font("SansSerif", Font.BOLD, 10);
+    private static final Font CROSSING_FONT = new Font("SansSerif", Font.BOLD, 9);
+    private static final Font TRAIN_FONT = new Font("SansSerif", Font.BOLD, 12);
+    private static final Font ARROW_FONT = new Font("SansSerif", Font.BOLD, 14);
+    private static final BasicStroke THIN_STROKE = new BasicStroke(1);
+    private static final BasicStroke BORDER_STROKE = new BasicStroke(2);
+    private static final BasicStroke TRACK_STROKE = new BasicStroke(3);
     
     public RailwayView(Railway railway, Element[] elements) {
         this.railway = railway;
         this.elements = elements;
-        this.trainColors = new HashMap<>();
-        this.trainPositions = new HashMap<>();
+        this.updates = railway.getPositionUpdates();
+        this.frameTimer = new Timer(1000 / FRAMES_PER_SECOND, e -> applyUpdates());
+        this.registeredTrains = new ArrayList<>();
+        this.legendLabels = new ArrayList<>();
+        this.trainPositions = new ArrayList<>(elements.length);
+        this.occupancyTree = new int[elements.length + 1];
+        this.capacityPrefix = new long[elements.length + 1];
         
         // Initialiser les positions vides pour chaque élément
-        for (Element e : elements) {
-            trainPositions.put(e, new java.util.ArrayList<>());
+        this.occupancyLabels = new String[elements.length][];
+        for (int i = 0; i < elements.length; i++) {
+            trainPositions.add(new ArrayList<>());
+            int capacity = 1;
+            if (elements[i] instanceof Station) {
+                int size = ((Station) elements[i]).getSize();
+                capacity = size;
+                occupancyLabels[i] = new String[size + 1];
+                for (int n = 0; n <= size; n++) {
+                    occupancyLabels[i][n] = "Trains: " + n + "/" + size;
+                }
+            }
+            capacityPrefix[i + 1] = capacityPrefix[i] + capacity;
         }
         
-        // Calculer la taille préférée
-        int width = elements.length * (ELEMENT_WIDTH + PADDING) + PADDING;
-        int height = ELEMENT_HEIGHT + 150;
-        setPreferredSize(new Dimension(width, height));
-        setBackground(new Color(240, 240, 240));  // Fond clair simple
+        updatePreferredSize();
+        setBackground(BACKGROUND);  // Fond clair simple
+        setOpaque(true);
+        
+        // Ctrl + molette : zoom autour du pointeur ; sinon défilement normal
+        addMouseWheelListener(this::mouseWheelMoved);
+    }
+    
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        frameTimer.start();
+    }
+    
+    @Override
+    public void removeNotify() {
+        frameTimer.stop();
+        super.removeNotify();
+    }
+    
+    // === Défilement et zoom ===
+    
+    private void updatePreferredSize() {
+        int width = (int) Math.ceil((elements.length * STEP + PADDING) * zoom);
+        setPreferredSize(new Dimension(width, VIEW_HEIGHT));
     }
     
     /**
-     * Enregistre un train avec une couleur unique
+     * Retourne le facteur de zoom (1 : taille réelle)
      */
-    public synchronized void registerTrain(Train train) {
-        if (!trainColors.containsKey(train.getName())) {
-            trainColors.put(train.getName(), COLORS[colorIndex % COLORS.length]);
-            colorIndex++;
+    public double getZoom() {
+        return zoom;
+    }
+    
+    /**
+     * Change le zoom en gardant fixe le point d'abscisse anchorX (coordonnées de la vue)
+     */
+    public void setZoom(double newZoom, int anchorX) {
+        newZoom = Math.max(minZoom(), Math.min(maxZoom(), newZoom));
+        if (newZoom == zoom) {
+            return;
+        }
+        JViewport viewport = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, this);
+        int offset = viewport != null ? anchorX - viewport.getViewPosition().x : 0;
+        double ratio = newZoom / zoom;
+        zoom = newZoom;
+        staticLayer = null;
+        updatePreferredSize();
+        revalidate();
+        if (viewport != null) {
+            // Ajuster immédiatement la taille pour pouvoir positionner la partie visible
+            viewport.validate();
+            int x = (int) Math.round(anchorX * ratio) - offset;
+            int maxX = Math.max(0, getPreferredSize().width - viewport.getExtentSize().width);
+            viewport.setViewPosition(new Point(Math.max(0, Math.min(maxX, x)), 0));
         }
+        repaint();
+    }
+    
+    /**
+     * Zoom minimal : toute la ligne tient dans la largeur visible
+     */
+    private double minZoom() {
+        int width = Math.max(1, getVisibleRect().width);
+        return Math.min(DETAIL_ZOOM, width / (double) (elements.length * STEP + PADDING));
+    }
+    
+    /**
+     * Zoom maximal : la largeur de la vue doit rester représentable
+     */
+    private double maxZoom() {
+        return Math.min(MAX_ZOOM, (1 << 30) / (double) (elements.length * STEP + PADDING));
+    }
+    
+    private void mouseWheelMoved(MouseWheelEvent e) {
+        if (e.isControlDown()) {
+            setZoom(zoom * Math.pow(ZOOM_FACTOR, -e.getPreciseWheelRotation()), e.getX());
+        } else if (getParent() != null) {
+            // Transmettre au JScrollPane
+            getParent().dispatchEvent(SwingUtilities.convertMouseEvent(this, e, getParent()));
+        }
+    }
+    
+    private boolean isDetailed() {
+        return zoom >= DETAIL_ZOOM;
     }
     
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        Dimension size = getPreferredSize();
+        return new Dimension(Math.min(size.width, MAX_VIEWPORT_WIDTH), size.height);
+    }
+    
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.HORIZONTAL ? Math.max(1, (int) (STEP * zoom)) : 10;
+    }
+    
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.HORIZONTAL ? visibleRect.width : visibleRect.height;
+    }
+    
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return false;
+    }
+    
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return true;
+    }
+    
+    // === Mise à jour des positions ===
+    
     /**
-     * Met à jour la position d'un train et redessine
+     * Applique les déplacements signalés depuis la dernière image et redessine
+     * si nécessaire (appelé à chaque image sur le thread Swing)
      */
-    public synchronized void updateTrainPosition(Train train, Element oldElement, Element newElement) {
-        // Retirer le train de l'ancien élément
-        if (oldElement != null && trainPositions.containsKey(oldElement)) {
-            trainPositions.get(oldElement).remove(train);
+    void applyUpdates() {
+        changed = false;
+        computeVisibleRect(visible);
+        
+        // Trains placés depuis la dernière image
+        int count = railway.getTrainCount();
+        for (int id = registeredTrains.size(); id < count; id++) {
+            registerTrain(railway.getTrain(id));
         }
         
-        // Ajouter le train au nouvel élément
-        if (newElement != null && trainPositions.containsKey(newElement)) {
-            if (!trainPositions.get(newElement).contains(train)) {
-                trainPositions.get(newElement).add(train);
+        // Tampon débordé : relire tous les trains
+        if (updates.resetOverflow()) {
+            for (int id = 0; id < registeredTrains.size(); id++) {
+                refreshTrain(id);
             }
         }
+        updates.drain(refresh);
         
-        // Redessiner
-        repaint();
+        if (changed) {
+            if (isDetailed()) {
+                repaint(visible.x + LEGEND_X, visible.y + visible.height - LEGEND_HEIGHT,
+                        visible.width - LEGEND_X, LEGEND_HEIGHT);
+            } else {
+                repaint(visible);
+            }
+        }
     }
     
     /**
-     * Place initialement un train sur un élément
+     * Demande à redessiner un élément et les trains affichés sous lui
+     * (y compris la place d'un train qui vient de le quitter), s'il est visible
      */
-    public synchronized void placeTrainInitially(Train train, Element element) {
-        registerTrain(train);
-        if (trainPositions.containsKey(element)) {
+    private void repaintElement(int index) {
+        if (!isDetailed()) {
+            // La carte de chaleur visible sera redessinée en une fois
+            return;
+        }
+        int shown = Math.min(MAX_TRAINS_SHOWN, trainPositions.get(index).size() + 1);
+        int width = Math.max(STEP, shown * (TRAIN_SIZE + 10) + 40);
+        int x = (int) Math.floor((PADDING + index * STEP) * zoom);
+        int scaledWidth = (int) Math.ceil(width * zoom) + 1;
+        if (x > visible.x + visible.width || x + scaledWidth < visible.x) {
+            return;
+        }
+        repaint(x, (int) Math.floor(TRACK_Y * zoom), scaledWidth, (int) Math.ceil(ELEMENT_AREA_HEIGHT * zoom) + 1);
+    }
+    
+    /**
+     * Ajoute un train à l'affichage, sur l'élément où il se trouve
+     */
+    private void registerTrain(Train train) {
+        int id = train.getId();
+        if (id >= shownElements.length) {
+            shownElements = Arrays.copyOf(shownElements, Math.max(id + 1, 2 * shownElements.length));
+        }
+        int element = railway.getState().trainElement(id);
+        shownElements[id] = element;
+        trainPositions.get(element).add(train);
+        addOccupancy(element, 1);
+        registeredTrains.add(train);
+        legendLabels.add("T" + train.getName());
+        repaintElement(element);
+        changed = true;
+    }
+    
+    /**
+     * Déplace l'affichage d'un train vers l'élément où il se trouve maintenant
+     */
+    private void refreshTrain(int id) {
+        if (id >= registeredTrains.size()) {
+            // Placé après le début de l'image : il sera ajouté à la suivante
+            return;
+        }
+        int element = railway.getState().trainElement(id);
+        int shown = shownElements[id];
+        if (element != shown) {
+            Train train = registeredTrains.get(id);
+            trainPositions.get(shown).remove(train);
             trainPositions.get(element).add(train);
+            addOccupancy(shown, -1);
+            addOccupancy(element, 1);
+            shownElements[id] = element;
+            repaintElement(shown);
         }
-        repaint();
+        // Même sans changer d'élément, sa direction a pu changer
+        repaintElement(element);
+        changed = true;
     }
     
+    // === Arbre de Fenwick des trains affichés ===
+    
+    private void addOccupancy(int element, int delta) {
+        for (int i = element + 1; i < occupancyTree.length; i += i & -i) {
+            occupancyTree[i] += delta;
+        }
+    }
+    
+    /**
+     * @return le nombre de trains affichés sur les éléments [0, end[
+     */
+    private int occupancyBefore(int end) {
+        int sum = 0;
+        for (int i = end; i > 0; i -= i & -i) {
+            sum += occupancyTree[i];
+        }
+        return sum;
+    }
+    
+    /**
+     * Retourne la couleur d'un train, déterminée par son identifiant
+     */
+    private static Color colorOf(Train train) {
+        int id = train.getId();
+        return id < 0 ? Color.GRAY : COLORS[id % COLORS.length];
+    }
+    
+    private static Color borderColorOf(Train train) {
+        int id = train.getId();
+        return id < 0 ? Color.DARK_GRAY : DARKER_COLORS[id % COLORS.length];
+    }
+    
+    // === Dessin ===
+    
     @Override
     protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
         Graphics2D g2d = (Graphics2D) g;
+        computeVisibleRect(visible);
+        if (visible.width <= 0 || visible.height <= 0) {
+            return;
+        }
+        
+        if (isDetailed()) {
+            paintDetailed(g2d);
+        } else {
+            paintHeatmap(g2d);
+        }
+        
+        // Dessiner la légende
+        Rectangle clip = g2d.getClipBounds();
+        if (clip == null || clip.y + clip.height > visible.y + visible.height - LEGEND_HEIGHT) {
+            setRenderingHints(g2d);
+            drawLegend(g2d);
+        }
+    }
+    
+    private static void setRenderingHints(Graphics2D g2d) {
         // Activer l'anti-aliasing pour un rendu lisse
         g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
         g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_LCD_HRGB);
+    }
+    
+    /**
+     * @return l'index de l'élément sous l'abscisse x (coordonnées non zoomées), borné à la ligne
+     */
+    private int elementAt(double x) {
+        int index = (int) Math.floor((x - PADDING) / STEP);
+        return Math.max(0, Math.min(elements.length - 1, index));
+    }
+    
+    private void paintDetailed(Graphics2D g2d) {
+        updateStaticLayer();
         
-        int x = PADDING;
-        int y = 30;
+        // La voie, puis seulement ce qui est dans la zone à redessiner
+        g2d.drawImage(staticLayer, visible.x, visible.y, null);
+        g2d.setFont(NAME_FONT);
+        g2d.setColor(TEXT_COLOR);
+        g2d.drawString("LÉGENDE:", visible.x + 10, visible.y + visible.height - 20);
+        Graphics2D scaled = (Graphics2D) g2d.create();
+        try {
+            scaled.scale(zoom, zoom);
+            setRenderingHints(scaled);
+            Rectangle clip = scaled.getClipBounds();
+            double clipX = clip != null ? clip.x : visible.x / zoom;
+            double clipWidth = clip != null ? clip.width : visible.width / zoom;
+            // Les trains d'une gare peuvent déborder sur les éléments suivants
+            int first = Math.max(0, elementAt(clipX) - OVERHANG);
+            int last = elementAt(clipX + clipWidth);
+            for (int i = first; i <= last; i++) {
+                int x = PADDING + i * STEP;
+                drawOccupancy(scaled, i, x, TRACK_Y);
+                drawTrainsOnElement(scaled, trainPositions.get(i), x, TRACK_Y);
+            }
+        } finally {
+            scaled.dispose();
+        }
+    }
+    
+    /**
+     * Met la partie fixe dessinée hors écran en accord avec la zone visible. L'image
+     * n'est recréée que si la taille de la zone ou le zoom change ; après un défilement,
+     * la partie encore visible est décalée dans l'image et seules les bandes découvertes
+     * sont redessinées.
+     */
+    private void updateStaticLayer() {
+        int width = visible.width;
+        int height = visible.height;
+        if (staticLayer == null || staticZoom != zoom || staticLayer.getWidth() != width
+                || staticLayer.getHeight() != height) {
+            GraphicsConfiguration configuration = getGraphicsConfiguration();
+            staticLayer = configuration != null
+                    ? configuration.createCompatibleImage(width, height)
+                    : new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            staticBounds.setBounds(visible);
+            staticZoom = zoom;
+            drawStaticLayer(0, 0, width, height);
+            return;
+        }
         
-        // Dessiner chaque élément
-        for (int i = 0; i < elements.length; i++) {
-            Element element = elements[i];
+        int dx = visible.x - staticBounds.x;
+        int dy = visible.y - staticBounds.y;
+        if (dx == 0 && dy == 0) {
+            return;
+        }
+        staticBounds.setLocation(visible.x, visible.y);
+        if (Math.abs(dx) >= width || Math.abs(dy) >= height) {
+            drawStaticLayer(0, 0, width, height);
+            return;
+        }
+        Graphics2D g2d = staticLayer.createGraphics();
+        try {
+            g2d.copyArea(Math.max(0, dx), Math.max(0, dy), width - Math.abs(dx), height - Math.abs(dy), -dx, -dy);
+        } finally {
+            g2d.dispose();
+        }
+        if (dx != 0) {
+            drawStaticLayer(dx > 0 ? width - dx : 0, 0, Math.abs(dx), height);
+        }
+        if (dy != 0) {
+            drawStaticLayer(0, dy > 0 ? height - dy : 0, width, Math.abs(dy));
+        }
+    }
+    
+    /**
+     * Dessine dans staticLayer la partie fixe d'une bande de la zone visible : fond,
+     * voie, éléments vides et leurs noms
+     * @param x abscisse de la bande dans l'image
+     * @param y ordonnée de la bande dans l'image
+     */
+    private void drawStaticLayer(int x, int y, int width, int height) {
+        Graphics2D g2d = staticLayer.createGraphics();
+        try {
+            g2d.clipRect(x, y, width, height);
+            setRenderingHints(g2d);
+            g2d.setColor(getBackground());
+            g2d.fillRect(x, y, width, height);
             
-            // Dessiner les connexions entre éléments
-            if (i < elements.length - 1) {
-                g2d.setColor(new Color(100, 100, 100));
-                g2d.setStroke(new BasicStroke(3));
-                g2d.drawLine(x + ELEMENT_WIDTH, y + ELEMENT_HEIGHT / 2, 
-                            x + ELEMENT_WIDTH + PADDING, y + ELEMENT_HEIGHT / 2);
-                g2d.setStroke(new BasicStroke(1));
+            g2d.translate(-visible.x, -visible.y);
+            g2d.scale(zoom, zoom);
+            // L'élément précédent déborde un peu (épaisseur de la voie qui le relie)
+            int first = Math.max(0, elementAt((visible.x + x) / zoom) - 1);
+            int last = elementAt((visible.x + x + width) / zoom);
+            for (int i = first; i <= last; i++) {
+                int elementX = PADDING + i * STEP;
+                int elementY = TRACK_Y;
+                // Dessiner les connexions entre éléments
+                if (i < elements.length - 1) {
+                    g2d.setColor(TRACK_COLOR);
+                    g2d.setStroke(TRACK_STROKE);
+                    g2d.drawLine(elementX + ELEMENT_WIDTH, elementY + ELEMENT_HEIGHT / 2,
+                                elementX + ELEMENT_WIDTH + PADDING, elementY + ELEMENT_HEIGHT / 2);
+                    g2d.setStroke(THIN_STROKE);
+                }
+                drawElement(g2d, elements[i], elementX, elementY);
             }
-            
-            // Dessiner l'élément
-            drawElement(g2d, element, x, y);
-            
-            // Dessiner les trains sur cet élément
-            drawTrainsOnElement(g2d, element, x, y);
-            
-            x += ELEMENT_WIDTH + PADDING;
+        } finally {
+            g2d.dispose();
         }
+    }
+    
+    /**
+     * Carte de chaleur : une colonne de HEATMAP_BIN pixels par groupe d'éléments,
+     * colorée selon le taux d'occupation du groupe
+     */
+    private void paintHeatmap(Graphics2D g2d) {
+        Rectangle clip = g2d.getClipBounds();
+        int from = clip != null ? Math.max(visible.x, clip.x) : visible.x;
+        int to = clip != null ? Math.min(visible.x + visible.width, clip.x + clip.width) : visible.x + visible.width;
         
-        // Dessiner la légende
-        drawLegend(g2d);
+        g2d.setColor(getBackground());
+        g2d.fillRect(from, visible.y, to - from, visible.height);
+        g2d.setFont(NAME_FONT);
+        g2d.setColor(TEXT_COLOR);
+        g2d.drawString("LÉGENDE:", visible.x + 10, visible.y + visible.height - 20);
+        
+        int top = TRACK_Y;
+        int end = (int) Math.ceil((elements.length * STEP + PADDING) * zoom);
+        for (int px = from - Math.floorMod(from, HEATMAP_BIN); px < Math.min(to, end); px += HEATMAP_BIN) {
+            int first = elementAt(px / zoom);
+            int last = Math.max(first, elementAt((px + HEATMAP_BIN) / zoom) - 1);
+            int trains = occupancyBefore(last + 1) - occupancyBefore(first);
+            long capacity = capacityPrefix[last + 1] - capacityPrefix[first];
+            int level = (int) Math.min(HEAT_COLORS.length - 1, trains * (HEAT_COLORS.length - 1) / capacity);
+            g2d.setColor(HEAT_COLORS[level]);
+            g2d.fillRect(px, top, HEATMAP_BIN, ELEMENT_HEIGHT);
+        }
+        g2d.setColor(TRACK_COLOR);
+        g2d.drawRect(Math.max(0, from), top, Math.min(to, end) - Math.max(0, from) - 1, ELEMENT_HEIGHT);
+        
+        g2d.setFont(INFO_FONT);
+        g2d.drawString("Occupation (trains / capacité) - Ctrl + molette pour zoomer",
+                visible.x + 10, top + ELEMENT_HEIGHT + 20);
     }
     
+    /**
+     * Dessine un élément vide (partie fixe)
+     */
     private void drawElement(Graphics2D g2d, Element element, int x, int y) {
         if (element instanceof Station) {
             // Gare - rectangle arrondi simple
             Station station = (Station) element;
             
-            g2d.setColor(new Color(70, 70, 70));
+            g2d.setColor(STATION_FILL);
             g2d.fillRoundRect(x, y, ELEMENT_WIDTH, ELEMENT_HEIGHT, 12, 12);
-            g2d.setColor(new Color(50, 50, 50));
-            g2d.setStroke(new BasicStroke(2));
+            g2d.setColor(STATION_BORDER);
+            g2d.setStroke(BORDER_STROKE);
             g2d.drawRoundRect(x, y, ELEMENT_WIDTH, ELEMENT_HEIGHT, 12, 12);
-            g2d.setStroke(new BasicStroke(1));
+            g2d.setStroke(THIN_STROKE);
             
             g2d.setColor(Color.WHITE);
-            g2d.setFont(new Font("SansSerif", Font.BOLD, 11));
-            
-            String name = element.toString();
-            g2d.drawString(name, x + 8, y + 16);
+            g2d.setFont(NAME_FONT);
+            g2d.drawString(element.toString(), x + 8, y + 16);
             
-            // Afficher le nombre de quais et trains
-            int trainCount = trainPositions.get(element).size();
-            g2d.setFont(new Font("SansSerif", Font.BOLD, 10));
+            // Afficher le nombre de quais (le nombre de trains est dessiné à chaque image)
+            g2d.setFont(INFO_FONT);
             g2d.drawString("Quais: " + station.getSize(), x + 8, y + 32);
-            g2d.drawString("Trains: " + trainCount + "/" + station.getSize(), x + 8, y + 48);
             
             // Indiquer si c'est une gare de croisement
             if (element instanceof IntermediateStation) {
-                g2d.setColor(new Color(100, 200, 100));
-                g2d.setFont(new Font("SansSerif", Font.BOLD, 9));
+                g2d.setColor(CROSSING_COLOR);
+                g2d.setFont(CROSSING_FONT);
                 g2d.drawString("CROISEMENT", x + 8, y + 62);
             }
-            
+        
         } else {
             // Section - rectangle arrondi simple
-            int trainCount = trainPositions.get(element).size();
-            
-            Color fillColor = trainCount > 0 ? new Color(220, 80, 80) : Color.WHITE;
-            Color borderColor = trainCount > 0 ? new Color(180, 60, 60) : new Color(180, 180, 180);
+            g2d.setColor(Color.WHITE);
+            g2d.fillRoundRect(x, y + 20, ELEMENT_WIDTH, ELEMENT_HEIGHT - 40, 10, 10);
+            g2d.setColor(SECTION_BORDER);
+            g2d.setStroke(BORDER_STROKE);
+            g2d.drawRoundRect(x, y + 20, ELEMENT_WIDTH, ELEMENT_HEIGHT - 40, 10, 10);
+            g2d.setStroke(THIN_STROKE);
             
-            g2d.setColor(fillColor);
+            g2d.setColor(TEXT_COLOR);
+            g2d.setFont(NAME_FONT);
+            g2d.drawString(element.toString(), x + 8, y + ELEMENT_HEIGHT / 2 + 4);
+        }
+    }
+    
+    /**
+     * Dessine l'occupation d'un élément par-dessus la partie fixe
+     */
+    private void drawOccupancy(Graphics2D g2d, int index, int x, int y) {
+        Element element = elements[index];
+        int trainCount = trainPositions.get(index).size();
+        if (element instanceof Station) {
+            String[] labels = occupancyLabels[index];
+            g2d.setColor(Color.WHITE);
+            g2d.setFont(INFO_FONT);
+            g2d.drawString(trainCount < labels.length ? labels[trainCount]
+                    : "Trains: " + trainCount + "/" + (labels.length - 1), x + 8, y + 48);
+        } else if (trainCount > 0) {
+            // Section occupée
+            g2d.setColor(OCCUPIED_FILL);
             g2d.fillRoundRect(x, y + 20, ELEMENT_WIDTH, ELEMENT_HEIGHT - 40, 10, 10);
-            g2d.setColor(borderColor);
-            g2d.setStroke(new BasicStroke(2));
+            g2d.setColor(OCCUPIED_BORDER);
+            g2d.setStroke(BORDER_STROKE);
             g2d.drawRoundRect(x, y + 20, ELEMENT_WIDTH, ELEMENT_HEIGHT - 40, 10, 10);
-            g2d.setStroke(new BasicStroke(1));
+            g2d.setStroke(THIN_STROKE);
             
-            g2d.setColor(trainCount > 0 ? Color.WHITE : new Color(60, 60, 60));
-            g2d.setFont(new Font("SansSerif", Font.BOLD, 11));
-            String name = element.toString();
-            g2d.drawString(name, x + 8, y + ELEMENT_HEIGHT / 2 + 4);
+            g2d.setColor(Color.WHITE);
+            g2d.setFont(NAME_FONT);
+            g2d.drawString(element.toString(), x + 8, y + ELEMENT_HEIGHT / 2 + 4);
         }
     }
     
-    private synchronized void drawTrainsOnElement(Graphics2D g2d, Element element, int x, int y) {
-        java.util.List<Train> trains = trainPositions.get(element);
-        if (trains == null || trains.isEmpty()) return;
+    private void drawTrainsOnElement(Graphics2D g2d, List<Train> trains, int x, int y) {
+        if (trains.isEmpty()) return;
         
         int trainY = y + ELEMENT_HEIGHT + 10;
         int trainX = x;
         
-        for (Train train : trains) {
-            Color color = trainColors.getOrDefault(train.getName(), Color.GRAY);
+        int shown = Math.min(MAX_TRAINS_SHOWN, trains.size());
+        for (int i = 0; i < shown; i++) {
+            Train train = trains.get(i);
             
             // Dessiner le train (rectangle arrondi simple)
-            g2d.setColor(color);
+            g2d.setColor(colorOf(train));
             g2d.fillRoundRect(trainX, trainY, TRAIN_SIZE, TRAIN_SIZE, 8, 8);
-            g2d.setColor(color.darker());
-            g2d.setStroke(new BasicStroke(2));
+            g2d.setColor(borderColorOf(train));
+            g2d.setStroke(BORDER_STROKE);
             g2d.drawRoundRect(trainX, trainY, TRAIN_SIZE, TRAIN_SIZE, 8, 8);
-            g2d.setStroke(new BasicStroke(1));
+            g2d.setStroke(THIN_STROKE);
             
             // Nom du train
             g2d.setColor(Color.WHITE);
-            g2d.setFont(new Font("SansSerif", Font.BOLD, 12));
+            g2d.setFont(TRAIN_FONT);
             String name = train.getName();
             FontMetrics fm = g2d.getFontMetrics();
             int textX = trainX + (TRAIN_SIZE - fm.stringWidth(name)) / 2;
@@ -210,32 +676,43 @@ public class RailwayView extends JPanel {
             // Direction avec flèche stylisée
             Direction dir = train.getPosition().getDirection();
             String dirStr = (dir == Direction.LR) ? "→" : "←";
-            g2d.setColor(new Color(236, 240, 241));
-            g2d.setFont(new Font("SansSerif", Font.BOLD, 14));
+            g2d.setColor(ARROW_COLOR);
+            g2d.setFont(ARROW_FONT);
             g2d.drawString(dirStr, trainX + TRAIN_SIZE / 2 - 5, trainY + TRAIN_SIZE + 16);
             
             trainX += TRAIN_SIZE + 10;
         }
+        if (shown < trains.size()) {
+            g2d.setColor(TEXT_COLOR);
+            g2d.setFont(NAME_FONT);
+            g2d.drawString("+" + (trains.size() - shown), trainX, trainY + TRAIN_SIZE / 2 + 4);
+        }
     }
     
+    /**
+     * Dessine la légende en bas de la partie visible (sans zoom) ; les trains qui
+     * ne tiennent pas dans la largeur sont résumés par leur nombre
+     */
     private void drawLegend(Graphics2D g2d) {
-        int legendY = getHeight() - 20;
-        int legendX = 10;
+        int legendY = visible.y + visible.height - 20;
+        int legendX = visible.x + LEGEND_X;
+        int legendEnd = visible.x + visible.width - 200;  // Place réservée à l'état de la ligne
         
-        g2d.setFont(new Font("SansSerif", Font.BOLD, 11));
-        g2d.setColor(new Color(60, 60, 60));
-        g2d.drawString("LÉGENDE:", legendX, legendY);
-        
-        legendX += 75;
-        
-        synchronized (this) {
-            for (Map.Entry<String, Color> entry : trainColors.entrySet()) {
-                g2d.setColor(entry.getValue());
-                g2d.fillRoundRect(legendX, legendY - 12, 14, 14, 4, 4);
-                g2d.setColor(new Color(60, 60, 60));
-                g2d.drawString("T" + entry.getKey(), legendX + 18, legendY);
-                legendX += 55;
-            }
+        g2d.setFont(NAME_FONT);
+        int shown = 0;
+        while (shown < registeredTrains.size() && legendX + 55 <= legendEnd) {
+            Train train = registeredTrains.get(shown);
+            g2d.setColor(colorOf(train));
+            g2d.fillRoundRect(legendX, legendY - 12, 14, 14, 4, 4);
+            g2d.setColor(TEXT_COLOR);
+            g2d.drawString(legendLabels.get(shown), legendX + 18, legendY);
+            legendX += 55;
+            shown++;
+        }
+        if (shown < registeredTrains.size()) {
+            g2d.setColor(TEXT_COLOR);
+            g2d.drawString("+" + (registeredTrains.size() - shown), legendX, legendY);
+            legendX += 40;
         }
         
         // Afficher le statut des trains sur les sections
@@ -243,17 +720,17 @@ public class RailwayView extends JPanel {
         int trainsLR = railway.getTrainsOnSectionsLR();
         int trainsRL = railway.getTrainsOnSectionsRL();
         
-        g2d.setColor(new Color(120, 120, 120));
+        g2d.setColor(MUTED_COLOR);
         g2d.drawString("|", legendX, legendY);
         legendX += 15;
         
-        g2d.setColor(new Color(80, 160, 80));
+        g2d.setColor(FREE_LINE_COLOR);
         if (trainsLR > 0) {
             g2d.drawString("→ " + trainsLR + " sur ligne", legendX, legendY);
         } else if (trainsRL > 0) {
             g2d.drawString("← " + trainsRL + " sur ligne", legendX, legendY);
         } else {
-            g2d.setColor(new Color(120, 120, 120));
+            g2d.setColor(MUTED_COLOR);
             g2d.drawString("Ligne libre", legendX, legendY);
         }
     }
@@ -0,0 +1,518 @@
+package train;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Lecture et écriture de scénarios : une ligne (ses éléments) et la position initiale
+ * de ses trains, en gare. Deux variantes du même contenu :
+ *
+ * <p><b>Texte</b> (UTF-8, un enregistrement par ligne, {@code #} pour un commentaire) :
+ * <pre>
+ * elements 6
+ * station GareA 3
+ * section AB
+ * section BC
+ * intermediate GareC 2
+ * section CD
+ * station GareD 3
+ * trains 3
+ * train 0 LR T1
+ * train 0 LR T2
+ * train 5 RL
+ * </pre>
+ * Un train est désigné par l'index de sa gare, sa direction et, facultativement, son
+ * nom ({@code T<rang>} par défaut, à partir de 1). Les noms ne contiennent pas d'espace.
+ *
+ * <p><b>Binaire</b> (gros-boutiste, {@link DataOutputStream}) :
+ * <pre>
+ * int    0x54524E53 ("TRNS")    short  version (1)
+ * int    nombre d'éléments      puis par élément :
+ *        byte  type (0 section, 1 gare, 2 gare intermédiaire)
+ *        int   quais (gares seulement)
+ *        UTF   nom
+ * int    nombre de trains       byte  1 si les noms suivent, 0 sinon ; puis par train :
+ *        int   index de la gare
+ *        byte  direction (ordinal)
+ *        UTF   nom (si présent)
+ * </pre>
+ * Sans noms, un train occupe 5 octets.
+ *
+ * <p>Les deux lecteurs lisent le flux d'un seul passage : seul le tableau des éléments
+ * est construit en entier (la {@link Railway} en a besoin), les trains sont créés au fil
+ * de la lecture et placés par lots de {@value #BATCH} avec
+ * {@link Railway#placeTrainsAtStations}, qui vérifie la capacité des gares et, par
+ * défaut, la taille de la flotte ({@link FleetAnalysis}) : un scénario qui pourrait
+ * bloquer sa ligne est refusé au chargement, sans avoir à le simuler. Les variantes à
+ * paramètre {@code fleetLimit} permettent de reprendre tel quel un état enregistré qui
+ * dépasse cette limite (relecture d'un journal, étude d'un interblocage). Le temps de
+ * chargement est donc proportionnel à la taille du fichier.
+ */
+public final class Scenario {
+	private static final int MAGIC = 0x54524E53;  // "TRNS"
+	private static final short VERSION = 1;
+	private static final byte SECTION = 0;
+	private static final byte STATION = 1;
+	private static final byte INTERMEDIATE = 2;
+	static final int BATCH = 4096;  // Trains placés par prise de la synchronisation de la ligne
+
+	private Scenario() {
+	}
+
+	/**
+	 * Charge un scénario, texte ou binaire (reconnu à son en-tête)
+	 * @param file le fichier
+	 * @param mode le mode de synchronisation de la ligne construite
+	 * @return la ligne, avec ses trains placés ({@link Railway#getTrain(int)})
+	 * @throws IOException si le fichier est illisible ou mal formé
+	 * @throws BadPositionForTrainException si un train est placé hors d'une gare ou dans une
+	 *         gare pleine, ou si la flotte pourrait bloquer la ligne
+	 */
+	public static Railway load(Path file, ConcurrencyMode mode) throws IOException, BadPositionForTrainException {
+		return load(file, mode, true);
+	}
+
+	/**
+	 * Charge un scénario, texte ou binaire (reconnu à son en-tête)
+	 * @param fleetLimit false pour accepter une flotte qui pourrait bloquer la ligne
+	 *        (voir {@link Railway#setFleetLimitEnforced})
+	 */
+	public static Railway load(Path file, ConcurrencyMode mode, boolean fleetLimit)
+			throws IOException, BadPositionForTrainException {
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+			in.mark(4);
+			byte[] header = new byte[4];
+			int read = in.readNBytes(header, 0, 4);
+			in.reset();
+			if (read == 4 && ((header[0] & 0xff) << 24 | (header[1] & 0xff) << 16 | (header[2] & 0xff) << 8
+					| (header[3] & 0xff)) == MAGIC) {
+				return readBinary(in, mode, fleetLimit);
+			}
+			return readText(new InputStreamReader(in, StandardCharsets.UTF_8), mode, fleetLimit);
+		}
+	}
+
+	/**
+	 * Enregistre la ligne et la position courante de ses trains, qui doivent tous être en gare
+	 * @param binary true pour la variante binaire, false pour le texte
+	 */
+	public static void save(Railway railway, Path file, boolean binary) throws IOException {
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+			if (binary) {
+				writeBinary(railway, out);
+			} else {
+				Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+				writeText(railway, writer);
+				writer.flush();
+			}
+		}
+	}
+
+	// === Texte ===
+
+	/**
+	 * Lit un scénario texte
+	 * @param in le texte (lu jusqu'au bout, non fermé)
+	 * @param mode le mode de synchronisation de la ligne construite
+	 */
+	public static Railway readText(Reader in, ConcurrencyMode mode) throws IOException, BadPositionForTrainException {
+		return readText(in, mode, true);
+	}
+
+	/**
+	 * Lit un scénario texte
+	 * @param fleetLimit false pour accepter une flotte qui pourrait bloquer la ligne
+	 */
+	public static Railway readText(Reader in, ConcurrencyMode mode, boolean fleetLimit)
+			throws IOException, BadPositionForTrainException {
+		BufferedReader reader = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in, 1 << 16);
+		TextReader text = new TextReader(reader);
+
+		int elementCount = text.expectCount("elements");
+		Element[] elements = new Element[elementCount];
+		for (int i = 0; i < elementCount; i++) {
+			String kind = text.next("élément");
+			String name = text.token();
+			if (kind.equals("section")) {
+				elements[i] = new Section(name);
+			} else if (kind.equals("station")) {
+				elements[i] = new Station(name, text.capacity());
+			} else if (kind.equals("intermediate")) {
+				elements[i] = new IntermediateStation(name, text.capacity());
+			} else {
+				throw text.error("type d'élément inconnu : " + kind);
+			}
+			text.end();
+		}
+		Railway railway = new Railway(elements, mode);
+		railway.setFleetLimitEnforced(fleetLimit);
+
+		int trainCount = text.expectCount("trains");
+		TrainBatch batch = new TrainBatch(railway);
+		for (int i = 0; i < trainCount; i++) {
+			if (!text.next("train").equals("train")) {
+				throw text.error("train attendu");
+			}
+			int element = text.integer();
+			Direction direction = text.direction();
+			String name = text.optionalToken();
+			text.end();
+			batch.add(name != null ? name : "T" + (i + 1), element, direction, text.lineNumber);
+		}
+		batch.flush();
+		if (text.nextLine()) {
+			throw text.error("contenu après les trains");
+		}
+		return railway;
+	}
+
+	/**
+	 * Écrit la ligne et la position courante de ses trains en texte
+	 */
+	public static void writeText(Railway railway, Writer out) throws IOException {
+		Element[] elements = railway.getElements();
+		out.write("# Scénario : " + elements.length + " éléments, " + railway.getTrainCount() + " trains\n");
+		out.write("elements " + elements.length + "\n");
+		for (Element element : elements) {
+			String name = checkName(element.toString());
+			if (element instanceof IntermediateStation) {
+				out.write("intermediate " + name + " " + ((Station) element).getSize() + "\n");
+			} else if (element instanceof Station) {
+				out.write("station " + name + " " + ((Station) element).getSize() + "\n");
+			} else {
+				out.write("section " + name + "\n");
+			}
+		}
+		int trainCount = railway.getTrainCount();
+		RailwayState state = railway.getState();
+		out.write("trains " + trainCount + "\n");
+		for (int id = 0; id < trainCount; id++) {
+			out.write("train " + stationOf(railway, id) + " " + state.trainDirection(id).name() + " "
+					+ checkName(railway.getTrain(id).getName()) + "\n");
+		}
+	}
+
+	// === Binaire ===
+
+	/**
+	 * Lit un scénario binaire
+	 * @param in le flux (lu jusqu'à la fin du scénario, non fermé)
+	 * @param mode le mode de synchronisation de la ligne construite
+	 */
+	public static Railway readBinary(InputStream in, ConcurrencyMode mode) throws IOException, BadPositionForTrainException {
+		return readBinary(in, mode, true);
+	}
+
+	/**
+	 * Lit un scénario binaire
+	 * @param fleetLimit false pour accepter une flotte qui pourrait bloquer la ligne
+	 */
+	public static Railway readBinary(InputStream in, ConcurrencyMode mode, boolean fleetLimit)
+			throws IOException, BadPositionForTrainException {
+		return readBinary(new DataInputStream(in instanceof BufferedInputStream ? in : new BufferedInputStream(in, 1 << 16)),
+				mode, fleetLimit);
+	}
+
+	/**
+	 * Lit un scénario binaire sans lire au-delà de sa fin (le flux n'est pas tamponné ici),
+	 * par exemple au début d'un {@link MoveJournal}
+	 */
+	static Railway readBinary(DataInputStream data, ConcurrencyMode mode, boolean fleetLimit)
+			throws IOException, BadPositionForTrainException {
+		if (data.readInt() != MAGIC)
+			throw new IOException("ce n'est pas un scénario binaire");
+		short version = data.readShort();
+		if (version != VERSION)
+			throw new IOException("version de scénario non prise en charge : " + version);
+
+		int elementCount = checkCount(data.readInt(), "éléments");
+		Element[] elements = new Element[elementCount];
+		for (int i = 0; i < elementCount; i++) {
+			byte kind = data.readByte();
+			int capacity = kind == SECTION ? 0 : data.readInt();
+			String name = data.readUTF();
+			if (kind == SECTION) {
+				elements[i] = new Section(name);
+			} else if (kind == STATION) {
+				elements[i] = new Station(name, checkCapacity(capacity, i));
+			} else if (kind == INTERMEDIATE) {
+				elements[i] = new IntermediateStation(name, checkCapacity(capacity, i));
+			} else {
+				throw new IOException("élément " + i + " : type inconnu " + kind);
+			}
+		}
+		Railway railway = new Railway(elements, mode);
+		railway.setFleetLimitEnforced(fleetLimit);
+
+		int trainCount = checkCount(data.readInt(), "trains");
+		boolean named = data.readBoolean();
+		Direction[] directions = Direction.values();
+		TrainBatch batch = new TrainBatch(railway);
+		for (int i = 0; i < trainCount; i++) {
+			int element = data.readInt();
+			int direction = data.readUnsignedByte();
+			if (direction >= directions.length)
+				throw new IOException("train " + (i + 1) + " : direction inconnue " + direction);
+			String name = named ? data.readUTF() : "T" + (i + 1);
+			batch.add(name, element, directions[direction], -1);
+		}
+		batch.flush();
+		return railway;
+	}
+
+	/**
+	 * Écrit la ligne et la position courante de ses trains en binaire
+	 */
+	public static void writeBinary(Railway railway, OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		Element[] elements = railway.getElements();
+		data.writeInt(MAGIC);
+		data.writeShort(VERSION);
+		data.writeInt(elements.length);
+		for (Element element : elements) {
+			if (element instanceof Station) {
+				data.writeByte(element instanceof IntermediateStation ? INTERMEDIATE : STATION);
+				data.writeInt(((Station) element).getSize());
+			} else {
+				data.writeByte(SECTION);
+			}
+			data.writeUTF(element.toString());
+		}
+		int trainCount = railway.getTrainCount();
+		RailwayState state = railway.getState();
+		// Les noms ne sont enregistrés que s'ils diffèrent des noms par défaut
+		boolean named = false;
+		for (int id = 0; id < trainCount && !named; id++) {
+			named = !railway.getTrain(id).getName().equals("T" + (id + 1));
+		}
+		data.writeInt(trainCount);
+		data.writeBoolean(named);
+		for (int id = 0; id < trainCount; id++) {
+			data.writeInt(stationOf(railway, id));
+			data.writeByte(state.trainDirection(id).ordinal());
+			if (named) {
+				data.writeUTF(railway.getTrain(id).getName());
+			}
+		}
+		data.flush();
+	}
+
+	// === Outils ===
+
+	/**
+	 * Retourne l'index de la gare où se trouve un train
+	 * @throws IllegalStateException si le train est sur une section
+	 */
+	private static int stationOf(Railway railway, int id) {
+		int element = railway.getState().trainElement(id);
+		if (!(railway.getElements()[element] instanceof Station))
+			throw new IllegalStateException(railway.getTrain(id).getName() + " n'est pas en gare");
+
+		return element;
+	}
+
+	private static String checkName(String name) {
+		for (int i = 0; i < name.length(); i++) {
+			if (Character.isWhitespace(name.charAt(i)))
+				throw new IllegalArgumentException("nom avec espace, impossible à écrire en texte : " + name);
+		}
+		return name;
+	}
+
+	private static int checkCount(int count, String what) throws IOException {
+		if (count < 0)
+			throw new IOException("nombre de " + what + " négatif : " + count);
+		return count;
+	}
+
+	private static int checkCapacity(int capacity, int element) throws IOException {
+		if (capacity <= 0)
+			throw new IOException("élément " + element + " : nombre de quais invalide " + capacity);
+		return capacity;
+	}
+
+	/**
+	 * Trains lus en attente de placement : seul un lot est gardé en mémoire
+	 */
+	private static final class TrainBatch {
+		private final Railway railway;
+		private final Element[] elements;
+		private final Train[] trains = new Train[BATCH];
+		private final Station[] stations = new Station[BATCH];
+		private int size = 0;
+
+		TrainBatch(Railway railway) {
+			this.railway = railway;
+			this.elements = railway.getElements();
+		}
+
+		/**
+		 * @param line le numéro de ligne (texte) pour les messages, -1 en binaire
+		 */
+		void add(String name, int element, Direction direction, int line)
+				throws IOException, BadPositionForTrainException {
+			if (element < 0 || element >= elements.length)
+				throw new IOException(where(line) + name + " : élément inexistant " + element);
+			if (!(elements[element] instanceof Station))
+				throw new BadPositionForTrainException(name);
+			if (railway.getTopology().next(element, direction) < 0)
+				throw new IOException(where(line) + name + " : aucun élément après " + elements[element]
+						+ " en direction " + direction.name());
+
+			trains[size] = new Train(name, direction, railway);
+			stations[size] = (Station) elements[element];
+			if (++size == BATCH) {
+				flush();
+			}
+		}
+
+		void flush() throws BadPositionForTrainException {
+			railway.placeTrainsAtStations(trains, stations, size);
+			Arrays.fill(trains, 0, size, null);
+			size = 0;
+		}
+
+		private static String where(int line) {
+			return line < 0 ? "" : "ligne " + line + " : ";
+		}
+	}
+
+	/**
+	 * Découpe du texte en enregistrements et en mots, sans expression régulière
+	 */
+	private static final class TextReader {
+		private final BufferedReader reader;
+		private String line;  // Enregistrement courant
+		private int position;  // Position dans l'enregistrement courant
+		int lineNumber = 0;
+
+		TextReader(BufferedReader reader) {
+			this.reader = reader;
+		}
+
+		/**
+		 * Passe à l'enregistrement suivant, en sautant lignes vides et commentaires
+		 * @return false à la fin du texte
+		 */
+		boolean nextLine() throws IOException {
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				position = 0;
+				skipSpaces();
+				if (position < line.length() && line.charAt(position) != '#') {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Passe à l'enregistrement suivant et retourne son premier mot
+		 */
+		String next(String expected) throws IOException {
+			if (!nextLine()) {
+				throw new EOFException("fin du scénario, " + expected + " attendu (ligne " + lineNumber + ")");
+			}
+			return token();
+		}
+
+		int expectCount(String keyword) throws IOException {
+			if (!next(keyword).equals(keyword)) {
+				throw error(keyword + " attendu");
+			}
+			int count = integer();
+			end();
+			if (count < 0) {
+				throw error("nombre négatif : " + count);
+			}
+			return count;
+		}
+
+		String token() throws IOException {
+			String token = optionalToken();
+			if (token == null) {
+				throw error("mot manquant");
+			}
+			return token;
+		}
+
+		/**
+		 * Retourne le mot suivant, ou null en fin d'enregistrement (ou devant un commentaire)
+		 */
+		String optionalToken() {
+			skipSpaces();
+			if (position < line.length() && line.charAt(position) == '#') {
+				return null;
+			}
+			int start = position;
+			while (position < line.length() && !Character.isWhitespace(line.charAt(position))) {
+				position++;
+			}
+			return position == start ? null : line.substring(start, position);
+		}
+
+		int integer() throws IOException {
+			String token = token();
+			try {
+				return Integer.parseInt(token);
+			} catch (NumberFormatException e) {
+				throw error("nombre attendu : " + token);
+			}
+		}
+
+		int capacity() throws IOException {
+			int capacity = integer();
+			if (capacity <= 0) {
+				throw error("nombre de quais invalide : " + capacity);
+			}
+			return capacity;
+		}
+
+		Direction direction() throws IOException {
+			String token = token();
+			if (token.equals("LR")) {
+				return Direction.LR;
+			}
+			if (token.equals("RL")) {
+				return Direction.RL;
+			}
+			throw error("direction attendue (LR ou RL) : " + token);
+		}
+
+		/**
+		 * Vérifie qu'il ne reste rien dans l'enregistrement courant
+		 */
+		void end() throws IOException {
+			skipSpaces();
+			if (position < line.length() && line.charAt(position) != '#') {
+				throw error("texte inattendu : " + line.substring(position));
+			}
+		}
+
+		IOException error(String message) {
+			return new IOException("ligne " + lineNumber + " : " + message);
+		}
+
+		private void skipSpaces() {
+			while (position < line.length() && Character.isWhitespace(line.charAt(position))) {
+				position++;
+			}
+		}
+	}
+}
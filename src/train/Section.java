@@ -9,8 +9,8 @@ package train;
  * @author Philippe Tanguy <philippe.tanguy@imt-atlantique.fr>
  */
 public class Section extends Element {
-	private int trainCount = 0;  // Nombre de trains sur cette section (0 ou 1 maximum)
-	
+	// Le nombre de trains sur la section (0 ou 1 maximum) est rangé dans RailwayState
+
 	public Section(String name) {
 		super(name);
 	}
@@ -22,7 +22,7 @@ public class Section extends Element {
 	 */
 	@Override
 	public boolean canAccept() {
-		return trainCount == 0;
+		return state().occupancy(getIndex()) == 0;
 	}
 
 	/**
@@ -31,7 +31,7 @@ public class Section extends Element {
 	 */
 	@Override
 	public void enter() {
-		trainCount = 1;
+		state().setOccupancy(getIndex(), 1);
 	}
 
 	/**
@@ -40,11 +40,11 @@ public class Section extends Element {
 	 */
 	@Override
 	public void leave() {
-		trainCount = 0;
+		state().setOccupancy(getIndex(), 0);
 	}
 
 	@Override
 	public int getTrainCount() {
-		return trainCount;
+		return state().occupancy(getIndex());
 	}
 }
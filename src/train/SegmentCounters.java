@@ -0,0 +1,139 @@
+package train;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.IntBuffer;
+
+/**
+ * Nombre de trains circulant sur chaque segment, dans chaque direction, stockés
+ * dans un tableau indexé par identifiant de segment (voir {@link Topology}).
+ * Lectures et mises à jour se font sans allocation (pas d'Integer).
+ *
+ * Les compteurs d'un segment sont protégés par le verrou qui protège ce segment
+ * (verrou global de la ligne ou verrou du segment). Les deux compteurs d'un segment
+ * sont rangés dans un même mot : en mode {@link ConcurrencyMode#LOCK_FREE},
+ * {@link #tryEnter} vérifie l'absence de trains en sens inverse et compte le train
+ * d'un seul compare-and-set.
+ */
+final class SegmentCounters {
+	private static final VarHandle COUNTS = MethodHandles.arrayElementVarHandle(long[].class);
+
+	// [segment] : trains allant vers la gauche << 32 | trains allant vers la droite
+	private final long[] counts;
+
+	SegmentCounters(int segmentCount) {
+		this.counts = new long[segmentCount];
+	}
+
+	/**
+	 * Retourne le décalage du compteur d'une direction dans le mot du segment
+	 */
+	private static int shift(Direction direction) {
+		return 32 * direction.ordinal();
+	}
+
+	private static int count(long word, Direction direction) {
+		return (int) (word >>> shift(direction));
+	}
+
+	/**
+	 * @return le nombre de trains sur le segment dans la direction
+	 */
+	int get(int segment, Direction direction) {
+		return count(counts[segment], direction);
+	}
+
+	/**
+	 * Compte un train de plus sur le segment dans la direction
+	 */
+	void increment(int segment, Direction direction) {
+		counts[segment] += 1L << shift(direction);
+	}
+
+	/**
+	 * Compte un train de moins sur le segment dans la direction (sans descendre sous 0)
+	 * @return le nombre de trains restants
+	 */
+	int decrement(int segment, Direction direction) {
+		int remaining = Math.max(0, get(segment, direction) - 1);
+		set(segment, direction, remaining);
+		return remaining;
+	}
+
+	/**
+	 * Fixe le nombre de trains sur le segment dans la direction
+	 */
+	void set(int segment, Direction direction, int trains) {
+		int shift = shift(direction);
+		counts[segment] = (counts[segment] & ~(0xFFFFFFFFL << shift)) | ((trains & 0xFFFFFFFFL) << shift);
+	}
+
+	/**
+	 * Indique, d'une seule lecture (volatile), si le segment a des trains dans les
+	 * deux directions
+	 */
+	boolean isTwoWay(int segment) {
+		long word = (long) COUNTS.getVolatile(counts, segment);
+		return count(word, Direction.LR) > 0 && count(word, Direction.RL) > 0;
+	}
+
+	// === Sans verrou (mode LOCK_FREE) ===
+
+	/**
+	 * Indique, d'une lecture volatile, si des trains circulent sur le segment dans la direction
+	 */
+	boolean hasTrains(int segment, Direction direction) {
+		return count((long) COUNTS.getVolatile(counts, segment), direction) > 0;
+	}
+
+	/**
+	 * Compte un train de plus sur le segment dans la direction, s'il n'y a aucun train
+	 * en sens inverse (en recommençant si le mot a changé entre la lecture et l'écriture)
+	 * @return false si des trains circulent en sens inverse
+	 */
+	boolean tryEnter(int segment, Direction direction) {
+		int opposite = 32 - shift(direction);
+		long word = (long) COUNTS.getVolatile(counts, segment);
+		while ((int) (word >>> opposite) == 0) {
+			if (COUNTS.weakCompareAndSet(counts, segment, word, word + (1L << shift(direction)))) {
+				return true;
+			}
+			Thread.onSpinWait();
+			word = (long) COUNTS.getVolatile(counts, segment);
+		}
+		return false;
+	}
+
+	/**
+	 * Compte un train de moins sur le segment dans la direction (compté par {@link #tryEnter})
+	 * @return le nombre de trains restants
+	 */
+	int leave(int segment, Direction direction) {
+		long word = (long) COUNTS.getAndAdd(counts, segment, -(1L << shift(direction)));
+		return count(word, direction) - 1;
+	}
+
+	int segmentCount() {
+		return counts.length;
+	}
+
+	/**
+	 * Copie les compteurs ([2 * segment + direction]) dans le tampon
+	 */
+	void save(IntBuffer out) {
+		for (long word : counts) {
+			out.put(count(word, Direction.LR));
+			out.put(count(word, Direction.RL));
+		}
+	}
+
+	/**
+	 * Remplace les compteurs par ceux du tampon (écrits par {@link #save})
+	 */
+	void restore(IntBuffer in) {
+		for (int segment = 0; segment < counts.length; segment++) {
+			set(segment, Direction.LR, in.get());
+			set(segment, Direction.RL, in.get());
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package train;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Ensemble concurrent d'états de {@link ModelChecker}, chacun codé sur un nombre fixe
+ * de mots {@code long}, à adressage ouvert (sondage linéaire) dans des tableaux de
+ * types primitifs : aucun objet par état.
+ *
+ * Chaque case contient les mots de l'état puis la case de son prédécesseur (pour
+ * reconstruire un contre-exemple). Le premier mot d'un état n'utilise jamais le bit
+ * de poids fort : rangé avec ce bit, il distingue une case occupée d'une case vide (0)
+ * ou en cours d'écriture ({@link #BUSY}). Un thread réserve une case vide par
+ * compare-and-set, écrit les autres mots puis publie le premier ; un thread qui
+ * trouve une case en cours d'écriture attend sa publication.
+ *
+ * La table est découpée en pages de taille fixe, pour dépasser 2^31 mots ; elle n'est
+ * jamais agrandie (les numéros de case désignent les états) et sa capacité est fixée
+ * à la construction.
+ */
+final class StateSet {
+	static final long BUSY = 1;  // Case réservée, en cours d'écriture
+	private static final long PRESENT = Long.MIN_VALUE;  // Bit de poids fort du premier mot rangé
+	private static final int PAGE_BITS = 24;  // Pages de 16 M mots (128 Mo)
+	private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+	private static final double MAX_LOAD = 0.75;
+
+	private final int words;  // Mots par état
+	private final int stride;  // Mots par case : l'état et son prédécesseur
+	private final long mask;  // Nombre de cases - 1 (puissance de 2)
+	private final long maxSize;
+	private final AtomicLongArray[] pages;
+	private final AtomicLong size = new AtomicLong();
+
+	/**
+	 * @param words le nombre de mots par état
+	 * @param maxStates le nombre d'états que l'ensemble doit pouvoir contenir
+	 */
+	StateSet(int words, long maxStates) {
+		if (words <= 0 || maxStates <= 0)
+			throw new IllegalArgumentException("taille invalide : " + words + " mots, " + maxStates + " états");
+
+		long slots = Long.highestOneBit((long) Math.ceil(maxStates / MAX_LOAD));
+		if (slots < maxStates / MAX_LOAD) {
+			slots <<= 1;
+		}
+		this.words = words;
+		this.stride = words + 1;
+		this.mask = slots - 1;
+		this.maxSize = (long) (slots * MAX_LOAD);
+		long total = slots * stride;
+		int pageCount = (int) ((total + PAGE_MASK) >>> PAGE_BITS);
+		this.pages = new AtomicLongArray[pageCount];
+		for (int p = 0; p < pageCount; p++) {
+			pages[p] = new AtomicLongArray((int) Math.min(1L << PAGE_BITS, total - ((long) p << PAGE_BITS)));
+		}
+	}
+
+	/**
+	 * Ajoute un état s'il n'est pas déjà présent (appelable par plusieurs threads)
+	 * @param state les mots de l'état (premier mot sans bit de poids fort)
+	 * @param parent la case du prédécesseur, -1 pour l'état initial
+	 * @return la case du nouvel état, ou -1 s'il était déjà présent
+	 * @throws IllegalStateException si la capacité est atteinte
+	 */
+	long add(long[] state, long parent) {
+		long first = state[0] | PRESENT;
+		long slot = hash(state) & mask;
+		while (true) {
+			long base = slot * stride;
+			long word = get(base);
+			if (word == 0) {
+				if (!pages[page(base)].compareAndSet(offset(base), 0, BUSY)) {
+					continue;  // Relire la même case
+				}
+				for (int w = 1; w < words; w++) {
+					setPlain(base + w, state[w]);
+				}
+				setPlain(base + words, parent);
+				pages[page(base)].set(offset(base), first);  // Publication
+				// Au-delà de la capacité, la table garde des cases libres : l'erreur n'en bloque aucune
+				if (size.incrementAndGet() > maxSize)
+					throw new IllegalStateException("ensemble des états plein : " + maxSize + " états");
+				return slot;
+			}
+			while (word == BUSY) {
+				Thread.onSpinWait();
+				word = get(base);
+			}
+			if (word == first && equalsTail(base, state)) {
+				return -1;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private boolean equalsTail(long base, long[] state) {
+		for (int w = 1; w < words; w++) {
+			if (getPlain(base + w) != state[w]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Copie l'état d'une case (publiée)
+	 */
+	void read(long slot, long[] state) {
+		long base = slot * stride;
+		state[0] = get(base) & ~PRESENT;
+		for (int w = 1; w < words; w++) {
+			state[w] = getPlain(base + w);
+		}
+	}
+
+	/**
+	 * Retourne la case du prédécesseur d'un état, -1 pour l'état initial
+	 */
+	long parent(long slot) {
+		return getPlain(slot * stride + words);
+	}
+
+	long size() {
+		return size.get();
+	}
+
+	/**
+	 * Retourne la mémoire occupée par la table (octets)
+	 */
+	long memory() {
+		return 8 * (mask + 1) * stride;
+	}
+
+	private long get(long index) {
+		return pages[page(index)].get(offset(index));
+	}
+
+	private long getPlain(long index) {
+		return pages[page(index)].getPlain(offset(index));
+	}
+
+	private void setPlain(long index, long value) {
+		pages[page(index)].setPlain(offset(index), value);
+	}
+
+	private static int page(long index) {
+		return (int) (index >>> PAGE_BITS);
+	}
+
+	private static int offset(long index) {
+		return (int) index & PAGE_MASK;
+	}
+
+	/**
+	 * Mélange des mots de l'état (finaliseur de MurmurHash3)
+	 */
+	private static long hash(long[] state) {
+		long h = 0x9E3779B97F4A7C15L;
+		for (long word : state) {
+			h ^= word;
+			h ^= h >>> 33;
+			h *= 0xFF51AFD7ED558CCDL;
+			h ^= h >>> 33;
+			h *= 0xC4CEB9FE1A85EC53L;
+			h ^= h >>> 33;
+		}
+		return h;
+	}
+}
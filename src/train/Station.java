@@ -10,8 +10,9 @@ package train;
  */
 public class Station extends Element {
 	private final int size;  // Nombre de quais (capacité maximale)
-	private int trainCount = 0;  // Nombre de trains actuellement présents en gare
-	private int reservedSpots = 0;  // Nombre de places réservées par des trains en route vers cette gare
+	// Trains qui attendent de partir, dans l'ordre, pour chaque direction (ordinal)
+	private final DepartureQueue[] departures = { new DepartureQueue(), new DepartureQueue() };
+	// Le nombre de trains présents et de places réservées sont rangés dans RailwayState
 
 	public Station(String name, int size) {
 		super(name);
@@ -33,22 +34,27 @@ public class Station extends Element {
 	 * @return le nombre de places libres
 	 */
 	public int getAvailableSpots() {
-		return size - trainCount - reservedSpots;
+		RailwayState state = state();
+		int index = getIndex();
+		return size - state.occupancy(index) - state.reservations(index);
 	}
 
 	/**
 	 * Réserve une place pour un train en route vers cette gare
 	 */
 	public void reserveSpot() {
-		reservedSpots++;
+		RailwayState state = state();
+		state.setReservations(getIndex(), state.reservations(getIndex()) + 1);
 	}
 
 	/**
 	 * Libère une réservation quand le train arrive (la réservation devient occupation)
 	 */
 	public void consumeReservation() {
-		if (reservedSpots > 0) {
-			reservedSpots--;
+		RailwayState state = state();
+		int reserved = state.reservations(getIndex());
+		if (reserved > 0) {
+			state.setReservations(getIndex(), reserved - 1);
 		}
 	}
 
@@ -60,19 +66,29 @@ public class Station extends Element {
 
 	@Override
 	public void enter() {
-		trainCount++;
+		RailwayState state = state();
+		state.setOccupancy(getIndex(), state.occupancy(getIndex()) + 1);
 	}
 
 	@Override
 	public void leave() {
-		if (trainCount > 0) {
-			trainCount--;
+		RailwayState state = state();
+		int trains = state.occupancy(getIndex());
+		if (trains > 0) {
+			state.setOccupancy(getIndex(), trains - 1);
 		}
 	}
 
 	@Override
 	public int getTrainCount() {
-		return trainCount;
+		return state().occupancy(getIndex());
+	}
+
+	/**
+	 * Retourne la file des trains qui attendent de partir dans une direction
+	 */
+	DepartureQueue getDepartureQueue(Direction direction) {
+		return departures[direction.ordinal()];
 	}
 
 	/**
@@ -80,7 +96,7 @@ public class Station extends Element {
 	 * @return le nombre de places réservées
 	 */
 	public int getReservedSpots() {
-		return reservedSpots;
+		return state().reservations(getIndex());
 	}
 	
 	/**
@@ -0,0 +1,97 @@
+package train;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Type de thread utilisé pour faire rouler un {@link Train}.
+ * <ol>
+ * <li>{@link #PLATFORM} : un thread système par train (comportement historique),
+ * limité à quelques milliers de trains.</li>
+ * <li>{@link #VIRTUAL} : un thread virtuel par train (JDK 21 ou plus), ce qui permet
+ * des centaines de milliers de trains dans une seule JVM. Les attentes de
+ * {@link Railway#move(Train)} utilisent des verrous {@code ReentrantLock} et
+ * {@code LockSupport.park} : elles ne bloquent pas le thread porteur.</li>
+ * </ol>
+ */
+public enum ThreadMode {
+	PLATFORM {
+		@Override
+		public Thread newThread(Runnable task) {
+			return new Thread(task);
+		}
+	},
+	VIRTUAL {
+		@Override
+		public Thread newThread(Runnable task) {
+			if (VirtualThreads.UNSTARTED == null) {
+				throw new UnsupportedOperationException("threads virtuels indisponibles (JDK 21 requis)");
+			}
+			try {
+				return (Thread) VirtualThreads.UNSTARTED.invoke(VirtualThreads.BUILDER.invoke(), task);
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@Override
+		public boolean isSupported() {
+			return VirtualThreads.UNSTARTED != null;
+		}
+	};
+
+	/**
+	 * Crée (sans le démarrer) un thread de ce type
+	 * @param task la tâche exécutée par le thread
+	 * @return le thread créé
+	 */
+	public abstract Thread newThread(Runnable task);
+
+	/**
+	 * Crée et démarre le thread d'un train
+	 * @param train le train à faire rouler
+	 * @return le thread démarré
+	 */
+	public Thread start(Train train) {
+		Thread thread = newThread(train);
+		thread.setName("Train-" + train.getName());
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Indique si ce type de thread est disponible sur la JVM courante
+	 */
+	public boolean isSupported() {
+		return true;
+	}
+
+	/**
+	 * Accès par réflexion à Thread.ofVirtual(), pour compiler avec un JDK antérieur au 21
+	 */
+	private static final class VirtualThreads {
+		static final MethodHandle BUILDER;  // Thread.ofVirtual()
+		static final MethodHandle UNSTARTED;  // Thread.Builder.unstarted(Runnable)
+
+		static {
+			MethodHandle builder = null;
+			MethodHandle unstarted = null;
+			try {
+				MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+				Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+				Class<?> virtualBuilderClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+				builder = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(virtualBuilderClass));
+				unstarted = lookup.findVirtual(builderClass, "unstarted", MethodType.methodType(Thread.class, Runnable.class));
+			} catch (ReflectiveOperationException e) {
+				// JDK antérieur au 21 : pas de threads virtuels
+				builder = null;
+				unstarted = null;
+			}
+			BUILDER = builder;
+			UNSTARTED = unstarted;
+		}
+	}
+}
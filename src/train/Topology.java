@@ -0,0 +1,177 @@
+package train;
+
+/**
+ * Tables de topologie d'une ligne, calculées une seule fois à la construction de
+ * {@link Railway} puis immuables. Elles remplacent les recherches linéaires
+ * (index d'un élément, prochaine gare, segment) par de simples lectures de tableau.
+ * 
+ * Les éléments sont désignés par leur index dans la ligne et les segments (portions
+ * entre deux gares consécutives) par un identifiant dense : le segment k relie la
+ * k-ième gare à la (k+1)-ième.
+ */
+final class Topology {
+	private final int length;  // Nombre d'éléments de la ligne
+	private final int segmentCount;  // Nombre de segments
+	private final boolean[] station;  // true si l'élément est une gare
+	private final int[][] next;  // [direction][index] : index de l'élément suivant, -1 au bout
+	private final Direction[][] directionOnArrival;  // [direction][index] : direction après être arrivé sur l'élément
+	private final int[][] destination;  // [direction][index] : index de la prochaine gare dans la direction
+	private final int[][] departureSegment;  // [direction][index] : segment emprunté en quittant l'élément
+	private final int[] segment;  // [index] : segment contenant l'élément (le segment de droite pour une gare)
+	private final int[] firstSegment;  // [index] : plus petit segment bordant l'élément
+	private final int[] lastSegment;  // [index] : plus grand segment bordant l'élément
+
+	Topology(Element[] elements) {
+		if (elements == null)
+			throw new NullPointerException();
+
+		int n = elements.length;
+		this.length = n;
+		this.station = new boolean[n];
+		int stations = 0;
+		for (int i = 0; i < n; i++) {
+			station[i] = elements[i] instanceof Station;
+			if (station[i]) {
+				stations++;
+			}
+		}
+		this.segmentCount = Math.max(1, stations - 1);
+
+		// Segment contenant chaque élément : nombre de gares à gauche (ou sur) l'élément, moins un
+		this.segment = new int[n];
+		int seen = 0;
+		for (int i = 0; i < n; i++) {
+			if (station[i]) {
+				seen++;
+			}
+			segment[i] = clampSegment(seen - 1);
+		}
+
+		this.firstSegment = new int[n];
+		this.lastSegment = new int[n];
+		for (int i = 0; i < n; i++) {
+			firstSegment[i] = (station[i] && i > 0) ? segment[i - 1] : segment[i];
+			lastSegment[i] = (station[i] && i == n - 1 && i > 0) ? segment[i - 1] : segment[i];
+		}
+
+		int lr = Direction.LR.ordinal();
+		int rl = Direction.RL.ordinal();
+		this.next = new int[2][n];
+		this.directionOnArrival = new Direction[2][n];
+		this.destination = new int[2][n];
+		this.departureSegment = new int[2][n];
+		for (int i = 0; i < n; i++) {
+			next[lr][i] = (i + 1 < n) ? i + 1 : -1;
+			next[rl][i] = (i - 1 >= 0) ? i - 1 : -1;
+			// Changement de direction aux extrémités de la ligne
+			directionOnArrival[lr][i] = (i == n - 1) ? Direction.RL : Direction.LR;
+			directionOnArrival[rl][i] = (i == 0) ? Direction.LR : Direction.RL;
+			departureSegment[lr][i] = segment[i];
+			departureSegment[rl][i] = (i > 0) ? segment[i - 1] : 0;
+		}
+
+		// Prochaine gare vers la gauche : balayage de gauche à droite
+		int lastStation = 0;
+		for (int i = 0; i < n; i++) {
+			destination[rl][i] = lastStation;
+			if (station[i]) {
+				lastStation = i;
+			}
+		}
+		// Prochaine gare vers la droite : balayage de droite à gauche
+		lastStation = n - 1;
+		for (int i = n - 1; i >= 0; i--) {
+			destination[lr][i] = lastStation;
+			if (station[i]) {
+				lastStation = i;
+			}
+		}
+	}
+
+	/**
+	 * Indique si ces tables conviennent à une ligne : même longueur, gares aux mêmes index
+	 */
+	boolean matches(Element[] elements) {
+		if (elements.length != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (station[i] != elements[i] instanceof Station) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int clampSegment(int s) {
+		return Math.max(0, Math.min(s, segmentCount - 1));
+	}
+
+	int length() {
+		return length;
+	}
+
+	int segmentCount() {
+		return segmentCount;
+	}
+
+	boolean isStation(int index) {
+		return station[index];
+	}
+
+	/**
+	 * @return l'index de l'élément suivant dans la direction, -1 au bout de la ligne
+	 */
+	int next(int index, Direction direction) {
+		return next[direction.ordinal()][index];
+	}
+
+	/**
+	 * @return la direction d'un train arrivant sur l'élément (elle change aux extrémités)
+	 */
+	Direction directionOnArrival(int index, Direction direction) {
+		return directionOnArrival[direction.ordinal()][index];
+	}
+
+	/**
+	 * @return l'index de la prochaine gare strictement après l'élément dans la direction
+	 */
+	int destination(int index, Direction direction) {
+		return destination[direction.ordinal()][index];
+	}
+
+	/**
+	 * @return le segment emprunté par un train quittant l'élément dans la direction
+	 */
+	int departureSegment(int index, Direction direction) {
+		return departureSegment[direction.ordinal()][index];
+	}
+
+	/**
+	 * @return le segment d'où vient un train arrivant sur la gare dans la direction
+	 */
+	int arrivalSegment(int index, Direction direction) {
+		return departureSegment[1 - direction.ordinal()][index];
+	}
+
+	/**
+	 * @return le segment contenant l'élément (pour une gare, celui à sa droite)
+	 */
+	int segment(int index) {
+		return segment[index];
+	}
+
+	/**
+	 * @return le plus petit segment bordant l'élément (à gauche pour une gare)
+	 */
+	int firstSegment(int index) {
+		return firstSegment[index];
+	}
+
+	/**
+	 * @return le plus grand segment bordant l'élément (à droite pour une gare)
+	 */
+	int lastSegment(int index) {
+		return lastSegment[index];
+	}
+}
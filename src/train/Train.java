@@ -11,6 +11,8 @@ package train;
  * classe {@link Position}.
  * </li>
  * </ol>
+ * La position est rangée dans le stockage de la ligne ({@link RailwayState}), à
+ * l'identifiant du train : l'objet Train n'en est qu'une vue.
  * 
  * @author Fabien Dagnat <fabien.dagnat@imt-atlantique.fr>
  * @author Mayte segarra <mt.segarra@imt-atlantique.fr>
@@ -19,39 +21,143 @@ package train;
  * @version 0.3
  */
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 public class Train implements Runnable {
 	private final String name;  // Nom du train pour l'identification
-	private Position pos;  // Position actuelle du train (élément + direction)
+	private int id = -1;  // Identifiant dense attribué par la ligne au placement
+	private final Direction initialDirection;  // Direction au placement (ensuite rangée dans RailwayState)
 	private final Railway railway;  // Référence à la ligne ferroviaire
+	private WaitQueue waitQueue;  // File d'attente où le train est bloqué (null s'il ne l'est pas)
+	private DepartureQueue departureQueue;  // File des départs où le train attend son tour (null sinon)
+	private volatile ConcurrentWaitQueue parkedOn;  // File où il attend en mode LOCK_FREE (null sinon)
+	private ConcurrentDepartureQueue concurrentDepartureQueue;  // File des départs en mode LOCK_FREE (null sinon)
+	private Thread waitingThread;  // Thread à réveiller quand la condition attendue change
+	private WaitReason waitReason;  // Raison du dernier blocage (null si le train n'a jamais attendu)
 	static final int DELAY_MS = 1000;  // Délai entre chaque mouvement (en millisecondes)
 
 	public Train(String name, Position p, Railway railway) throws BadPositionForTrainException {
-		// Vérification des paramètres non nuls
-		if (name == null || p == null || railway == null)
-			throw new NullPointerException();
+		// Vérification des paramètres non nuls (p : par p.getDirection())
+		this(name, p.getDirection(), railway);
 
 		// Un train doit obligatoirement démarrer dans une gare
 		if (!(p.getPos() instanceof Station))
 			throw new BadPositionForTrainException(name);
 
-		this.name = name;
-		this.pos = p.clone();
-		this.railway = railway;
-		
 		// Enregistrer le train dans la gare initiale et mettre à jour l'occupation
 		railway.placeTrainAtStation(this, (Station) p.getPos());
 	}
 
+	/**
+	 * Crée un train sans le placer : il doit ensuite l'être par
+	 * {@link Railway#placeTrainsAtStations} (chargement d'un {@link Scenario} par lots)
+	 */
+	Train(String name, Direction initialDirection, Railway railway) {
+		if (name == null || initialDirection == null || railway == null)
+			throw new NullPointerException();
+
+		this.name = name;
+		this.initialDirection = initialDirection;
+		this.railway = railway;
+	}
+
 	public String getName() {
 		return this.name;
 	}
 
+	/**
+	 * Retourne l'identifiant du train sur sa ligne (0, 1, 2... dans l'ordre de placement)
+	 */
+	public int getId() {
+		return this.id;
+	}
+
+	void setId(int id) {
+		this.id = id;
+	}
+
+	Direction getInitialDirection() {
+		return initialDirection;
+	}
+
 	public void setPosition(Position p) {
-		this.pos = p;
+		railway.setTrainPosition(this, p);
 	}
 
+	/**
+	 * Retourne la position du train, prise dans la table des positions partagées de
+	 * sa ligne : aucune allocation, et comparable avec ==
+	 */
 	public Position getPosition() {
-		return this.pos;
+		return railway.getTrainPosition(this);
+	}
+
+	WaitQueue getWaitQueue() {
+		return waitQueue;
+	}
+
+	void setWaitQueue(WaitQueue waitQueue) {
+		this.waitQueue = waitQueue;
+	}
+
+	DepartureQueue getDepartureQueue() {
+		return departureQueue;
+	}
+
+	void setDepartureQueue(DepartureQueue departureQueue) {
+		this.departureQueue = departureQueue;
+	}
+
+	ConcurrentDepartureQueue getConcurrentDepartureQueue() {
+		return concurrentDepartureQueue;
+	}
+
+	void setConcurrentDepartureQueue(ConcurrentDepartureQueue concurrentDepartureQueue) {
+		this.concurrentDepartureQueue = concurrentDepartureQueue;
+	}
+
+	ConcurrentWaitQueue getParkedOn() {
+		return parkedOn;
+	}
+
+	void setParkedOn(ConcurrentWaitQueue queue) {
+		this.parkedOn = queue;
+	}
+
+	/**
+	 * Inscrit le train dans une file s'il n'attend dans aucune
+	 * @return true si c'est cet appel qui l'y a inscrit
+	 */
+	boolean parkOn(ConcurrentWaitQueue queue) {
+		return PARKED_ON.compareAndSet(this, null, queue);
+	}
+
+	/**
+	 * Retire le train de la file où il attend, s'il y attend encore
+	 * @return true si c'est cet appel qui l'en a retiré (il faut alors le réveiller)
+	 */
+	boolean clearParkedOn(ConcurrentWaitQueue queue) {
+		return PARKED_ON.compareAndSet(this, queue, null);
+	}
+
+	Thread getWaitingThread() {
+		return waitingThread;
+	}
+
+	void setWaitingThread(Thread waitingThread) {
+		this.waitingThread = waitingThread;
+	}
+
+	/**
+	 * Retourne la raison du dernier blocage du train (null s'il n'a jamais attendu)
+	 */
+	WaitReason getWaitReason() {
+		return waitReason;
+	}
+
+	void setWaitReason(WaitReason waitReason) {
+		this.waitReason = waitReason;
 	}
 
 	/**
@@ -60,34 +166,44 @@ public class Train implements Runnable {
 	 */
 	@Override
 	public void run() {
-		System.out.println(this + " démarre");
+		railway.record(EventType.TRAIN_STARTED, this, 0);
 		while (true) {
 			try {
 				// Attendre un peu avant de se déplacer (simulation du temps de trajet)
 				Thread.sleep(DELAY_MS);
 				
 				// Se déplacer vers l'élément suivant (avec synchronisation pour éviter les collisions)
-				railway.move(this);
-				
-				// Afficher la nouvelle position
-				System.out.println(this);
+				// puis enregistrer la nouvelle position ; interrompu pendant l'attente, le train
+				// n'a pas bougé et s'arrête au prochain sleep
+				if (railway.move(this)) {
+					railway.record(EventType.TRAIN_MOVED, this, railway.getState().trainDirection(id).ordinal());
+				}
 				
 			} catch (InterruptedException e) {
 				// Le train a été interrompu, on arrête proprement
-				System.out.println(this + " interrompu");
+				railway.record(EventType.TRAIN_STOPPED, this, 0);
 				Thread.currentThread().interrupt();
 				break;
 			}
 		}
 	}
 
+	private static final VarHandle PARKED_ON;
+	static {
+		try {
+			PARKED_ON = MethodHandles.lookup().findVarHandle(Train.class, "parkedOn", ConcurrentWaitQueue.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder result = new StringBuilder("Train[");
 		result.append(this.name);
 		result.append("]");
 		result.append(" is on ");
-		result.append(this.pos);
+		result.append(getPosition());
 		return result.toString();
 	}
 }
@@ -0,0 +1,161 @@
+package train;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Événements JDK Flight Recorder émis par {@link Railway} : déplacements, attentes,
+ * réservations et arrivées en gare. Un enregistrement JFR les montre à côté de la
+ * contention des moniteurs, du GC et de l'EDT :
+ *
+ * <pre>
+ * java -XX:StartFlightRecording=filename=trains.jfr,settings=profile -cp bin train.Main
+ * jfr print --categories Trains trains.jfr
+ * </pre>
+ *
+ * Railway n'appelle ces méthodes qu'une fois JFR initialisé
+ * ({@link jdk.jfr.FlightRecorder#isInitialized()}, au lancement d'un enregistrement, y
+ * compris plus tard par {@code jcmd JFR.start}) : charger {@link Event} coûte plusieurs
+ * centaines de millisecondes au démarrage. Ensuite, chaque émission vérifie sur une
+ * instance partagée si le type d'événement est activé : sans enregistrement en cours,
+ * le coût est un test de champ statique, sans allocation. Les traces de pile ne sont
+ * pas capturées.
+ */
+final class TrainEvents {
+	private static final Move MOVE = new Move();
+	private static final Wait WAIT = new Wait();
+	private static final Reserve RESERVE = new Reserve();
+	private static final Arrive ARRIVE = new Arrive();
+
+	private TrainEvents() {
+	}
+
+	@Name("train.TrainMove")
+	@Label("Déplacement de train")
+	@Category("Trains")
+	@StackTrace(false)
+	static final class Move extends Event {
+		@Label("Train")
+		String train;
+		@Label("Depuis")
+		String from;
+		@Label("Vers")
+		String to;
+		@Label("Direction")
+		String direction;
+	}
+
+	@Name("train.TrainWait")
+	@Label("Attente de train")
+	@Description("Du premier blocage d'un train jusqu'à son déplacement (ou son interruption)")
+	@Category("Trains")
+	@StackTrace(false)
+	static final class Wait extends Event {
+		@Label("Train")
+		String train;
+		@Label("Élément")
+		@Description("Élément où le train est arrêté")
+		String element;
+		@Label("Raison")
+		@Description("Condition qui a bloqué le train en premier")
+		String reason;
+		@Label("Réveils")
+		int wakeups;
+		@Label("Interrompu")
+		boolean interrupted;
+	}
+
+	@Name("train.StationReserve")
+	@Label("Réservation en gare")
+	@Category("Trains")
+	@StackTrace(false)
+	static final class Reserve extends Event {
+		@Label("Train")
+		String train;
+		@Label("Gare")
+		String station;
+		@Label("Places disponibles")
+		@Description("Places encore libres après la réservation")
+		int availableSpots;
+	}
+
+	@Name("train.StationArrive")
+	@Label("Arrivée en gare")
+	@Category("Trains")
+	@StackTrace(false)
+	static final class Arrive extends Event {
+		@Label("Train")
+		String train;
+		@Label("Gare")
+		String station;
+		@Label("Trains présents")
+		int trainCount;
+	}
+
+	static void move(Train train, Element from, Element to, Direction direction) {
+		if (MOVE.isEnabled()) {
+			Move event = new Move();
+			event.train = train.getName();
+			event.from = from.toString();
+			event.to = to.toString();
+			event.direction = direction.name();
+			event.commit();
+		}
+	}
+
+	/**
+	 * Commence l'attente d'un train, au premier blocage
+	 * @return l'événement à terminer avec {@link #endWait}, ou null si le type est désactivé
+	 */
+	static Wait beginWait() {
+		if (!WAIT.isEnabled()) {
+			return null;
+		}
+		Wait event = new Wait();
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Termine l'attente d'un train et l'enregistre
+	 * @param reason la raison du premier blocage
+	 * @param wakeups le nombre de réveils pendant l'attente
+	 * @param interrupted true si le thread a été interrompu avant de se déplacer
+	 */
+	static void endWait(Wait event, Train train, Element element, WaitReason reason, int wakeups,
+			boolean interrupted) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.train = train.getName();
+			event.element = element.toString();
+			event.reason = reason.name();
+			event.wakeups = wakeups;
+			event.interrupted = interrupted;
+			event.commit();
+		}
+	}
+
+	static void reserve(Train train, Station station) {
+		if (RESERVE.isEnabled()) {
+			Reserve event = new Reserve();
+			event.train = train.getName();
+			event.station = station.toString();
+			event.availableSpots = station.getAvailableSpots();
+			event.commit();
+		}
+	}
+
+	static void arrive(Train train, Station station) {
+		if (ARRIVE.isEnabled()) {
+			Arrive event = new Arrive();
+			event.train = train.getName();
+			event.station = station.toString();
+			event.trainCount = station.getTrainCount();
+			event.commit();
+		}
+	}
+}
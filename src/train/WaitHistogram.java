@@ -0,0 +1,120 @@
+package train;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogramme des durées d'attente, à seaux fixes en puissances de deux de
+ * nanosecondes : le seau i compte les durées d dans [2^(i-1), 2^i[ (le seau 0,
+ * les durées nulles). L'enregistrement n'alloue rien (hors cellules des
+ * {@link LongAdder} lors d'une première contention) et ne prend aucun verrou.
+ *
+ * Les quantiles sont estimés par la borne supérieure du seau qui les contient :
+ * au plus un facteur deux d'erreur, suffisant pour suivre la contention.
+ */
+final class WaitHistogram {
+	static final int BUCKETS = 64;
+
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	WaitHistogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Enregistre une durée d'attente
+	 * @param nanos la durée (ns), négative ramenée à zéro
+	 */
+	void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		buckets[64 - Long.numberOfLeadingZeros(nanos)].increment();
+		count.increment();
+		totalNanos.add(nanos);
+		long max;
+		while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+			// Un autre thread a enregistré un maximum entre-temps : relire
+		}
+	}
+
+	/**
+	 * Retourne le nombre d'attentes enregistrées
+	 */
+	long count() {
+		return count.sum();
+	}
+
+	/**
+	 * Retourne la somme des durées d'attente (ns)
+	 */
+	long totalNanos() {
+		return totalNanos.sum();
+	}
+
+	/**
+	 * Retourne la plus longue attente (ns)
+	 */
+	long maxNanos() {
+		return maxNanos.get();
+	}
+
+	/**
+	 * Retourne l'indice d'équité des attentes : la plus longue divisée par la moyenne.
+	 * Il vaut 1 si toutes les attentes sont égales et croît quand quelques trains
+	 * attendent bien plus longtemps que les autres (famine) ; 0 sans attente.
+	 */
+	double fairness() {
+		long count = count();
+		long total = totalNanos();
+		return total == 0 ? 0 : (double) maxNanos() * count / total;
+	}
+
+	/**
+	 * Retourne le contenu des seaux (copie)
+	 */
+	long[] buckets() {
+		long[] result = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			result[i] = buckets[i].sum();
+		}
+		return result;
+	}
+
+	/**
+	 * Estime un quantile des durées d'attente
+	 * @param q le quantile, entre 0 et 1
+	 * @return la borne supérieure (ns) du seau contenant le quantile, 0 si rien n'est enregistré
+	 */
+	long quantileNanos(double q) {
+		long[] counts = buckets();
+		long total = 0;
+		for (long c : counts) {
+			total += c;
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(q * total);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= Math.max(1, rank)) {
+				return Math.min(upperBound(i), maxNanos());
+			}
+		}
+		return maxNanos();
+	}
+
+	/**
+	 * Retourne la borne supérieure (exclue) du seau i, en ns
+	 */
+	static long upperBound(int i) {
+		return i >= 63 ? Long.MAX_VALUE : 1L << i;
+	}
+}
@@ -0,0 +1,63 @@
+package train;
+
+import java.util.ArrayDeque;
+
+/**
+ * File des trains bloqués sur une condition précise : un élément plein (voir
+ * {@link Element#getWaitQueue()}) ou des trains en sens inverse sur un segment.
+ * Quand la condition peut avoir changé, {@link Railway} réveille uniquement les
+ * trains de cette file au lieu de tous les trains en attente.
+ * 
+ * La file n'est pas synchronisée : elle est protégée par le verrou qui protège
+ * l'état attendu (verrou global de la ligne ou verrous des segments concernés).
+ */
+final class WaitQueue {
+	private final ArrayDeque<Train> trains = new ArrayDeque<>();
+
+	/**
+	 * Inscrit un train dans la file (sans effet s'il y est déjà)
+	 * @param train le train bloqué
+	 */
+	void add(Train train) {
+		WaitQueue previous = train.getWaitQueue();
+		if (previous == this) {
+			return;
+		}
+		if (previous != null) {
+			// Réveil parasite : le train attend désormais une autre condition
+			previous.trains.remove(train);
+		}
+		train.setWaitQueue(this);
+		trains.addLast(train);
+	}
+
+	/**
+	 * Retire de la file un train qui n'attend plus (parti après un réveil parasite) :
+	 * un réveil ultérieur ne lui laissera pas d'autorisation de {@code park} inutilisée
+	 * @param train le train inscrit dans cette file
+	 */
+	void remove(Train train) {
+		trains.remove(train);
+		train.setWaitQueue(null);
+	}
+
+	/**
+	 * Retire le premier train de la file
+	 * @return le train retiré ou null si la file est vide
+	 */
+	Train poll() {
+		Train train = trains.pollFirst();
+		if (train != null) {
+			train.setWaitQueue(null);
+		}
+		return train;
+	}
+
+	boolean isEmpty() {
+		return trains.isEmpty();
+	}
+
+	int size() {
+		return trains.size();
+	}
+}
@@ -0,0 +1,27 @@
+package train;
+
+/**
+ * Raison pour laquelle un train ne peut pas se déplacer : la première condition
+ * non satisfaite parmi celles vérifiées par {@link Railway} avant un déplacement.
+ */
+public enum WaitReason {
+	/** L'élément suivant est occupé (section, ou gare intermédiaire pleine) */
+	ELEMENT_BUSY(EventType.WAIT_ELEMENT),
+	/** Des trains circulent en sens inverse sur le segment que le train veut emprunter */
+	OPPOSITE_TRAINS(EventType.WAIT_OPPOSITE_TRAINS),
+	/** La gare de destination n'a plus de place libre (ni réservée) */
+	DESTINATION_FULL(EventType.WAIT_DESTINATION_FULL);
+
+	private final EventType eventType;
+
+	WaitReason(EventType eventType) {
+		this.eventType = eventType;
+	}
+
+	/**
+	 * Retourne le type d'événement du journal correspondant à cette attente
+	 */
+	EventType getEventType() {
+		return eventType;
+	}
+}
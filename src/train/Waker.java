@@ -0,0 +1,25 @@
+package train;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Action exécutée par {@link Railway} pour réveiller un train retiré d'une
+ * {@link WaitQueue} : la condition qu'il attendait peut avoir changé.
+ */
+interface Waker {
+	/**
+	 * Réveil par défaut : débloque le thread du train. Une classe anonyme plutôt
+	 * qu'une lambda, pour ne pas amorcer invokedynamic au démarrage (voir HeadlessMain).
+	 */
+	Waker UNPARK = new Waker() {
+		@Override
+		public void wake(Train train) {
+			LockSupport.unpark(train.getWaitingThread());
+		}
+	};
+
+	/**
+	 * @param train le train à réveiller
+	 */
+	void wake(Train train);
+}